@@ -9,6 +9,7 @@ import main.commands.*;
 import main.commands.encryption.*;
 import main.commands.sqlite.SQLiteClient;
 import main.commands.formatter.FormatterCommand;
+import main.commands.hash.HashCommand;
 import main.commands.logging.*;
 @TopCommand
 @Command(
@@ -22,6 +23,7 @@ import main.commands.logging.*;
             EncryptionCommand.class,
             SQLiteClient.class,
             FormatterCommand.class,
+            HashCommand.class,
             LoggerCommand.class
         }
 )
@@ -0,0 +1,162 @@
+package main.commands.encryption;
+
+import main.commands.hash.FileHasher;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the size, modification time and SHA-256 of every source file processed into an output
+ * folder, so later runs can skip files that have not changed.
+ *
+ * <p>The manifest is a tab-separated text file, one entry per line:
+ * {@code size<TAB>modified-millis<TAB>sha256<TAB>relative/path}. The settings the outputs were made
+ * with (e.g. mode, cipher suite and a key fingerprint) are recorded in a {@code # settings} line, so
+ * a run with different settings can tell that none of the outputs are current.
+ */
+public class ChangeManifest {
+
+    public static final String FILE_NAME = ".qbox-manifest";
+
+    private static final String HEADER = "# qbox manifest v1";
+    private static final String SETTINGS_PREFIX = "# settings\t";
+
+    /**
+     * The recorded state of one source file.
+     */
+    public static final class Entry {
+        public final long size;
+        public final long modified;
+        public final String sha256;
+
+        public Entry(long size, long modified, String sha256) {
+            this.size = size;
+            this.modified = modified;
+            this.sha256 = sha256;
+        }
+
+        /**
+         * @return true if the size and modification time match, i.e. the file is very likely unchanged.
+         */
+        public boolean matches(long size, long modified) {
+            return this.size == size && this.modified == modified;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private String settings;
+
+    /**
+     * Load a manifest, or return an empty one if the file does not exist.
+     *
+     * @param path the manifest file.
+     * @return the manifest.
+     * @throws IOException if the file exists but cannot be read or parsed.
+     */
+    public static ChangeManifest load(Path path) throws IOException {
+        ChangeManifest manifest = new ChangeManifest();
+        if (!Files.exists(path)) {
+            return manifest;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.startsWith(SETTINGS_PREFIX)) {
+                    manifest.settings = line.substring(SETTINGS_PREFIX.length());
+                    continue;
+                }
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 4);
+                if (fields.length != 4) {
+                    throw new IOException("Invalid manifest entry at " + path + ":" + lineNumber);
+                }
+                try {
+                    manifest.entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid manifest entry at " + path + ":" + lineNumber, e);
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Write the manifest atomically, sorted by path.
+     *
+     * @param path the manifest file.
+     * @throws Exception if writing fails.
+     */
+    public void save(Path path) throws Exception {
+        EncryptionLogic.writeAtomically(path, out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write(HEADER);
+            writer.write('\n');
+            if (settings != null) {
+                writer.write(SETTINGS_PREFIX + settings);
+                writer.write('\n');
+            }
+            for (Map.Entry<String, Entry> item : new TreeMap<>(entries).entrySet()) {
+                Entry entry = item.getValue();
+                writer.write(entry.size + "\t" + entry.modified + "\t" + entry.sha256 + "\t" + item.getKey());
+                writer.write('\n');
+            }
+            writer.flush();
+        });
+    }
+
+    /**
+     * @return the settings the recorded outputs were made with, or null if none were recorded.
+     */
+    public String settings() {
+        return settings;
+    }
+
+    /**
+     * @param settings the settings the recorded outputs are made with; must not contain line breaks.
+     */
+    public void settings(String settings) {
+        this.settings = settings;
+    }
+
+    public Entry get(String relativePath) {
+        return entries.get(relativePath);
+    }
+
+    public void put(String relativePath, Entry entry) {
+        entries.put(relativePath, entry);
+    }
+
+    public void remove(String relativePath) {
+        entries.remove(relativePath);
+    }
+
+    public Set<String> paths() {
+        return entries.keySet();
+    }
+
+    /**
+     * Compute the SHA-256 of a file as a lowercase hex string, the same way {@code qbox hash} does,
+     * so hashes from either kind of manifest can be compared.
+     *
+     * @param path the file.
+     * @return the hex digest.
+     * @throws IOException if the file cannot be read.
+     */
+    public static String sha256(Path path) throws IOException {
+        return FileHasher.hash(path, FileHasher.Algorithm.SHA256);
+    }
+}
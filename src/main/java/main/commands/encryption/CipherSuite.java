@@ -0,0 +1,180 @@
+package main.commands.encryption;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Authenticated ciphers that records can be sealed with. The suite id is stored in the container
+ * and string headers, so decryption always uses the suite a value was encrypted with.
+ *
+ * <p>Every suite takes a 256-bit key, a 96-bit nonce and produces a 128-bit tag, so the record
+ * layout is the same for all of them and a key can be used with any suite. AES-GCM is the fastest
+ * where the CPU has AES instructions the JVM can use; ChaCha20-Poly1305 is faster where it has not.
+ */
+public enum CipherSuite {
+
+    AES_256_GCM((byte) 1, "aes-256-gcm", "AES/GCM/NoPadding", "AES"),
+    CHACHA20_POLY1305((byte) 2, "chacha20-poly1305", "ChaCha20-Poly1305", "ChaCha20");
+
+    static final int KEY_SIZE = 256;
+
+    private final byte id;
+    private final String displayName;
+    private final String transformation;
+    private final String keyAlgorithm;
+    private final ThreadLocal<Cipher> ciphers;
+
+    CipherSuite(byte id, String displayName, String transformation, String keyAlgorithm) {
+        this.id = id;
+        this.displayName = displayName;
+        this.transformation = transformation;
+        this.keyAlgorithm = keyAlgorithm;
+        this.ciphers = ThreadLocal.withInitial(() -> {
+            try {
+                return newCipher();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(displayName + " is not available in this JVM", e);
+            }
+        });
+    }
+
+    /**
+     * @return the id stored in container and string headers.
+     */
+    public byte id() {
+        return id;
+    }
+
+    /**
+     * @return the name used on the command line, e.g. {@code aes-256-gcm}.
+     */
+    public String displayName() {
+        return displayName;
+    }
+
+    /**
+     * @return the JCA algorithm of the suite's keys, e.g. {@code AES}.
+     */
+    public String keyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    /**
+     * @return true if the running JVM provides this suite.
+     */
+    public boolean isAvailable() {
+        try {
+            newCipher();
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Generate a new random key for this suite.
+     *
+     * @return the key.
+     * @throws GeneralSecurityException if the suite is not available.
+     */
+    public SecretKey generateKey() throws GeneralSecurityException {
+        KeyGenerator keyGen = KeyGenerator.getInstance(keyAlgorithm);
+        keyGen.init(KEY_SIZE);
+        return keyGen.generateKey();
+    }
+
+    Cipher newCipher() throws GeneralSecurityException {
+        return Cipher.getInstance(transformation);
+    }
+
+    /**
+     * Initialise this thread's cipher instance for one record.
+     *
+     * @param mode   {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}.
+     * @param key    a 256-bit key of any suite.
+     * @param nonce  holds the nonce at {@code nonce[offset, offset + length)}.
+     * @return the initialised cipher.
+     * @throws GeneralSecurityException if the key is invalid.
+     */
+    Cipher init(int mode, SecretKey key, byte[] nonce, int offset, int length) throws GeneralSecurityException {
+        Cipher cipher = ciphers.get();
+        try {
+            cipher.init(mode, key(key), parameters(nonce, offset, length));
+        } catch (InvalidKeyException e) {
+            // ChaCha20 refuses a key and nonce equal to those of its previous initialisation, which
+            // happens when the same value is decrypted twice in a row; a new instance has no history
+            cipher = newCipher();
+            cipher.init(mode, key(key), parameters(nonce, offset, length));
+            ciphers.set(cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * The providers check the key algorithm, so a key decoded for one suite is rewrapped for another.
+     *
+     * @param key a 256-bit key of any suite.
+     * @return the same key material labelled for this suite.
+     */
+    private SecretKey key(SecretKey key) {
+        return keyAlgorithm.equals(key.getAlgorithm()) ? key : new SecretKeySpec(key.getEncoded(), keyAlgorithm);
+    }
+
+    private AlgorithmParameterSpec parameters(byte[] nonce, int offset, int length) {
+        return this == AES_256_GCM
+                ? new GCMParameterSpec(StreamingEncryption.TAG_LENGTH * 8, nonce, offset, length)
+                : new IvParameterSpec(nonce, offset, length);
+    }
+
+    /**
+     * Look up a suite by name, e.g. {@code aes-256-gcm}, {@code aes}, {@code chacha20-poly1305} or {@code chacha20}.
+     *
+     * @param name the suite name.
+     * @return the suite.
+     */
+    public static CipherSuite forName(String name) {
+        String normalized = name.trim().toLowerCase(Locale.ROOT).replace('_', '-');
+        for (CipherSuite suite : values()) {
+            if (suite.displayName.equals(normalized) || suite.keyAlgorithm.toLowerCase(Locale.ROOT).equals(normalized)) {
+                return suite;
+            }
+        }
+        throw new IllegalArgumentException("Unknown cipher suite: " + name + " (supported: "
+                + Arrays.stream(values()).map(CipherSuite::displayName).collect(Collectors.joining(", ")) + ")");
+    }
+
+    /**
+     * Look up the suite for a header id.
+     *
+     * @param id the id read from a header.
+     * @return the suite.
+     * @throws IOException if the id is unknown.
+     */
+    static CipherSuite forId(byte id) throws IOException {
+        for (CipherSuite suite : values()) {
+            if (suite.id == id) {
+                return suite;
+            }
+        }
+        throw new IOException("Unsupported cipher identifier: " + id);
+    }
+
+    /**
+     * @return the suite new data is encrypted with unless one is given explicitly; set with
+     * {@code qbox encryption bench --suites --set-default}.
+     */
+    public static CipherSuite defaultSuite() {
+        return EncryptionConfig.defaultSuite();
+    }
+}
@@ -0,0 +1,74 @@
+package main.commands.encryption;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Compresses the plaintext of each chunk before it is encrypted. The codec id is stored in the
+ * container header, so a decoder knows how to undo it. Implementations must be thread-safe.
+ */
+public interface CompressionCodec {
+
+    /**
+     * Header codec id of uncompressed containers.
+     */
+    byte NONE = 0;
+
+    /**
+     * @return the id stored in the container header.
+     */
+    byte id();
+
+    /**
+     * @return the name used on the command line.
+     */
+    String name();
+
+    /**
+     * Compress {@code src[srcOffset, srcOffset + length)} into {@code dst}.
+     *
+     * @param maxLength the largest acceptable compressed size.
+     * @return the compressed size, or -1 if the data does not compress to {@code maxLength} bytes or less.
+     */
+    int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int maxLength);
+
+    /**
+     * Decompress {@code src[srcOffset, srcOffset + length)} into {@code dst}.
+     *
+     * @param maxLength the largest acceptable decompressed size.
+     * @return the decompressed size.
+     * @throws IOException if the data is corrupt or decompresses to more than {@code maxLength} bytes.
+     */
+    int decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int maxLength) throws IOException;
+
+    /**
+     * Look up a codec by name, e.g. {@code deflate} or {@code deflate:1} for a specific level.
+     *
+     * @param name the codec name.
+     * @return the codec.
+     */
+    static CompressionCodec forName(String name) {
+        String[] parts = name.trim().toLowerCase(Locale.ROOT).split(":", 2);
+        if (parts[0].equals(DeflateCodec.NAME)) {
+            return parts.length == 1 ? DeflateCodec.DEFAULT : new DeflateCodec(Integer.parseInt(parts[1]));
+        }
+        throw new IllegalArgumentException("Unknown compression codec: " + name + " (supported: deflate, deflate:0-9)");
+    }
+
+    /**
+     * Look up the codec for a header codec id.
+     *
+     * @param id the id read from a container header.
+     * @return the codec, or null for {@link #NONE}.
+     * @throws IOException if the id is unknown.
+     */
+    static CompressionCodec forId(byte id) throws IOException {
+        if (id == NONE) {
+            return null;
+        }
+        if (id == DeflateCodec.ID) {
+            return DeflateCodec.DEFAULT;
+        }
+        throw new IOException("Unsupported compression codec identifier: " + id);
+    }
+}
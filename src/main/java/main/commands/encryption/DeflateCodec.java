@@ -0,0 +1,78 @@
+package main.commands.encryption;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link CompressionCodec} backed by {@code java.util.zip}. Each thread reuses its own
+ * {@link Deflater} and {@link Inflater}, so no native state is allocated per chunk.
+ */
+final class DeflateCodec implements CompressionCodec {
+
+    static final byte ID = 1;
+    static final String NAME = "deflate";
+    static final DeflateCodec DEFAULT = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    DeflateCodec(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Deflate level must be between 0 and 9.");
+        }
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int maxLength) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(src, srcOffset, length);
+        deflater.finish();
+        int total = 0;
+        while (!deflater.finished()) {
+            if (total >= maxLength) {
+                return -1;
+            }
+            total += deflater.deflate(dst, dstOffset + total, maxLength - total);
+        }
+        return total;
+    }
+
+    @Override
+    public int decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int maxLength) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(src, srcOffset, length);
+        int total = 0;
+        try {
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(dst, dstOffset + total, maxLength - total);
+                total += inflated;
+                if (inflated == 0 && !inflater.finished()) {
+                    throw new IOException(total == maxLength
+                            ? "Compressed chunk is larger than the chunk size."
+                            : "Compressed chunk is truncated.");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed chunk is corrupt: " + e.getMessage(), e);
+        }
+        if (inflater.getRemaining() > 0) {
+            throw new IOException("Compressed chunk has trailing data.");
+        }
+        return total;
+    }
+}
@@ -0,0 +1,220 @@
+package main.commands.encryption;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import javax.crypto.SecretKey;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro-benchmarks for the encryption backends and cipher suites.
+ */
+public class EncryptionBenchmark {
+
+    private static final int IO_BUFFER_SIZE = 256 * 1024;
+    // Both backends write chunks of this size, so the comparison measures only the I/O path
+    static final int IO_CHUNK_SIZE = ParallelFileEncryption.DEFAULT_SEGMENT_SIZE;
+    private static final long WARM_UP_SIZE = 16L * 1024 * 1024;
+    private static final int WARM_UP_RUNS = 5;
+
+    /**
+     * Throughput of both file backends for one input size.
+     */
+    public static final class IoResult {
+        public final long size;
+        public final double streamMbPerSecond;
+        public final double mappedMbPerSecond;
+
+        IoResult(long size, double streamMbPerSecond, double mappedMbPerSecond) {
+            this.size = size;
+            this.streamMbPerSecond = streamMbPerSecond;
+            this.mappedMbPerSecond = mappedMbPerSecond;
+        }
+
+        public boolean mappedIsFaster() {
+            return mappedMbPerSecond > streamMbPerSecond;
+        }
+    }
+
+    /**
+     * Throughput of one cipher suite.
+     */
+    public static final class SuiteResult {
+        public final CipherSuite suite;
+        public final double encryptMbPerSecond;
+        public final double decryptMbPerSecond;
+
+        SuiteResult(CipherSuite suite, double encryptMbPerSecond, double decryptMbPerSecond) {
+            this.suite = suite;
+            this.encryptMbPerSecond = encryptMbPerSecond;
+            this.decryptMbPerSecond = decryptMbPerSecond;
+        }
+
+        /**
+         * @return the combined rate used to rank suites: a megabyte encrypted and decrypted per second.
+         */
+        public double roundTripMbPerSecond() {
+            return 1 / (1 / encryptMbPerSecond + 1 / decryptMbPerSecond);
+        }
+    }
+
+    /**
+     * Compare buffered-stream and memory-mapped file encryption for a range of file sizes. Both
+     * backends write containers with the same chunk size ({@link #IO_CHUNK_SIZE}).
+     *
+     * @param sizes      the file sizes to test, in bytes.
+     * @param iterations the number of timed runs per size; the best run is reported.
+     * @param workDir    the directory for temporary files.
+     * @return one result per size.
+     * @throws Exception if a benchmark run fails.
+     */
+    public static List<IoResult> benchmarkIo(long[] sizes, int iterations, Path workDir) throws Exception {
+        SecretKey key = EncryptionLogic.decodeKey(EncryptionLogic.generateKey());
+        List<IoResult> results = new ArrayList<>();
+        Path input = Files.createTempFile(workDir, "qbox-bench-", ".in");
+        Path output = Files.createTempFile(workDir, "qbox-bench-", ".out");
+        try {
+            // Compile the hot paths before timing anything, otherwise the first sizes measure the JIT
+            writeRandomFile(input, WARM_UP_SIZE);
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                encryptWithStreams(input, output, key);
+                ChannelFileEncryption.encrypt(input, output, key, IO_CHUNK_SIZE);
+            }
+
+            for (long size : sizes) {
+                writeRandomFile(input, size);
+                // One untimed run per backend to warm up the page cache
+                encryptWithStreams(input, output, key);
+                ChannelFileEncryption.encrypt(input, output, key, IO_CHUNK_SIZE);
+
+                long bestStream = Long.MAX_VALUE;
+                long bestMapped = Long.MAX_VALUE;
+                for (int i = 0; i < iterations; i++) {
+                    long start = System.nanoTime();
+                    encryptWithStreams(input, output, key);
+                    bestStream = Math.min(bestStream, System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    ChannelFileEncryption.encrypt(input, output, key, IO_CHUNK_SIZE);
+                    bestMapped = Math.min(bestMapped, System.nanoTime() - start);
+                }
+                results.add(new IoResult(size, megabytesPerSecond(size, bestStream), megabytesPerSecond(size, bestMapped)));
+            }
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+        return results;
+    }
+
+    /**
+     * Measure every cipher suite available in this JVM by encrypting and decrypting {@code size}
+     * bytes in memory through the streaming container, so disk speed does not blur the comparison.
+     *
+     * @param size       the plaintext size per run, in bytes.
+     * @param iterations the number of timed runs per suite; the best run is reported.
+     * @return one result per available suite, fastest first.
+     * @throws Exception if a benchmark run fails.
+     */
+    public static List<SuiteResult> benchmarkSuites(long size, int iterations) throws Exception {
+        if (size > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Suite benchmark size must be below 1 GiB.");
+        }
+        byte[] plain = new byte[(int) size];
+        new Random(size).nextBytes(plain);
+        byte[] warmUp = new byte[(int) Math.min(size, WARM_UP_SIZE)];
+        SecretKey key = EncryptionLogic.decodeKey(EncryptionLogic.generateKey(CipherSuite.AES_256_GCM));
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream((int) size + (int) size / 16 + 4096);
+
+        List<SuiteResult> results = new ArrayList<>();
+        for (CipherSuite suite : CipherSuite.values()) {
+            if (!suite.isAvailable()) {
+                continue;
+            }
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                encrypted.reset();
+                StreamingEncryption.encrypt(new ByteArrayInputStream(warmUp), encrypted, key, suite, StreamingEncryption.DEFAULT_CHUNK_SIZE, null);
+                StreamingEncryption.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), OutputStream.nullOutputStream(), key);
+            }
+
+            long bestEncrypt = Long.MAX_VALUE;
+            long bestDecrypt = Long.MAX_VALUE;
+            for (int i = 0; i < iterations; i++) {
+                encrypted.reset();
+                long start = System.nanoTime();
+                StreamingEncryption.encrypt(new ByteArrayInputStream(plain), encrypted, key, suite, StreamingEncryption.DEFAULT_CHUNK_SIZE, null);
+                bestEncrypt = Math.min(bestEncrypt, System.nanoTime() - start);
+
+                byte[] container = encrypted.toByteArray();
+                start = System.nanoTime();
+                StreamingEncryption.decrypt(new ByteArrayInputStream(container), OutputStream.nullOutputStream(), key);
+                bestDecrypt = Math.min(bestDecrypt, System.nanoTime() - start);
+            }
+            results.add(new SuiteResult(suite, megabytesPerSecond(size, bestEncrypt), megabytesPerSecond(size, bestDecrypt)));
+        }
+        results.sort((a, b) -> Double.compare(b.roundTripMbPerSecond(), a.roundTripMbPerSecond()));
+        return results;
+    }
+
+    /**
+     * Report whether HotSpot uses the CPU's AES instructions, which decides between the suites.
+     *
+     * @return {@code true} or {@code false}, or null if the JVM does not expose the flag.
+     */
+    public static String aesIntrinsics() {
+        try {
+            return ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class).getVMOption("UseAES").getValue();
+        } catch (RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Format a byte count for display, e.g. {@code 4 MiB}.
+     *
+     * @param bytes the size in bytes.
+     * @return the formatted size.
+     */
+    public static String formatSize(long bytes) {
+        if (bytes >= 1024L * 1024 * 1024 && bytes % (1024L * 1024 * 1024) == 0) {
+            return bytes / (1024L * 1024 * 1024) + " GiB";
+        } else if (bytes >= 1024 * 1024 && bytes % (1024 * 1024) == 0) {
+            return bytes / (1024 * 1024) + " MiB";
+        } else if (bytes >= 1024 && bytes % 1024 == 0) {
+            return bytes / 1024 + " KiB";
+        }
+        return bytes + " B";
+    }
+
+    private static void encryptWithStreams(Path input, Path output, SecretKey key) throws Exception {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(input), IO_BUFFER_SIZE);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), IO_BUFFER_SIZE)) {
+            StreamingEncryption.encrypt(in, out, key, IO_CHUNK_SIZE);
+        }
+    }
+
+    private static void writeRandomFile(Path path, long size) throws Exception {
+        Random random = new Random(size);
+        byte[] block = new byte[IO_BUFFER_SIZE];
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), IO_BUFFER_SIZE)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return (bytes / (1024.0 * 1024.0)) / Math.max(nanos / 1_000_000_000.0, 1e-9);
+    }
+}
@@ -1,36 +1,70 @@
 package main.commands.encryption;
 
+import main.commands.util.AtomicFiles;
+import main.commands.util.ByteSize;
+
+import javax.crypto.SecretKey;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.UnaryOperator;
 
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 @Command(name = "encryption", mixinStandardHelpOptions = true, description = "Encrypt or decrypt a given string or file.", usageHelpAutoWidth = true, subcommands = {
         EncryptionCommand.KeygenCommand.class, EncryptionCommand.StringCommand.class,
-        EncryptionCommand.FileCommand.class,
+        EncryptionCommand.FileCommand.class, EncryptionCommand.RekeyCommand.class, EncryptionCommand.VerifyCommand.class,
+        EncryptionCommand.PackCommand.class,
+        EncryptionCommand.UnpackCommand.class, EncryptionCommand.BenchCommand.class,
         EncryptionCommand.ExamplesCommand.class })
 public class EncryptionCommand implements Runnable {
 
     @Override
     public void run() {
-        System.out.println("Use one of the subcommands: keygen, string, or file.");
+        System.out.println("Use one of the subcommands: keygen, string, file, rekey, verify, pack, unpack, or bench.");
     }
 
     // Key generation subcommand
-    @Command(name = "keygen", description = "Generate a new AES key.")
+    @Command(name = "keygen", description = "Generate a new 256-bit key.")
     static class KeygenCommand implements Runnable {
         @Option(names = { "-c", "--clean" }, description = "Output only the value without additional text.")
         boolean cleanOutput;
 
+        @Option(names = {
+                "--suite" }, paramLabel = "SUITE", description = "Cipher suite to generate the key for: aes-256-gcm or chacha20-poly1305 (default: the configured default).")
+        String suite;
+
         @Override
         public void run() {
-            String newKey = EncryptionLogic.generateKey();
-            if (cleanOutput) {
-                System.out.println(newKey);
-            } else {
-                System.out.printf("Generated AES Key: %s%n", newKey);
+            try {
+                CipherSuite cipherSuite = suite != null ? CipherSuite.forName(suite) : CipherSuite.defaultSuite();
+                String newKey = EncryptionLogic.generateKey(cipherSuite);
+                if (cleanOutput) {
+                    System.out.println(newKey);
+                } else {
+                    System.out.printf("Generated %s Key: %s%n", cipherSuite.keyAlgorithm(), newKey);
+                }
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
             }
         }
     }
@@ -38,6 +72,8 @@ public class EncryptionCommand implements Runnable {
     // String encryption/decryption subcommand
     @Command(name = "string", description = "Encrypt or decrypt a string.")
     static class StringCommand implements Runnable {
+        private static final int IO_BUFFER_SIZE = 256 * 1024;
+
         @Option(names = { "-e", "--encrypt" }, description = "The string to encrypt.")
         String encryptInput;
 
@@ -51,37 +87,79 @@ public class EncryptionCommand implements Runnable {
         @Option(names = { "-c", "--clean" }, description = "Output only the value without additional text.")
         boolean cleanOutput;
 
+        @Option(names = { "--stdin",
+                "--batch" }, paramLabel = "MODE", description = "Read newline-delimited records from stdin and write one result per line to stdout. MODE: ENCRYPT or DECRYPT.")
+        BatchMode batchMode;
+
+        @Option(names = { "-t",
+                "--threads" }, defaultValue = "0", description = "Number of threads for --stdin mode (default: all CPU cores).")
+        int threads;
+
+        @Option(names = {
+                "--batch-size" }, defaultValue = "" + StringBatchProcessor.DEFAULT_BATCH_SIZE, description = "Records read per batch in --stdin mode (default: ${DEFAULT-VALUE}).")
+        int batchSize;
+
+        @Option(names = {
+                "--suite" }, paramLabel = "SUITE", description = "Cipher suite to encrypt with: aes-256-gcm or chacha20-poly1305 (default: the configured default, see 'bench --suites').")
+        String suite;
+
+        enum BatchMode {
+            ENCRYPT, DECRYPT
+        }
+
         @Override
         public void run() {
             try {
-                if (encryptInput != null) {
-                    String encrypted = EncryptionLogic.encrypt(encryptInput, key);
+                CipherSuite cipherSuite = suite != null ? CipherSuite.forName(suite) : CipherSuite.defaultSuite();
+                if (batchMode != null) {
+                    runBatch(cipherSuite);
+                } else if (encryptInput != null) {
+                    String encrypted = EncryptionLogic.encrypt(encryptInput, EncryptionLogic.decodeKey(key), cipherSuite);
                     System.out.println(cleanOutput ? encrypted : "Encrypted: " + encrypted);
                 } else if (decryptInput != null) {
                     String decrypted = EncryptionLogic.decrypt(decryptInput, key);
                     System.out.println(cleanOutput ? decrypted : "Decrypted: " + decrypted);
                 } else {
-                    throw new IllegalArgumentException("Specify --encrypt or --decrypt.");
+                    throw new IllegalArgumentException("Specify --encrypt, --decrypt or --stdin.");
                 }
             } catch (Exception e) {
                 System.err.println("Error: " + e.getMessage());
             }
         }
+
+        private void runBatch(CipherSuite cipherSuite) throws Exception {
+            // Decode the key once; every record then reuses it together with a per-thread cipher
+            SecretKey secretKey = EncryptionLogic.decodeKey(key);
+            UnaryOperator<String> operation = batchMode == BatchMode.ENCRYPT
+                    ? record -> EncryptionLogic.encrypt(record, secretKey, cipherSuite)
+                    : record -> EncryptionLogic.decrypt(record, secretKey);
+            StringBatchProcessor processor = new StringBatchProcessor(operation,
+                    ParallelFileProcessor.resolveThreads(threads), Math.max(1, batchSize));
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), IO_BUFFER_SIZE);
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), IO_BUFFER_SIZE);
+            processor.process(in, out);
+        }
     }
 
     @Command(name = "file", description = "Encrypt or decrypt a file or folder.")
-    static class FileCommand implements Runnable {
+    static class FileCommand implements Callable<Integer> {
+        // Single files at least this large are split into segments sealed on several threads
+        static final long PARALLEL_FILE_THRESHOLD = 8L * ParallelFileEncryption.DEFAULT_SEGMENT_SIZE;
+        // Passed to -i or -O to read from stdin or write to stdout
+        static final String STDIO = "-";
+
         @Option(names = { "-e", "--encrypt" }, description = "Encrypt the file or folder.")
         boolean encrypt;
 
         @Option(names = { "-d", "--decrypt" }, description = "Decrypt the file or folder.")
         boolean decrypt;
 
-        @Option(names = { "-i", "--input-folder" }, description = "Path to the input folder or file.", required = true)
+        @Option(names = { "-i", "--input-folder" }, description = "Path to the input folder or file, or '-' for stdin.", required = true)
         String inputFolder;
 
         @Option(names = { "-O",
-                "--output-folder" }, description = "Path to the output folder (optional if --replace=true).")
+                "--output-folder" }, description = "Path to the output folder (optional if --replace=true), or '-' for stdout.")
         String outputFolder;
 
         @Option(names = { "-k",
@@ -96,12 +174,61 @@ public class EncryptionCommand implements Runnable {
                 "--replace" }, defaultValue = "true", description = "Replace input files (default: true). If false, output-folder must be provided.")
         boolean replace;
 
-        @Option(names = { "--filter" }, description = "Filter files by extension (e.g., '*.txt').")
+        @Option(names = { "--filter" }, description = "Filter files by extension (e.g., '*.txt'). Files must match it and any --include patterns.")
         String filter;
 
+        @Option(names = { "--include" }, split = ",", description = "Glob patterns of files to process (e.g., '*.log,reports/**/*.csv'). Patterns without '/' match the file name.")
+        List<String> includes = new ArrayList<>();
+
+        @Option(names = { "--exclude" }, split = ",", description = "Glob patterns of files or directories to skip (e.g., '*.tmp,.git').")
+        List<String> excludes = new ArrayList<>();
+
+        @Option(names = { "-t",
+                "--threads" }, defaultValue = "0", description = "Number of threads to use: files are processed in parallel for folders, segments for a single large file (default: all CPU cores).")
+        int threads;
+
+        @Option(names = {
+                "--incremental" }, description = "Only process new or changed files and remove outputs whose source was deleted, using a manifest stored in the output folder. Requires --replace=false.")
+        boolean incremental;
+
+        @Option(names = {
+                "--hashes" }, paramLabel = "MANIFEST", description = "With --incremental, take the hashes of unchanged files from a manifest written by 'qbox hash --output' instead of reading them again.")
+        String hashes;
+
+        @Option(names = {
+                "--resume" }, description = "Continue an interrupted folder run, skipping the files its journal lists as finished.")
+        boolean resume;
+
+        @Option(names = {
+                "--compress" }, arity = "0..1", fallbackValue = "deflate", paramLabel = "CODEC", description = "Compress each chunk before encrypting (default codec: deflate; 'deflate:1' favours speed). Skipped for files whose first chunk does not compress, e.g. media or archives.")
+        String compress;
+
+        private CompressionCodec codec;
+
+        @Option(names = {
+                "--suite" }, paramLabel = "SUITE", description = "Cipher suite to encrypt with: aes-256-gcm or chacha20-poly1305 (default: the configured default, see 'bench --suites').")
+        String suite;
+
+        private CipherSuite cipherSuite;
+
+        @Option(names = { "--offset" }, description = "Decrypt only from this plaintext byte offset (single file only).")
+        Long offset;
+
+        @Option(names = { "--length" }, description = "Decrypt only this many plaintext bytes (single file only).")
+        Long length;
+
         @Override
-        public void run() {
+        public Integer call() {
             try {
+                if (encrypt == decrypt) {
+                    throw new IllegalArgumentException("Specify --encrypt or --decrypt.");
+                }
+
+                if (STDIO.equals(inputFolder) || STDIO.equals(outputFolder)) {
+                    processStream();
+                    return 0;
+                }
+
                 File input = new File(inputFolder);
 
                 if (!input.exists()) {
@@ -112,66 +239,484 @@ public class EncryptionCommand implements Runnable {
                     throw new IllegalArgumentException("Output folder must be specified if --replace is false.");
                 }
 
+                if (incremental && (replace || !input.isDirectory())) {
+                    throw new IllegalArgumentException("--incremental requires an input folder and --replace=false.");
+                }
+
+                if (hashes != null && !incremental) {
+                    throw new IllegalArgumentException("--hashes requires --incremental.");
+                }
+
+                if (hashes != null && !Files.isRegularFile(Path.of(hashes))) {
+                    throw new IllegalArgumentException("Hash manifest does not exist: " + hashes);
+                }
+
+                if (resume && !input.isDirectory()) {
+                    throw new IllegalArgumentException("--resume requires an input folder; single files are always written atomically.");
+                }
+
+                resolveEncryptionOptions();
+
+                boolean rangeRequested = offset != null || length != null;
+                if (rangeRequested && (!decrypt || input.isDirectory())) {
+                    throw new IllegalArgumentException("--offset and --length can only be used to decrypt a single file.");
+                }
+
                 if (input.isDirectory()) {
                     String targetFolder = replace ? inputFolder : outputFolder;
-                    processFolder(input, targetFolder, recursive, filter);
+                    return processFolder(input, targetFolder).getFilesFailed() == 0 ? 0 : 1;
                 } else {
                     File outputFile = replace ? input : new File(outputFolder, input.getName());
-                    processFile(input, outputFile);
+                    if (!replace) {
+                        outputFile.getParentFile().mkdirs();
+                    }
+                    if (rangeRequested) {
+                        processRange(input, outputFile);
+                    } else {
+                        boolean large = input.length() >= PARALLEL_FILE_THRESHOLD;
+                        processFile(input, outputFile, large ? ParallelFileProcessor.resolveThreads(threads) : 1);
+                    }
                 }
+                return 0;
             } catch (Exception e) {
                 System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        private void resolveEncryptionOptions() {
+            if (compress != null) {
+                if (!encrypt) {
+                    throw new IllegalArgumentException("--compress can only be used with --encrypt; decryption detects it automatically.");
+                }
+                codec = CompressionCodec.forName(compress);
+            }
+
+            if (suite != null && !encrypt) {
+                throw new IllegalArgumentException("--suite can only be used with --encrypt; decryption reads it from the file.");
+            }
+            cipherSuite = suite != null ? CipherSuite.forName(suite) : CipherSuite.defaultSuite();
+        }
+
+        /**
+         * Pipe mode: {@code -i -} reads stdin, {@code -O -} writes stdout. Records are written as
+         * soon as each chunk is sealed or opened, so memory use is constant and nothing but the
+         * data itself goes to stdout.
+         */
+        private void processStream() throws Exception {
+            boolean fromStdin = STDIO.equals(inputFolder);
+            if (!STDIO.equals(outputFolder)) {
+                throw new IllegalArgumentException("Reading from stdin requires '-O -'; the output has no file name.");
+            }
+            if (incremental || resume) {
+                throw new IllegalArgumentException("--incremental and --resume cannot be used with stdin or stdout.");
+            }
+            resolveEncryptionOptions();
+
+            if (offset != null || length != null) {
+                if (fromStdin || !decrypt) {
+                    throw new IllegalArgumentException("--offset and --length can only be used to decrypt a single file.");
+                }
+                EncryptionLogic.decryptFileRange(inputFolder, key, null, offset != null ? offset : 0, length != null ? length : -1, true);
+                return;
+            }
+
+            File input = new File(inputFolder);
+            if (!fromStdin && !input.isFile()) {
+                throw new IllegalArgumentException("Only a single file can be written to stdout: " + inputFolder + " (use 'pack' for folders)");
+            }
+            // System.out would buffer small writes and silently drop errors such as a closed pipe
+            OutputStream out = new FileOutputStream(FileDescriptor.out);
+            try (InputStream in = fromStdin ? new FileInputStream(FileDescriptor.in) : Files.newInputStream(input.toPath())) {
+                if (encrypt) {
+                    EncryptionLogic.encryptStream(in, out, key, codec, cipherSuite);
+                } else {
+                    EncryptionLogic.decryptStream(in, out, key);
+                }
             }
         }
 
-        private void processFile(File inputFile, File outputFile) throws Exception {
+        private void processFile(File inputFile, File outputFile, int fileThreads) throws Exception {
             if (encrypt) {
-                EncryptionLogic.encryptFile(inputFile.getAbsolutePath(), key, outputFile.getAbsolutePath(), false);
+                EncryptionLogic.encryptFile(inputFile.getAbsolutePath(), key, outputFile.getAbsolutePath(), false, fileThreads, codec, cipherSuite);
                 System.out.printf("Encrypted: %s -> %s%n", inputFile.getAbsolutePath(), outputFile.getAbsolutePath());
             } else if (decrypt) {
-                EncryptionLogic.decryptFile(inputFile.getAbsolutePath(), key, outputFile.getAbsolutePath(), false);
+                EncryptionLogic.decryptFile(inputFile.getAbsolutePath(), key, outputFile.getAbsolutePath(), false, fileThreads);
                 System.out.printf("Decrypted: %s -> %s%n", inputFile.getAbsolutePath(), outputFile.getAbsolutePath());
             } else {
                 throw new IllegalArgumentException("Specify --encrypt or --decrypt.");
             }
         }
 
-        private void processFolder(File inputFolder, String targetFolderPath, boolean recursive, String filter)
-                throws Exception {
-            File targetFolder = new File(targetFolderPath);
-            if (!targetFolder.exists()) {
-                targetFolder.mkdirs();
+        private void processRange(File inputFile, File outputFile) throws Exception {
+            long from = offset != null ? offset : 0;
+            long count = length != null ? length : -1;
+            EncryptionLogic.decryptFileRange(inputFile.getAbsolutePath(), key, outputFile.getAbsolutePath(), from, count, false);
+            System.out.printf("Decrypted bytes %d-%s: %s -> %s%n", from, count < 0 || count > Long.MAX_VALUE - from ? "end" : String.valueOf(from + count),
+                    inputFile.getAbsolutePath(), outputFile.getAbsolutePath());
+        }
+
+        private ParallelFileProcessor processFolder(File inputFolder, String targetFolderPath) throws Exception {
+            FolderJob job = new FolderJob(encrypt ? "encrypt" : "decrypt", encrypt ? "Encrypted" : "Decrypted",
+                    (file, outputFile) -> processFile(file, outputFile, 1))
+                    .threads(threads).replace(replace).incremental(incremental).resume(resume)
+                    .streamAction(this::processFileStream).settings(manifestSettings());
+            if (hashes != null) {
+                job.knownHashes(ChangeManifest.load(Path.of(hashes)));
+            }
+            if (encrypt) {
+                job.doneCheck(file -> EncryptionLogic.isEncryptedContainer(file.toPath()));
             }
+            return job.run(inputFolder, new File(targetFolderPath), new FileWalker(recursive, includes, excludes).filter(filter));
+        }
+
+        // Same output as processFile, from a stream the folder job hashes while it is read
+        private void processFileStream(File inputFile, InputStream in, File outputFile) throws Exception {
+            if (encrypt) {
+                EncryptionLogic.writeAtomically(outputFile.toPath(), out -> EncryptionLogic.encryptStream(in, out, key, codec, cipherSuite));
+                System.out.printf("Encrypted: %s -> %s%n", inputFile.getAbsolutePath(), outputFile.getAbsolutePath());
+            } else {
+                EncryptionLogic.writeAtomically(outputFile.toPath(), out -> EncryptionLogic.decryptStream(in, out, key));
+                System.out.printf("Decrypted: %s -> %s%n", inputFile.getAbsolutePath(), outputFile.getAbsolutePath());
+            }
+        }
+
+        // Recorded in the manifest of incremental runs; the key only as a fingerprint
+        private String manifestSettings() throws NoSuchAlgorithmException {
+            byte[] keyHash = MessageDigest.getInstance("SHA-256").digest(EncryptionLogic.decodeKey(key).getEncoded());
+            return (encrypt ? "encrypt" : "decrypt")
+                    + (encrypt ? " suite=" + cipherSuite.displayName() + " compress=" + (codec != null ? compress : "none") : "")
+                    + " key=" + HexFormat.of().formatHex(keyHash, 0, 8);
+        }
+    }
 
-            List<File> files = getFilesFromFolder(inputFolder, recursive, filter);
+    // Key rotation subcommand
+    @Command(name = "rekey", description = "Re-encrypt a file or folder with a new key in a single pass, without writing plaintext to disk.")
+    static class RekeyCommand implements Callable<Integer> {
+        @Option(names = { "-i", "--input-folder" }, description = "Path to the encrypted input folder or file.", required = true)
+        String inputFolder;
+
+        @Option(names = { "-O",
+                "--output-folder" }, description = "Path to the output folder (optional if --replace=true).")
+        String outputFolder;
+
+        @Option(names = { "--old-key" }, required = true, description = "The AES key the files are encrypted with (Base64-encoded).")
+        String oldKey;
+
+        @Option(names = { "--new-key" }, required = true, description = "The AES key to re-encrypt with (Base64-encoded).")
+        String newKey;
+
+        @Option(names = {
+                "--recursive" }, defaultValue = "true", description = "Process files in subdirectories (default: true).")
+        boolean recursive;
+
+        @Option(names = {
+                "--replace" }, defaultValue = "true", description = "Replace input files (default: true). If false, output-folder must be provided.")
+        boolean replace;
 
-            for (File file : files) {
-                String relativePath = inputFolder.toURI().relativize(file.toURI()).getPath();
-                File outputFile = replace ? file : new File(targetFolder, relativePath);
+        @Option(names = { "--include" }, split = ",", description = "Glob patterns of files to process (e.g., '*.log,reports/**/*.csv'). Patterns without '/' match the file name.")
+        List<String> includes = new ArrayList<>();
 
-                if (!replace) {
-                    outputFile.getParentFile().mkdirs();
+        @Option(names = { "--exclude" }, split = ",", description = "Glob patterns of files or directories to skip (e.g., '*.tmp,.git').")
+        List<String> excludes = new ArrayList<>();
+
+        @Option(names = { "-t",
+                "--threads" }, defaultValue = "0", description = "Number of files to re-encrypt in parallel (default: all CPU cores).")
+        int threads;
+
+        @Option(names = {
+                "--resume" }, description = "Continue an interrupted folder run, skipping the files its journal lists as finished.")
+        boolean resume;
+
+        @Override
+        public Integer call() {
+            try {
+                File input = new File(inputFolder);
+
+                if (!input.exists()) {
+                    throw new IllegalArgumentException("Input folder or file does not exist: " + inputFolder);
                 }
 
-                processFile(file, outputFile);
+                if (!replace && outputFolder == null) {
+                    throw new IllegalArgumentException("Output folder must be specified if --replace is false.");
+                }
+
+                if (oldKey.equals(newKey)) {
+                    throw new IllegalArgumentException("--old-key and --new-key are the same.");
+                }
+
+                if (resume && !input.isDirectory()) {
+                    throw new IllegalArgumentException("--resume requires an input folder; single files are always written atomically.");
+                }
+
+                if (input.isDirectory()) {
+                    SecretKey secretKey = EncryptionLogic.decodeKey(newKey);
+                    ParallelFileProcessor processor = new FolderJob("rekey", "Re-keyed", this::rekeyFile)
+                            .threads(threads).replace(replace).resume(resume)
+                            .doneCheck(file -> EncryptionLogic.isEncryptedWith(file.toPath(), secretKey))
+                            .run(input, new File(replace ? inputFolder : outputFolder), new FileWalker(recursive, includes, excludes));
+                    return processor.getFilesFailed() == 0 ? 0 : 1;
+                } else {
+                    File outputFile = replace ? input : new File(outputFolder, input.getName());
+                    if (!replace) {
+                        outputFile.getParentFile().mkdirs();
+                    }
+                    rekeyFile(input, outputFile);
+                }
+                return 0;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
             }
         }
 
-        private List<File> getFilesFromFolder(File folder, boolean recursive, String filter) {
-            List<File> files = new ArrayList<>();
-            File[] entries = folder.listFiles();
-            if (entries == null) {
-                return files;
+        private void rekeyFile(File inputFile, File outputFile) throws Exception {
+            EncryptionLogic.rekeyFile(inputFile.getAbsolutePath(), oldKey, newKey, outputFile.getAbsolutePath(), true);
+            System.out.printf("Re-keyed: %s -> %s%n", inputFile.getAbsolutePath(), outputFile.getAbsolutePath());
+        }
+    }
+
+    // Integrity verification subcommand
+    @Command(name = "verify", description = "Authenticate encrypted files without writing any plaintext and report corrupt or truncated ones.")
+    static class VerifyCommand implements Callable<Integer> {
+        @Option(names = { "-i", "--input-folder" }, description = "Path to the encrypted folder or file.", required = true)
+        String inputFolder;
+
+        @Option(names = { "-k",
+                "--key" }, required = true, description = "The AES key the files are encrypted with (Base64-encoded).")
+        String key;
+
+        @Option(names = {
+                "--recursive" }, defaultValue = "true", description = "Verify files in subdirectories (default: true).")
+        boolean recursive;
+
+        @Option(names = { "--include" }, split = ",", description = "Glob patterns of files to verify (e.g., '*.log,reports/**/*.csv'). Patterns without '/' match the file name.")
+        List<String> includes = new ArrayList<>();
+
+        @Option(names = { "--exclude" }, split = ",", description = "Glob patterns of files or directories to skip (e.g., '*.tmp,.git').")
+        List<String> excludes = new ArrayList<>();
+
+        @Option(names = { "-t",
+                "--threads" }, defaultValue = "0", description = "Number of threads: files are verified in parallel for folders, records for a single large file (default: all CPU cores).")
+        int threads;
+
+        @Option(names = { "-v", "--verbose" }, description = "Also list the files that passed.")
+        boolean verbose;
+
+        @Override
+        public Integer call() {
+            try {
+                File input = new File(inputFolder);
+
+                if (!input.exists()) {
+                    throw new IllegalArgumentException("Input folder or file does not exist: " + inputFolder);
+                }
+
+                if (input.isFile()) {
+                    boolean large = input.length() >= FileCommand.PARALLEL_FILE_THRESHOLD;
+                    EncryptionLogic.verifyFile(input.getAbsolutePath(), key, large ? ParallelFileProcessor.resolveThreads(threads) : 1);
+                    System.out.printf("OK: %s%n", input.getAbsolutePath());
+                    return 0;
+                }
+
+                ParallelFileProcessor processor = new ParallelFileProcessor(threads);
+                new FileWalker(recursive, includes, excludes).walk(input.toPath(), (path, attributes) -> {
+                    String name = path.getFileName().toString();
+                    if (AtomicFiles.isTempFile(path) || name.equals(JobJournal.FILE_NAME) || name.equals(ChangeManifest.FILE_NAME)) {
+                        return;
+                    }
+                    processor.submit(path.toFile(), () -> {
+                        EncryptionLogic.verifyFile(path.toString(), key, 1);
+                        if (verbose) {
+                            System.out.printf("OK: %s%n", path.toAbsolutePath());
+                        }
+                        return attributes.size();
+                    });
+                });
+                processor.awaitCompletion();
+                processor.printSummary("Verified");
+                return processor.getFilesFailed() == 0 ? 0 : 1;
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
             }
+        }
+    }
+
+    // Archive packing subcommand
+    @Command(name = "pack", description = "Encrypt a folder into a single archive with an encrypted index.")
+    static class PackCommand implements Runnable {
+        @Option(names = { "-i", "--input-folder" }, required = true, description = "Path to the folder to pack.")
+        String inputFolder;
+
+        @Option(names = { "-o", "--output" }, required = true, description = "Path of the archive to write (e.g., backup" + PackArchive.EXTENSION + ").")
+        String output;
+
+        @Option(names = { "-k",
+                "--key" }, required = true, description = "The AES key for encryption (Base64-encoded).")
+        String key;
+
+        @Option(names = {
+                "--recursive" }, defaultValue = "true", description = "Pack files in subdirectories (default: true).")
+        boolean recursive;
+
+        @Option(names = { "--include" }, split = ",", description = "Glob patterns of files to pack (e.g., '*.log,reports/**/*.csv'). Patterns without '/' match the file name.")
+        List<String> includes = new ArrayList<>();
+
+        @Option(names = { "--exclude" }, split = ",", description = "Glob patterns of files or directories to skip (e.g., '*.tmp,.git').")
+        List<String> excludes = new ArrayList<>();
 
-            for (File entry : entries) {
-                if (entry.isDirectory() && recursive) {
-                    files.addAll(getFilesFromFolder(entry, true, filter));
-                } else if (entry.isFile() && (filter == null || entry.getName().matches(filter.replace("*", ".*")))) {
-                    files.add(entry);
+        @Option(names = {
+                "--suite" }, paramLabel = "SUITE", description = "Cipher suite to encrypt with: aes-256-gcm or chacha20-poly1305 (default: the configured default, see 'bench --suites').")
+        String suite;
+
+        @Override
+        public void run() {
+            try {
+                Path folder = Path.of(inputFolder);
+                if (!Files.isDirectory(folder)) {
+                    throw new IllegalArgumentException("Input folder does not exist: " + inputFolder);
                 }
+
+                long start = System.nanoTime();
+                List<PackArchive.Entry> entries = PackArchive.pack(folder, new FileWalker(recursive, includes, excludes),
+                        EncryptionLogic.decodeKey(key), suite != null ? CipherSuite.forName(suite) : CipherSuite.defaultSuite(), Path.of(output));
+                long bytes = entries.stream().mapToLong(entry -> entry.size).sum();
+                System.out.printf("Packed %d files (%.1f MB) into %s in %.2f s%n", entries.size(), bytes / (1024.0 * 1024.0),
+                        Path.of(output).toAbsolutePath(), (System.nanoTime() - start) / 1_000_000_000.0);
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+            }
+        }
+    }
+
+    // Archive listing and extraction subcommand
+    @Command(name = "unpack", description = "List or extract the files of an archive created by 'pack'.")
+    static class UnpackCommand implements Runnable {
+        @Option(names = { "-i", "--input" }, required = true, description = "Path to the archive.")
+        String input;
+
+        @Option(names = { "-O",
+                "--output-folder" }, description = "Folder to extract into. If omitted, the selected entries are written to stdout.")
+        String outputFolder;
+
+        @Option(names = { "-k",
+                "--key" }, required = true, description = "The AES key for decryption (Base64-encoded).")
+        String key;
+
+        @Option(names = { "-l", "--list" }, description = "List the archive entries; only the index is decrypted.")
+        boolean list;
+
+        @Option(names = { "--entry" }, split = ",", description = "Paths of the entries to extract (default: all).")
+        List<String> entries = new ArrayList<>();
+
+        @Option(names = { "-c", "--clean" }, description = "Output only the values without additional text.")
+        boolean cleanOutput;
+
+        @Override
+        public void run() {
+            try {
+                Path archive = Path.of(input);
+                if (!Files.isRegularFile(archive)) {
+                    throw new IllegalArgumentException("Archive does not exist: " + input);
+                }
+                SecretKey secretKey = EncryptionLogic.decodeKey(key);
+
+                if (list) {
+                    for (PackArchive.Entry entry : PackArchive.list(archive, secretKey)) {
+                        if (cleanOutput) {
+                            System.out.println(entry.path);
+                        } else {
+                            System.out.printf("%12d  %s  %s%n", entry.size, Instant.ofEpochMilli(entry.modified), entry.path);
+                        }
+                    }
+                    return;
+                }
+
+                Path target = outputFolder != null ? Path.of(outputFolder) : null;
+                List<PackArchive.Entry> extracted = PackArchive.extract(archive, secretKey, target, entries);
+                if (target != null && !cleanOutput) {
+                    System.out.printf("Extracted %d files to %s%n", extracted.size(), target.toAbsolutePath());
+                }
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+            }
+        }
+    }
+
+    // Benchmark subcommand
+    @Command(name = "bench", description = "Measure file encryption throughput of the stream and memory-mapped I/O backends, or of the cipher suites.")
+    static class BenchCommand implements Runnable {
+        @Option(names = { "--sizes" }, split = ",", converter = ByteSize.Converter.class, defaultValue = "64K,256K,1M,4M,16M,64M", description = "Comma-separated file sizes to test (default: 64K,256K,1M,4M,16M,64M).")
+        List<Long> sizes;
+
+        @Option(names = { "--iterations" }, defaultValue = "3", description = "Timed runs per size; the best run is reported (default: 3).")
+        int iterations;
+
+        @Option(names = { "--dir" }, description = "Directory for temporary benchmark files (default: system temp directory).")
+        String workDir;
+
+        @Option(names = { "--suites" }, description = "Compare the cipher suites in memory instead of the I/O backends.")
+        boolean suites;
+
+        @Option(names = { "--size" }, defaultValue = "64M", converter = ByteSize.Converter.class, description = "Data encrypted per run with --suites (default: 64M).")
+        long suiteSize;
+
+        @Option(names = { "--set-default" }, description = "With --suites, store the fastest suite as the default for new keys and encryption.")
+        boolean setDefault;
+
+        @Override
+        public void run() {
+            try {
+                if (setDefault && !suites) {
+                    throw new IllegalArgumentException("--set-default requires --suites.");
+                }
+                if (suites) {
+                    runSuites();
+                    return;
+                }
+                long[] bytes = sizes.stream().mapToLong(Long::longValue).toArray();
+                Path dir = workDir != null ? Path.of(workDir) : Path.of(System.getProperty("java.io.tmpdir"));
+                List<EncryptionBenchmark.IoResult> results = EncryptionBenchmark.benchmarkIo(bytes, iterations, dir);
+
+                System.out.printf("Both backends encrypt in %s chunks.%n%n", EncryptionBenchmark.formatSize(EncryptionBenchmark.IO_CHUNK_SIZE));
+                System.out.printf("%-10s %14s %14s  %s%n", "Size", "Stream MB/s", "Mapped MB/s", "Faster");
+                Long crossover = null;
+                for (EncryptionBenchmark.IoResult result : results) {
+                    System.out.printf("%-10s %14.1f %14.1f  %s%n", EncryptionBenchmark.formatSize(result.size),
+                            result.streamMbPerSecond, result.mappedMbPerSecond, result.mappedIsFaster() ? "mapped" : "stream");
+                    if (result.mappedIsFaster() && crossover == null) {
+                        crossover = result.size;
+                    } else if (!result.mappedIsFaster()) {
+                        crossover = null;
+                    }
+                }
+                System.out.println();
+                System.out.println(crossover != null
+                        ? "Memory-mapped I/O is faster from " + EncryptionBenchmark.formatSize(crossover) + " upwards."
+                        : "Memory-mapped I/O was not consistently faster for the tested sizes.");
+                System.out.printf("Current threshold: %s%n", EncryptionBenchmark.formatSize(ChannelFileEncryption.MAPPED_IO_THRESHOLD));
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+            }
+        }
+
+        private void runSuites() throws Exception {
+            List<EncryptionBenchmark.SuiteResult> results = EncryptionBenchmark.benchmarkSuites(suiteSize, iterations);
+
+            System.out.printf("%-20s %14s %14s%n", "Suite", "Encrypt MB/s", "Decrypt MB/s");
+            for (EncryptionBenchmark.SuiteResult result : results) {
+                System.out.printf("%-20s %14.1f %14.1f%n", result.suite.displayName(), result.encryptMbPerSecond, result.decryptMbPerSecond);
+            }
+            System.out.println();
+            String intrinsics = EncryptionBenchmark.aesIntrinsics();
+            System.out.printf("AES intrinsics: %s%n", intrinsics != null ? intrinsics : "unknown");
+            CipherSuite fastest = results.get(0).suite;
+            System.out.printf("Fastest: %s (current default: %s)%n", fastest.displayName(), CipherSuite.defaultSuite().displayName());
+            if (setDefault) {
+                EncryptionConfig.setDefaultSuite(fastest);
+                System.out.printf("Default cipher suite set to %s in %s%n", fastest.displayName(), EncryptionConfig.path());
             }
-            return files;
         }
     }
 
@@ -187,9 +732,10 @@ public class EncryptionCommand implements Runnable {
             System.out.println("\n=== Encryption Tool Usage Examples ===\n");
 
             // Key generation examples
-            System.out.println("1. Generate a new AES key:");
+            System.out.println("1. Generate a new key:");
             System.out.println("   $ qbox encryption keygen");
             System.out.println("   $ qbox encryption keygen --clean");
+            System.out.println("   $ qbox encryption keygen --suite chacha20-poly1305");
             System.out.println();
 
             // String encryption examples
@@ -197,34 +743,82 @@ public class EncryptionCommand implements Runnable {
             System.out.println("   $ qbox encryption string --encrypt \"Hello, World!\" --key YOUR_BASE64_KEY");
             System.out.println("   $ qbox encryption string --decrypt \"ENCRYPTED_TEXT\" --key YOUR_BASE64_KEY");
             System.out.println("   $ qbox encryption string --encrypt \"Sensitive Data\" --key YOUR_BASE64_KEY --clean");
+            System.out.println("   $ cat values.txt | qbox encryption string --stdin ENCRYPT --key YOUR_BASE64_KEY > tokens.txt");
             System.out.println();
 
             // Single file encryption examples
             System.out.println("3. Encrypt and decrypt a single file:");
             System.out.println("   $ qbox encryption file --encrypt --input-folder ./file.txt --key YOUR_BASE64_KEY");
             System.out.println("   $ qbox encryption file --decrypt --input-folder ./file.txt --key YOUR_BASE64_KEY --replace=false --output-folder ./decrypted/");
+            System.out.println("   $ tar cf - ./project | qbox encryption file --encrypt -i - -O - --key YOUR_BASE64_KEY | ssh backup 'cat > project.tar.qbox'");
+            System.out.println("   $ ssh backup 'cat project.tar.qbox' | qbox encryption file --decrypt -i - -O - --key YOUR_BASE64_KEY | tar xf -");
             System.out.println();
 
             // Folder encryption examples
             System.out.println("4. Encrypt and decrypt a folder:");
             System.out.println("   $ qbox encryption file --encrypt --input-folder ./test_folder --key YOUR_BASE64_KEY");
             System.out.println("   $ qbox encryption file --decrypt --input-folder ./test_folder --key YOUR_BASE64_KEY --replace=false --output-folder ./decrypted_folder/");
+            System.out.println("   $ qbox encryption file --encrypt --input-folder ./logs --key YOUR_BASE64_KEY --compress");
             System.out.println();
 
             // Recursive and filtering examples
             System.out.println("5. Use recursive mode and filter files by extension:");
             System.out.println("   $ qbox encryption file --encrypt --input-folder ./test_folder --key YOUR_BASE64_KEY --filter \"*.txt\"");
             System.out.println("   $ qbox encryption file --decrypt --input-folder ./test_folder --key YOUR_BASE64_KEY --recursive=false");
+            System.out.println("   $ qbox encryption file --encrypt --input-folder ./test_folder --key YOUR_BASE64_KEY --include \"*.json,subfolder/**\" --exclude \"*.yaml\"");
             System.out.println();
 
             // Replace examples
             System.out.println("6. Replace input files in-place:");
             System.out.println("   $ qbox encryption file --encrypt --input-folder ./test_folder --key YOUR_BASE64_KEY --replace");
+            System.out.println("   $ qbox encryption file --encrypt --input-folder ./test_folder --key YOUR_BASE64_KEY --replace --resume   (after an interrupted run)");
             System.out.println();
 
             // Non-replace examples
             System.out.println("7. Output to a different folder without replacing input:");
             System.out.println("   $ qbox encryption file --encrypt --input-folder ./test_folder --key YOUR_BASE64_KEY --replace=false --output-folder ./encrypted_folder/");
+            System.out.println("   $ qbox encryption file --encrypt --input-folder ./test_folder --key YOUR_BASE64_KEY --replace=false --output-folder ./encrypted_folder/ --incremental");
+            System.out.println();
+
+            // Parallel examples
+            System.out.println("8. Limit the number of files processed in parallel:");
+            System.out.println("   $ qbox encryption file --encrypt --input-folder ./test_folder --key YOUR_BASE64_KEY --threads 4");
+            System.out.println();
+
+            // Range examples
+            System.out.println("9. Decrypt only a byte range of a large file:");
+            System.out.println("   $ qbox encryption file --decrypt --input-folder ./backup.log --key YOUR_BASE64_KEY --replace=false --output-folder ./slice/ --offset 1048576 --length 4096");
+            System.out.println();
+
+            // Key rotation examples
+            System.out.println("10. Rotate the key of an encrypted folder without writing plaintext to disk:");
+            System.out.println("   $ qbox encryption rekey --input-folder ./test_folder --old-key OLD_BASE64_KEY --new-key NEW_BASE64_KEY");
+            System.out.println("   $ qbox encryption rekey --input-folder ./test_folder --old-key OLD_BASE64_KEY --new-key NEW_BASE64_KEY --resume");
+            System.out.println();
+
+            // Verification examples
+            System.out.println("11. Check an encrypted folder for corrupt or truncated files:");
+            System.out.println("   $ qbox encryption verify --input-folder ./backup --key YOUR_BASE64_KEY");
+            System.out.println();
+
+            // Archive examples
+            System.out.println("12. Pack a folder into one encrypted archive, list it and extract entries:");
+            System.out.println("   $ qbox encryption pack --input-folder ./test_folder --output ./test_folder.qbxa --key YOUR_BASE64_KEY");
+            System.out.println("   $ qbox encryption unpack --input ./test_folder.qbxa --key YOUR_BASE64_KEY --list");
+            System.out.println("   $ qbox encryption unpack --input ./test_folder.qbxa --key YOUR_BASE64_KEY --output-folder ./restored/");
+            System.out.println("   $ qbox encryption unpack --input ./test_folder.qbxa --key YOUR_BASE64_KEY --entry notes/todo.txt");
+            System.out.println();
+
+            // Benchmark examples
+            System.out.println("13. Find the file size where memory-mapped I/O becomes faster:");
+            System.out.println("   $ qbox encryption bench --sizes 64K,1M,4M,16M,64M");
+            System.out.println();
+
+            // Cipher suite examples
+            System.out.println("14. Pick the fastest cipher suite for this machine and make it the default:");
+            System.out.println("   $ qbox encryption bench --suites");
+            System.out.println("   $ qbox encryption bench --suites --set-default");
+            System.out.println("   $ qbox encryption file --encrypt --input-folder ./test_folder --key YOUR_BASE64_KEY --suite chacha20-poly1305");
             System.out.println();
         }
     }
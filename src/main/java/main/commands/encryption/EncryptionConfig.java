@@ -0,0 +1,75 @@
+package main.commands.encryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * User settings of the encryption commands, kept in {@code ~/.qbox/config.properties}.
+ */
+public class EncryptionConfig {
+
+    static final String SUITE_PROPERTY = "encryption.suite";
+
+    private static volatile CipherSuite defaultSuite;
+
+    /**
+     * @return the location of the settings file.
+     */
+    public static Path path() {
+        return Path.of(System.getProperty("user.home"), ".qbox", "config.properties");
+    }
+
+    /**
+     * Read the default cipher suite. Without a setting, or with an unreadable one, AES-256-GCM is used.
+     *
+     * @return the configured suite.
+     */
+    static CipherSuite defaultSuite() {
+        CipherSuite suite = defaultSuite;
+        if (suite == null) {
+            suite = CipherSuite.AES_256_GCM;
+            try {
+                String name = load().getProperty(SUITE_PROPERTY);
+                if (name != null) {
+                    suite = CipherSuite.forName(name);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Warning: ignoring " + SUITE_PROPERTY + " in " + path() + ": " + e.getMessage());
+            }
+            defaultSuite = suite;
+        }
+        return suite;
+    }
+
+    /**
+     * Store the cipher suite new data is encrypted with, keeping any other settings.
+     *
+     * @param suite the new default.
+     * @throws IOException if the settings file cannot be written.
+     */
+    public static void setDefaultSuite(CipherSuite suite) throws IOException {
+        Properties properties = load();
+        properties.setProperty(SUITE_PROPERTY, suite.displayName());
+        Path path = path();
+        Files.createDirectories(path.getParent());
+        try (OutputStream out = Files.newOutputStream(path)) {
+            properties.store(out, "qbox settings");
+        }
+        defaultSuite = suite;
+    }
+
+    private static Properties load() throws IOException {
+        Properties properties = new Properties();
+        Path path = path();
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+}
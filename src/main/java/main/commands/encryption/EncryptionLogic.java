@@ -1,64 +1,145 @@
 package main.commands.encryption;
 
+import main.commands.util.AtomicFiles;
+
 import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.util.Base64;
 
 public class EncryptionLogic {
 
     private static final String AES = "AES";
+    // Strings sealed with a cipher suite: prefix + Base64(suite id | nonce | ciphertext + tag).
+    // Legacy strings are plain Base64 and can never contain the ':'.
+    static final String STRING_PREFIX = "qbx1:";
+    private static final int IO_BUFFER_SIZE = 256 * 1024;
+    // Verification only reads, so larger sequential reads get closer to raw disk throughput
+    private static final int VERIFY_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final long LEGACY_VERIFY_LIMIT = 64L * 1024 * 1024;
+    private static final SecureRandom STRING_NONCES = new SecureRandom();
+    private static final ThreadLocal<Cipher> LEGACY_STRING_CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(AES);
+        } catch (Exception e) {
+            throw new RuntimeException("Error creating AES cipher", e);
+        }
+    });
 
     /**
-     * Generate a new AES key.
+     * Generate a new key for the default cipher suite.
      *
-     * @return the AES key as a Base64-encoded string.
+     * @return the key as a Base64-encoded string.
      */
     public static String generateKey() {
+        return generateKey(CipherSuite.defaultSuite());
+    }
+
+    /**
+     * Generate a new 256-bit key for the given cipher suite.
+     *
+     * @param suite the suite the key is generated for.
+     * @return the key as a Base64-encoded string.
+     */
+    public static String generateKey(CipherSuite suite) {
         try {
-            KeyGenerator keyGen = KeyGenerator.getInstance(AES);
-            keyGen.init(256); // Use 128 or 192 if 256 is not supported
-            SecretKey secretKey = keyGen.generateKey();
+            SecretKey secretKey = suite.generateKey();
             return Base64.getEncoder().encodeToString(secretKey.getEncoded());
         } catch (Exception e) {
-            throw new RuntimeException("Error generating AES key", e);
+            throw new RuntimeException("Error generating " + suite.keyAlgorithm() + " key", e);
         }
     }
 
     /**
-     * Encrypt a plain text string using the provided AES key.
+     * Encrypt a plain text string using the provided key and the default cipher suite.
      *
      * @param plainText the text to encrypt.
-     * @param base64Key the Base64-encoded AES key.
-     * @return the encrypted text as a Base64-encoded string.
+     * @param base64Key the Base64-encoded key.
+     * @return the encrypted text.
      */
     public static String encrypt(String plainText, String base64Key) {
+        return encrypt(plainText, decodeKey(base64Key));
+    }
+
+    /**
+     * Encrypt a plain text string with an already decoded key and the default cipher suite.
+     *
+     * @param plainText the text to encrypt.
+     * @param secretKey the key.
+     * @return the encrypted text.
+     */
+    public static String encrypt(String plainText, SecretKey secretKey) {
+        return encrypt(plainText, secretKey, CipherSuite.defaultSuite());
+    }
+
+    /**
+     * Encrypt a plain text string with the given cipher suite. The result is
+     * {@value #STRING_PREFIX} followed by the Base64 of the suite id, a random nonce and the sealed
+     * text. The cipher instance is cached per thread, so repeated calls avoid the provider lookup of
+     * {@code Cipher.getInstance}.
+     *
+     * @param plainText the text to encrypt.
+     * @param secretKey the key.
+     * @param suite     the cipher suite to seal the text with.
+     * @return the encrypted text.
+     */
+    public static String encrypt(String plainText, SecretKey secretKey, CipherSuite suite) {
         try {
-            SecretKey secretKey = decodeKey(base64Key);
-            Cipher cipher = Cipher.getInstance(AES);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            byte[] encryptedBytes = cipher.doFinal(plainText.getBytes());
-            return Base64.getEncoder().encodeToString(encryptedBytes);
+            byte[] plain = plainText.getBytes(StandardCharsets.UTF_8);
+            byte[] sealed = new byte[1 + StreamingEncryption.NONCE_LENGTH + plain.length + StreamingEncryption.TAG_LENGTH];
+            sealed[0] = suite.id();
+            byte[] nonce = new byte[StreamingEncryption.NONCE_LENGTH];
+            STRING_NONCES.nextBytes(nonce);
+            System.arraycopy(nonce, 0, sealed, 1, nonce.length);
+
+            Cipher cipher = suite.init(Cipher.ENCRYPT_MODE, secretKey, nonce, 0, nonce.length);
+            cipher.updateAAD(sealed, 0, 1);
+            cipher.doFinal(plain, 0, plain.length, sealed, 1 + nonce.length);
+            return STRING_PREFIX + Base64.getEncoder().encodeToString(sealed);
         } catch (Exception e) {
             throw new RuntimeException("Error encrypting data", e);
         }
     }
 
     /**
-     * Decrypt an encrypted string using the provided AES key.
+     * Decrypt an encrypted string using the provided key.
      *
-     * @param cipherText the encrypted text (Base64-encoded).
-     * @param base64Key  the Base64-encoded AES key.
+     * @param cipherText the encrypted text.
+     * @param base64Key  the Base64-encoded key.
      * @return the decrypted plain text.
      */
     public static String decrypt(String cipherText, String base64Key) {
+        return decrypt(cipherText, decodeKey(base64Key));
+    }
+
+    /**
+     * Decrypt an encrypted string with an already decoded key, reusing a per-thread cipher. The
+     * cipher suite is read from the string; strings written by earlier versions (plain Base64,
+     * AES in ECB mode) are still accepted.
+     *
+     * @param cipherText the encrypted text.
+     * @param secretKey  the key.
+     * @return the decrypted plain text.
+     */
+    public static String decrypt(String cipherText, SecretKey secretKey) {
+        if (cipherText.startsWith(STRING_PREFIX)) {
+            return decryptSealed(cipherText, secretKey);
+        }
         try {
-            SecretKey secretKey = decodeKey(base64Key);
-            Cipher cipher = Cipher.getInstance(AES);
+            Cipher cipher = LEGACY_STRING_CIPHERS.get();
             cipher.init(Cipher.DECRYPT_MODE, secretKey);
             byte[] decryptedBytes = cipher.doFinal(Base64.getDecoder().decode(cipherText));
             return new String(decryptedBytes);
@@ -67,50 +148,369 @@ public class EncryptionLogic {
         }
     }
 
+    private static String decryptSealed(String cipherText, SecretKey secretKey) {
+        try {
+            byte[] sealed = Base64.getDecoder().decode(cipherText.substring(STRING_PREFIX.length()));
+            int headerLength = 1 + StreamingEncryption.NONCE_LENGTH;
+            if (sealed.length < headerLength + StreamingEncryption.TAG_LENGTH) {
+                throw new IOException("Encrypted text is truncated.");
+            }
+            CipherSuite suite = CipherSuite.forId(sealed[0]);
+            Cipher cipher = suite.init(Cipher.DECRYPT_MODE, secretKey, sealed, 1, StreamingEncryption.NONCE_LENGTH);
+            cipher.updateAAD(sealed, 0, 1);
+            byte[] plain = cipher.doFinal(sealed, headerLength, sealed.length - headerLength);
+            return new String(plain, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new RuntimeException("Error decrypting data", e);
+        }
+    }
+
     /**
-     * Encrypt a file.
+     * Encrypt a file into the segmented, authenticated container format. The file is streamed chunk by
+     * chunk, so memory use does not depend on the file size. Files of at least
+     * {@link ChannelFileEncryption#MAPPED_IO_THRESHOLD} bytes go through memory-mapped I/O.
      *
      * @param inputFilePath the path to the input file.
      * @param base64Key     the Base64-encoded AES key.
-     * @param outputFilePath the path to the output file.
+     * @param outputFilePath the path to the output file, or null to write to stdout.
      * @param cleanOutput   if true, suppress additional messages.
      * @throws Exception if an error occurs.
      */
     public static void encryptFile(String inputFilePath, String base64Key, String outputFilePath, boolean cleanOutput) throws Exception {
+        encryptFile(inputFilePath, base64Key, outputFilePath, cleanOutput, 1);
+    }
+
+    /**
+     * Encrypt a file, sealing its segments on several threads when {@code threads > 1}.
+     *
+     * @param inputFilePath the path to the input file.
+     * @param base64Key     the Base64-encoded AES key.
+     * @param outputFilePath the path to the output file, or null to write to stdout.
+     * @param cleanOutput   if true, suppress additional messages.
+     * @param threads       the number of threads to encrypt with.
+     * @throws Exception if an error occurs.
+     */
+    public static void encryptFile(String inputFilePath, String base64Key, String outputFilePath, boolean cleanOutput, int threads) throws Exception {
+        encryptFile(inputFilePath, base64Key, outputFilePath, cleanOutput, threads, null);
+    }
+
+    /**
+     * Encrypt a file, compressing each chunk with {@code codec} before it is sealed. Compression is
+     * skipped if the first chunk does not compress well, e.g. for media or archives.
+     *
+     * @param inputFilePath the path to the input file.
+     * @param base64Key     the Base64-encoded AES key.
+     * @param outputFilePath the path to the output file, or null to write to stdout.
+     * @param cleanOutput   if true, suppress additional messages.
+     * @param threads       the number of threads to encrypt with.
+     * @param codec         the compression codec, or null to store chunks uncompressed.
+     * @throws Exception if an error occurs.
+     */
+    public static void encryptFile(String inputFilePath, String base64Key, String outputFilePath, boolean cleanOutput, int threads,
+                                   CompressionCodec codec) throws Exception {
+        encryptFile(inputFilePath, base64Key, outputFilePath, cleanOutput, threads, codec, CipherSuite.defaultSuite());
+    }
+
+    /**
+     * Encrypt a file with the given cipher suite, which is recorded in the file header.
+     *
+     * @param inputFilePath the path to the input file.
+     * @param base64Key     the Base64-encoded key.
+     * @param outputFilePath the path to the output file, or null to write to stdout.
+     * @param cleanOutput   if true, suppress additional messages.
+     * @param threads       the number of threads to encrypt with.
+     * @param codec         the compression codec, or null to store chunks uncompressed.
+     * @param suite         the cipher suite to seal the file with.
+     * @throws Exception if an error occurs.
+     */
+    public static void encryptFile(String inputFilePath, String base64Key, String outputFilePath, boolean cleanOutput, int threads,
+                                   CompressionCodec codec, CipherSuite suite) throws Exception {
         Path inputPath = Path.of(inputFilePath);
         Path outputPath = outputFilePath != null ? Path.of(outputFilePath) : null;
+        SecretKey secretKey = decodeKey(base64Key);
 
-        String content = Files.readString(inputPath);
-        String encrypted = encrypt(content, base64Key);
-
-        if (outputPath != null) {
-            Files.writeString(outputPath, encrypted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-            if (!cleanOutput) {
-                System.out.printf("File encrypted successfully: %s%n", outputPath);
+        if (threads > 1) {
+            writeOutput(outputPath, out -> ParallelFileEncryption.encrypt(inputPath, out, secretKey, suite,
+                    ParallelFileEncryption.DEFAULT_SEGMENT_SIZE, codec, threads));
+        } else if (outputPath != null && codec == null && Files.size(inputPath) >= ChannelFileEncryption.MAPPED_IO_THRESHOLD) {
+            AtomicFiles.writeFile(outputPath, tempFile -> ChannelFileEncryption.encrypt(inputPath, tempFile, secretKey, suite,
+                    ParallelFileEncryption.DEFAULT_SEGMENT_SIZE));
+        } else {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(inputPath), IO_BUFFER_SIZE)) {
+                writeOutput(outputPath, out -> StreamingEncryption.encrypt(in, out, secretKey, suite,
+                        StreamingEncryption.DEFAULT_CHUNK_SIZE, codec));
             }
+        }
+        if (outputPath != null && !cleanOutput) {
+            System.out.printf("File encrypted successfully: %s%n", outputPath);
+        }
+    }
+
+    /**
+     * Encrypt a stream of unknown length, e.g. stdin, chunk by chunk. Each record is written as soon
+     * as its chunk has been read, so output starts after the first chunk and memory use stays
+     * constant. A consumer that stops early is left with a container missing its last record, which
+     * fails authentication rather than passing as a shorter file.
+     *
+     * @param in        the plaintext source.
+     * @param out       the destination; written to unbuffered is fine, each write is a whole record.
+     * @param base64Key the Base64-encoded key.
+     * @param codec     the compression codec, or null to store chunks uncompressed.
+     * @param suite     the cipher suite to seal the stream with.
+     * @throws Exception if reading, encryption or writing fails.
+     */
+    public static void encryptStream(InputStream in, OutputStream out, String base64Key, CompressionCodec codec, CipherSuite suite) throws Exception {
+        StreamingEncryption.encrypt(in, out, decodeKey(base64Key), suite, StreamingEncryption.DEFAULT_CHUNK_SIZE, codec);
+    }
+
+    /**
+     * Decrypt a stream, e.g. stdin, record by record; plaintext is written as soon as each record
+     * authenticates. Content written by earlier versions (a single Base64 string) is read whole.
+     *
+     * @param in        the encrypted source.
+     * @param out       the destination for the plaintext.
+     * @param base64Key the Base64-encoded key.
+     * @throws Exception if the stream is malformed, truncated or fails authentication.
+     */
+    public static void decryptStream(InputStream in, OutputStream out, String base64Key) throws Exception {
+        InputStream buffered = new BufferedInputStream(in, IO_BUFFER_SIZE);
+        byte[] prefix = new byte[StreamingEncryption.MAGIC.length];
+        buffered.mark(prefix.length);
+        int read = StreamingEncryption.readFully(buffered, prefix, 0, prefix.length);
+        buffered.reset();
+
+        if (StreamingEncryption.hasMagic(prefix, read)) {
+            StreamingEncryption.decrypt(buffered, out, decodeKey(base64Key));
         } else {
-            System.out.println(encrypted);
+            String content = new String(buffered.readAllBytes(), StandardCharsets.UTF_8);
+            out.write(decrypt(content, base64Key).getBytes(StandardCharsets.UTF_8));
+            out.flush();
         }
     }
 
     /**
-     * Decrypt a file.
+     * Decrypt a file. Files in the segmented container format are streamed; files written by
+     * earlier versions (a single Base64 string) are still accepted.
      *
      * @param inputFilePath the path to the input file.
      * @param base64Key     the Base64-encoded AES key.
-     * @param outputFilePath the path to the output file.
+     * @param outputFilePath the path to the output file, or null to write to stdout.
      * @param cleanOutput   if true, suppress additional messages.
      * @throws Exception if an error occurs.
      */
     public static void decryptFile(String inputFilePath, String base64Key, String outputFilePath, boolean cleanOutput) throws Exception {
+        decryptFile(inputFilePath, base64Key, outputFilePath, cleanOutput, 1);
+    }
+
+    /**
+     * Decrypt a file, authenticating its segments on several threads when {@code threads > 1}.
+     *
+     * @param inputFilePath the path to the input file.
+     * @param base64Key     the Base64-encoded AES key.
+     * @param outputFilePath the path to the output file, or null to write to stdout.
+     * @param cleanOutput   if true, suppress additional messages.
+     * @param threads       the number of threads to decrypt with.
+     * @throws Exception if an error occurs.
+     */
+    public static void decryptFile(String inputFilePath, String base64Key, String outputFilePath, boolean cleanOutput, int threads) throws Exception {
+        Path inputPath = Path.of(inputFilePath);
+        Path outputPath = outputFilePath != null ? Path.of(outputFilePath) : null;
+        SecretKey secretKey = decodeKey(base64Key);
+
+        if (!isEncryptedContainer(inputPath)) {
+            decryptLegacyFile(inputPath, base64Key, outputPath, cleanOutput);
+            return;
+        }
+
+        if (threads > 1) {
+            writeOutput(outputPath, out -> ParallelFileEncryption.decrypt(inputPath, out, secretKey, threads));
+        } else if (outputPath != null && Files.size(inputPath) >= ChannelFileEncryption.MAPPED_IO_THRESHOLD && !isCompressedContainer(inputPath)) {
+            AtomicFiles.writeFile(outputPath, tempFile -> ChannelFileEncryption.decrypt(inputPath, tempFile, secretKey));
+        } else {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(inputPath), IO_BUFFER_SIZE)) {
+                writeOutput(outputPath, out -> StreamingEncryption.decrypt(in, out, secretKey));
+            }
+        }
+        if (outputPath != null && !cleanOutput) {
+            System.out.printf("File decrypted successfully: %s%n", outputPath);
+        }
+    }
+
+    /**
+     * Decrypt a byte range of a file. Only the segments covering the range are read and
+     * authenticated, so the cost is independent of the file size.
+     *
+     * @param inputFilePath the path to the input file.
+     * @param base64Key     the Base64-encoded AES key.
+     * @param outputFilePath the path to the output file, or null to write to stdout.
+     * @param offset        the first plaintext byte to decrypt.
+     * @param length        the number of bytes to decrypt, or a negative value for "until the end".
+     * @param cleanOutput   if true, suppress additional messages.
+     * @throws Exception if an error occurs.
+     */
+    public static void decryptFileRange(String inputFilePath, String base64Key, String outputFilePath, long offset, long length, boolean cleanOutput) throws Exception {
+        Path inputPath = Path.of(inputFilePath);
+        Path outputPath = outputFilePath != null ? Path.of(outputFilePath) : null;
+        SecretKey secretKey = decodeKey(base64Key);
+
+        if (!isEncryptedContainer(inputPath)) {
+            throw new IllegalArgumentException("Byte ranges can only be decrypted from segmented files: " + inputFilePath);
+        }
+
+        writeOutput(outputPath, out -> ParallelFileEncryption.decryptRange(inputPath, out, secretKey, offset, length));
+        if (outputPath != null && !cleanOutput) {
+            System.out.printf("File range decrypted successfully: %s%n", outputPath);
+        }
+    }
+
+    /**
+     * Re-encrypt a file under a new key in a single streamed pass, without writing plaintext to
+     * disk. Files written by earlier versions (a single Base64 string) are converted to the
+     * segmented container format on the way.
+     *
+     * @param inputFilePath  the path to the encrypted file.
+     * @param oldBase64Key   the Base64-encoded key the file is encrypted with.
+     * @param newBase64Key   the Base64-encoded key to encrypt with.
+     * @param outputFilePath the path to the output file, or null to write to stdout.
+     * @param cleanOutput    if true, suppress additional messages.
+     * @throws Exception if the file cannot be decrypted with the old key or written.
+     */
+    public static void rekeyFile(String inputFilePath, String oldBase64Key, String newBase64Key, String outputFilePath, boolean cleanOutput) throws Exception {
         Path inputPath = Path.of(inputFilePath);
         Path outputPath = outputFilePath != null ? Path.of(outputFilePath) : null;
+        SecretKey oldKey = decodeKey(oldBase64Key);
+        SecretKey newKey = decodeKey(newBase64Key);
+
+        if (isEncryptedContainer(inputPath)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(inputPath), IO_BUFFER_SIZE)) {
+                writeOutput(outputPath, out -> StreamingEncryption.rekey(in, out, oldKey, newKey));
+            }
+        } else {
+            byte[] plain = decrypt(Files.readString(inputPath), oldKey).getBytes(StandardCharsets.UTF_8);
+            writeOutput(outputPath, out -> StreamingEncryption.encrypt(new ByteArrayInputStream(plain), out, newKey,
+                    CipherSuite.defaultSuite(), StreamingEncryption.DEFAULT_CHUNK_SIZE, null));
+        }
+        if (outputPath != null && !cleanOutput) {
+            System.out.printf("File re-encrypted successfully: %s%n", outputPath);
+        }
+    }
+
+    /**
+     * Authenticate an encrypted file without writing any plaintext. Files written by earlier
+     * versions (a single Base64 string) carry no authentication tag; they pass if they decrypt.
+     *
+     * @param inputFilePath the path to the encrypted file.
+     * @param base64Key     the Base64-encoded AES key.
+     * @param threads       the number of threads to authenticate the file's records with.
+     * @throws Exception if the file is corrupt, truncated or not encrypted with this key.
+     */
+    public static void verifyFile(String inputFilePath, String base64Key, int threads) throws Exception {
+        Path inputPath = Path.of(inputFilePath);
+        SecretKey secretKey = decodeKey(base64Key);
+
+        if (!isEncryptedContainer(inputPath)) {
+            if (Files.size(inputPath) > LEGACY_VERIFY_LIMIT) {
+                throw new IOException("Not a QBox encrypted file.");
+            }
+            try {
+                decrypt(Files.readString(inputPath), secretKey);
+            } catch (Exception e) {
+                throw new IOException("Not a QBox encrypted file, or a legacy file that does not decrypt with this key.", e);
+            }
+            return;
+        }
+
+        if (threads > 1) {
+            ParallelFileEncryption.verify(inputPath, secretKey, threads);
+        } else {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(inputPath), VERIFY_BUFFER_SIZE)) {
+                StreamingEncryption.verify(in, secretKey);
+            }
+        }
+    }
+
+    /**
+     * Check whether a file is a container whose first record authenticates with {@code key}.
+     *
+     * @param path the file to inspect.
+     * @param key  the key to try.
+     * @return true if the file is encrypted with this key.
+     * @throws IOException if the file cannot be read.
+     */
+    static boolean isEncryptedWith(Path path, SecretKey key) throws IOException {
+        if (!isEncryptedContainer(path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            SegmentIndex index = SegmentIndex.load(channel);
+            byte[] record = new byte[index.recordLength(0)];
+            index.readRecord(channel, 0, record);
+            byte[] payload = new byte[index.header().payloadCapacity()];
+            StreamingEncryption.openChunk(index.header().suite, key, index.headerBytes(), 0, index.isLast(0), record, 0, payload, 0);
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check whether a file starts with the container magic.
+     *
+     * @param path the file to inspect.
+     * @return true if the file is in the segmented container format.
+     * @throws IOException if the file cannot be read.
+     */
+    static boolean isEncryptedContainer(Path path) throws IOException {
+        byte[] prefix = new byte[StreamingEncryption.MAGIC.length];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read = StreamingEncryption.readFully(in, prefix, 0, prefix.length);
+            return StreamingEncryption.hasMagic(prefix, read);
+        }
+    }
+
+    /**
+     * Check whether a container's records are compressed, i.e. vary in size.
+     *
+     * @param path a file in the segmented container format.
+     * @return true if the header names a compression codec.
+     * @throws IOException if the header cannot be read.
+     */
+    static boolean isCompressedContainer(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return StreamingEncryption.Header.read(in).codec != null;
+        }
+    }
+
+    /**
+     * Write a file through a buffered stream with {@link AtomicFiles#writeFile(Path, AtomicFiles.PathWriter)},
+     * so readers never observe a partially written file and the input may safely be the output.
+     *
+     * @param outputPath the final destination.
+     * @param writer     writes the full content to the given stream.
+     * @throws Exception if writing or moving fails; the temporary file is removed.
+     */
+    static void writeAtomically(Path outputPath, StreamWriter writer) throws Exception {
+        AtomicFiles.writeFile(outputPath, tempFile -> {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempFile, StandardOpenOption.WRITE), IO_BUFFER_SIZE)) {
+                writer.write(out);
+            }
+        });
+    }
 
+    private static void writeOutput(Path outputPath, StreamWriter writer) throws Exception {
+        if (outputPath != null) {
+            writeAtomically(outputPath, writer);
+        } else {
+            writer.write(System.out);
+        }
+    }
+
+    private static void decryptLegacyFile(Path inputPath, String base64Key, Path outputPath, boolean cleanOutput) throws Exception {
         String content = Files.readString(inputPath);
         String decrypted = decrypt(content, base64Key);
 
         if (outputPath != null) {
-            Files.writeString(outputPath, decrypted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            writeAtomically(outputPath, out -> out.write(decrypted.getBytes(StandardCharsets.UTF_8)));
             if (!cleanOutput) {
                 System.out.printf("File decrypted successfully: %s%n", outputPath);
             }
@@ -125,9 +525,17 @@ public class EncryptionLogic {
      * @param base64Key the Base64-encoded AES key.
      * @return the SecretKey.
      */
-    private static SecretKey decodeKey(String base64Key) {
+    static SecretKey decodeKey(String base64Key) {
         byte[] decodedKey = Base64.getDecoder().decode(base64Key);
         return new SecretKeySpec(decodedKey, AES);
     }
-}
 
+    /**
+     * Writes content to an output stream.
+     */
+    @FunctionalInterface
+    interface StreamWriter {
+        void write(OutputStream out) throws Exception;
+    }
+
+}
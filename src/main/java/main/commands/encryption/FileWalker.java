@@ -0,0 +1,216 @@
+package main.commands.encryption;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Walks a directory tree and hands every matching regular file to a visitor as soon as it is found,
+ * instead of collecting the whole tree first.
+ *
+ * <p>Include and exclude patterns use {@link java.nio.file.FileSystem#getPathMatcher glob} syntax
+ * and are compiled once. A pattern containing {@code /} is matched against the path relative to the
+ * root (e.g. {@code logs/**}); any other pattern is matched against the file name (e.g. {@code *.txt}).
+ * Excluded directories are not descended into. A {@link #filter(String) filter} narrows the included
+ * files further: a file must match it as well.
+ *
+ * <p>Files are visited in directory order while the directory is read, so wide directories are not
+ * buffered. A visitor that replaces files in the walked tree (in-place encryption) should turn on
+ * {@link #snapshot(boolean)}, so that a replaced file is never listed and visited a second time.
+ */
+public class FileWalker {
+
+    /**
+     * Receives the files found by the walk.
+     */
+    @FunctionalInterface
+    public interface FileVisitor {
+        void visit(Path file, BasicFileAttributes attributes) throws Exception;
+    }
+
+    private final boolean recursive;
+    private final List<Matcher> includes;
+    private final List<Matcher> excludes;
+    private final List<Matcher> filters = new ArrayList<>();
+    private boolean snapshot;
+    private final List<Path> skippedDirectories = new ArrayList<>();
+
+    /**
+     * Create a walker.
+     *
+     * @param recursive whether to descend into subdirectories.
+     * @param includes  glob patterns a file must match (any of them); empty to include every file.
+     * @param excludes  glob patterns for files and directories to leave out.
+     */
+    public FileWalker(boolean recursive, List<String> includes, List<String> excludes) {
+        this.recursive = recursive;
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+    }
+
+    /**
+     * Also require files to match the given pattern, on top of the include patterns.
+     *
+     * @param pattern a glob pattern, or null for none.
+     * @return this walker.
+     */
+    public FileWalker filter(String pattern) {
+        filters.addAll(compile(pattern != null ? List.of(pattern) : null));
+        return this;
+    }
+
+    /**
+     * List each directory completely before visiting its files, for visitors that write into the
+     * walked tree. Directory listings may otherwise return a file that was replaced during the walk
+     * again.
+     *
+     * @param snapshot whether to list each directory before visiting it.
+     * @return this walker.
+     */
+    public FileWalker snapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+        return this;
+    }
+
+    /**
+     * Never descend into the given directory, e.g. an output folder nested in the input folder.
+     *
+     * @param directory the directory to skip.
+     * @return this walker.
+     */
+    public FileWalker skipDirectory(Path directory) {
+        skippedDirectories.add(directory.toAbsolutePath().normalize());
+        return this;
+    }
+
+    /**
+     * Walk the tree below {@code root}.
+     *
+     * @param root    the directory to walk.
+     * @param visitor called for every matching regular file, in directory order.
+     * @return the number of files visited.
+     * @throws Exception if listing a directory fails or the visitor throws.
+     */
+    public long walk(Path root, FileVisitor visitor) throws Exception {
+        return walkDirectory(root, root, visitor);
+    }
+
+    /**
+     * Check a single relative path against the include and exclude patterns.
+     *
+     * @param relativePath the path relative to the walk root.
+     * @return true if the file would be visited.
+     */
+    public boolean matches(Path relativePath) {
+        // The walk never descends into excluded directories, so an excluded parent excludes the file
+        for (Path parent = relativePath.getParent(); parent != null; parent = parent.getParent()) {
+            if (matchesAny(excludes, parent)) {
+                return false;
+            }
+        }
+        return matchesFile(relativePath);
+    }
+
+    private boolean matchesFile(Path relativePath) {
+        if (matchesAny(excludes, relativePath) || !includes.isEmpty() && !matchesAny(includes, relativePath)) {
+            return false;
+        }
+        for (Matcher filter : filters) {
+            if (!filter.matches(relativePath)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long walkDirectory(Path root, Path directory, FileVisitor visitor) throws Exception {
+        long visited = 0;
+        // Subdirectories are walked after the listing is closed, so only one directory is open at a time
+        List<Path> subdirectories = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            Iterable<Path> entries = stream;
+            if (snapshot) {
+                List<Path> listed = new ArrayList<>();
+                stream.forEach(listed::add);
+                entries = listed;
+            }
+            for (Path entry : entries) {
+                if (visitEntry(root, entry, visitor, subdirectories)) {
+                    visited++;
+                }
+            }
+        }
+        for (Path subdirectory : subdirectories) {
+            visited += walkDirectory(root, subdirectory, visitor);
+        }
+        return visited;
+    }
+
+    private boolean visitEntry(Path root, Path entry, FileVisitor visitor, List<Path> subdirectories) throws Exception {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // Vanished or unreadable entries (e.g. dangling links) are ignored, as before
+            return false;
+        }
+        Path relative = root.relativize(entry);
+        if (attributes.isDirectory()) {
+            if (recursive && !matchesAny(excludes, relative) && !isSkipped(entry)) {
+                subdirectories.add(entry);
+            }
+            return false;
+        }
+        if (attributes.isRegularFile() && matchesFile(relative)) {
+            visitor.visit(entry, attributes);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isSkipped(Path directory) {
+        return skippedDirectories.contains(directory.toAbsolutePath().normalize());
+    }
+
+    private static boolean matchesAny(List<Matcher> matchers, Path relativePath) {
+        for (Matcher matcher : matchers) {
+            if (matcher.matches(relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Matcher> compile(List<String> patterns) {
+        List<Matcher> matchers = new ArrayList<>();
+        if (patterns != null) {
+            for (String pattern : patterns) {
+                if (pattern != null && !pattern.isBlank()) {
+                    matchers.add(new Matcher(pattern.trim()));
+                }
+            }
+        }
+        return matchers;
+    }
+
+    private static final class Matcher {
+        private final PathMatcher matcher;
+        private final boolean matchFullPath;
+
+        Matcher(String pattern) {
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            this.matchFullPath = pattern.contains("/");
+        }
+
+        boolean matches(Path relativePath) {
+            Path candidate = matchFullPath ? relativePath : relativePath.getFileName();
+            return candidate != null && matcher.matches(candidate);
+        }
+    }
+}
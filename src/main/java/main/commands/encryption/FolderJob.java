@@ -0,0 +1,334 @@
+package main.commands.encryption;
+
+import main.commands.util.AtomicFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a per-file action over a folder: files are walked and processed in parallel, finished files
+ * are recorded in a {@link JobJournal} so an interrupted run can be resumed, and with
+ * {@code incremental} unchanged files are skipped using a {@link ChangeManifest}.
+ *
+ * <p>The manifest also records the job's settings; when they change (e.g. a new key or cipher
+ * suite), every file is processed again, since none of the existing outputs match them.
+ */
+public class FolderJob {
+
+    /**
+     * Processes one file.
+     */
+    @FunctionalInterface
+    public interface FileAction {
+        void apply(File input, File output) throws Exception;
+    }
+
+    /**
+     * Processes one file read from a stream, so the job can hash the content in the same pass.
+     */
+    @FunctionalInterface
+    public interface StreamAction {
+        void apply(File input, InputStream in, File output) throws Exception;
+    }
+
+    /**
+     * Recognizes an output that is already finished although the journal does not list it.
+     */
+    @FunctionalInterface
+    public interface DoneCheck {
+        boolean isDone(File output) throws Exception;
+    }
+
+    private final String name;
+    private final String verb;
+    private final FileAction action;
+    private int threads;
+    private boolean replace = true;
+    private boolean incremental;
+    private boolean resume;
+    private DoneCheck doneCheck;
+    private ChangeManifest knownHashes;
+    private StreamAction streamAction;
+    private String settings;
+
+    /**
+     * Create a job.
+     *
+     * @param name   identifies the job in the journal, e.g. {@code encrypt}.
+     * @param verb   the past tense used in the summary, e.g. {@code Encrypted}.
+     * @param action processes one file; must be thread-safe.
+     */
+    public FolderJob(String name, String verb, FileAction action) {
+        this.name = name;
+        this.verb = verb;
+        this.action = action;
+    }
+
+    /**
+     * @param threads the number of files processed in parallel; 0 for all CPU cores.
+     */
+    public FolderJob threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param replace whether outputs replace their input files instead of going to the target folder.
+     */
+    public FolderJob replace(boolean replace) {
+        this.replace = replace;
+        return this;
+    }
+
+    /**
+     * @param incremental whether to skip unchanged files and remove outputs of deleted ones.
+     */
+    public FolderJob incremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    /**
+     * @param resume whether to continue the interrupted run recorded in the target folder.
+     */
+    public FolderJob resume(boolean resume) {
+        this.resume = resume;
+        return this;
+    }
+
+    /**
+     * When resuming an in-place job, skip files this check reports as already processed. A file
+     * may have been moved into place just before the kill without reaching the journal, and
+     * applying the action twice (e.g. encrypting twice) would be wrong.
+     *
+     * @param doneCheck the check.
+     */
+    public FolderJob doneCheck(DoneCheck doneCheck) {
+        this.doneCheck = doneCheck;
+        return this;
+    }
+
+    /**
+     * Take content hashes from a manifest written by {@code qbox hash --output} instead of reading
+     * the files again. A hash is only used while the file's size and modification time still match.
+     *
+     * @param knownHashes the manifest, keyed by paths relative to the input folder.
+     */
+    public FolderJob knownHashes(ChangeManifest knownHashes) {
+        this.knownHashes = knownHashes;
+        return this;
+    }
+
+    /**
+     * Process changed files of an incremental run through this action instead, hashing the content
+     * for the manifest while the action reads it, so each file is read only once.
+     *
+     * @param streamAction produces the same output as the file action; must be thread-safe.
+     */
+    public FolderJob streamAction(StreamAction streamAction) {
+        this.streamAction = streamAction;
+        return this;
+    }
+
+    /**
+     * @param settings describes everything besides the input that determines the outputs, e.g. mode,
+     *                 cipher suite and a key fingerprint; recorded in the manifest of incremental runs.
+     */
+    public FolderJob settings(String settings) {
+        this.settings = settings;
+        return this;
+    }
+
+    /**
+     * Process every file the walker finds below {@code inputFolder} and print a summary.
+     *
+     * @param inputFolder  the folder to process.
+     * @param targetFolder where outputs go; the input folder itself when replacing.
+     * @param walker       selects the files to process.
+     * @return the processor, for its counts.
+     * @throws Exception if the journal or manifest cannot be used, or the walk fails.
+     */
+    public ParallelFileProcessor run(File inputFolder, File targetFolder, FileWalker walker) throws Exception {
+        if (!targetFolder.exists()) {
+            targetFolder.mkdirs();
+        }
+        if (!replace) {
+            walker.skipDirectory(targetFolder.toPath());
+        } else {
+            // Outputs replace their sources, so each directory is listed before it is processed
+            walker.snapshot(true);
+        }
+
+        Path manifestPath = targetFolder.toPath().resolve(ChangeManifest.FILE_NAME);
+        ChangeManifest previous = incremental ? ChangeManifest.load(manifestPath) : null;
+        ChangeManifest manifest = previous;
+        if (previous != null && !Objects.equals(previous.settings(), settings)) {
+            // Outputs made with other settings are all out of date; start a new manifest
+            if (!previous.paths().isEmpty()) {
+                System.out.println("Settings changed since the last run (key, cipher suite or mode); processing every file again.");
+            }
+            manifest = new ChangeManifest();
+            manifest.settings(settings);
+        }
+        Path journalPath = targetFolder.toPath().resolve(JobJournal.FILE_NAME).toAbsolutePath().normalize();
+        try (JobJournal journal = openJournal(journalPath, inputFolder, targetFolder)) {
+            ParallelFileProcessor processor = processFiles(inputFolder, targetFolder, walker, manifest == previous ? previous : null,
+                    manifest, journal, journalPath);
+            if (manifest != null) {
+                removeDeletedOutputs(previous, inputFolder, targetFolder);
+                manifest.save(manifestPath);
+            }
+            processor.printSummary(verb);
+            if (processor.getFilesFailed() == 0) {
+                journal.finish();
+            } else {
+                System.out.println("Run again with --resume to retry the failed files only.");
+            }
+            return processor;
+        }
+    }
+
+    private JobJournal openJournal(Path journalPath, File inputFolder, File targetFolder) throws Exception {
+        String job = name + " " + inputFolder.getAbsoluteFile().toPath().normalize()
+                + " -> " + targetFolder.getAbsoluteFile().toPath().normalize();
+        if (!resume) {
+            if (Files.exists(journalPath)) {
+                throw new IllegalArgumentException("A previous run was interrupted (" + journalPath
+                        + " exists). Use --resume to continue it, or delete the journal to start over.");
+            }
+            return JobJournal.start(journalPath, job);
+        }
+
+        JobJournal journal = JobJournal.resume(journalPath, job);
+        // Temporary outputs of the killed run were never moved into place; their files are redone
+        List<Path> staleFiles;
+        try (Stream<Path> files = Files.walk(targetFolder.toPath())) {
+            staleFiles = files.filter(AtomicFiles::isTempFile).collect(Collectors.toList());
+        }
+        for (Path staleFile : staleFiles) {
+            Files.deleteIfExists(staleFile);
+        }
+        System.out.printf("Resuming: %d files already done.%n", journal.completedCount());
+        return journal;
+    }
+
+    /**
+     * @param previous the manifest to skip unchanged files with, or null to process every file.
+     * @param manifest the manifest to record processed files in, or null.
+     */
+    private ParallelFileProcessor processFiles(File inputFolder, File targetFolder, FileWalker walker, ChangeManifest previous,
+                                               ChangeManifest manifest, JobJournal journal, Path journalPath) throws Exception {
+        ParallelFileProcessor processor = new ParallelFileProcessor(threads);
+
+        // Files are submitted as they are found; submit() blocks while the workers are saturated,
+        // so the walk never runs far ahead of the workers and the two overlap
+        walker.walk(inputFolder.toPath(), (path, attributes) -> {
+            // The manifest of an incremental run is not one of the outputs, e.g. when decrypting them
+            if (AtomicFiles.isTempFile(path) || path.toAbsolutePath().normalize().equals(journalPath)
+                    || path.getFileName().toString().equals(ChangeManifest.FILE_NAME)) {
+                return;
+            }
+            File file = path.toFile();
+            String relativePath = inputFolder.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+            File outputFile = replace ? file : new File(targetFolder, relativePath);
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+
+            processor.submit(file, () -> {
+                String hash = null;
+
+                if (journal.isDone(relativePath)) {
+                    if (manifest != null) {
+                        manifest.put(relativePath, new ChangeManifest.Entry(size, modified, sha256(relativePath, file, size, modified)));
+                    }
+                    return ParallelFileProcessor.SKIPPED;
+                }
+                if (resume && replace && doneCheck != null && doneCheck.isDone(file)) {
+                    journal.markDone(relativePath);
+                    return ParallelFileProcessor.SKIPPED;
+                }
+
+                if (previous != null) {
+                    ChangeManifest.Entry entry = previous.get(relativePath);
+                    if (entry != null && outputFile.exists()) {
+                        if (entry.matches(size, modified)) {
+                            return ParallelFileProcessor.SKIPPED;
+                        }
+                        // Same size but a new timestamp: only the content hash can tell
+                        if (entry.size == size) {
+                            hash = sha256(relativePath, file, size, modified);
+                            if (hash.equals(entry.sha256)) {
+                                manifest.put(relativePath, new ChangeManifest.Entry(size, modified, hash));
+                                return ParallelFileProcessor.SKIPPED;
+                            }
+                        }
+                    }
+                }
+
+                if (!replace) {
+                    outputFile.getParentFile().mkdirs();
+                }
+                if (manifest != null && hash == null) {
+                    hash = knownHash(relativePath, size, modified);
+                }
+                if (manifest != null && hash == null && streamAction != null) {
+                    hash = applyHashing(file, outputFile);
+                } else {
+                    action.apply(file, outputFile);
+                }
+                journal.markDone(relativePath);
+
+                if (manifest != null) {
+                    manifest.put(relativePath, new ChangeManifest.Entry(size, modified,
+                            hash != null ? hash : ChangeManifest.sha256(file.toPath())));
+                }
+                return size;
+            });
+        });
+
+        processor.awaitCompletion();
+        return processor;
+    }
+
+    private String sha256(String relativePath, File file, long size, long modified) throws IOException {
+        String known = knownHash(relativePath, size, modified);
+        return known != null ? known : ChangeManifest.sha256(file.toPath());
+    }
+
+    private String knownHash(String relativePath, long size, long modified) {
+        ChangeManifest.Entry known = knownHashes != null ? knownHashes.get(relativePath) : null;
+        return known != null && known.matches(size, modified) ? known.sha256 : null;
+    }
+
+    private String applyHashing(File file, File outputFile) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+            streamAction.apply(file, in, outputFile);
+            // The hash must cover the whole file even if the action stopped reading early
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void removeDeletedOutputs(ChangeManifest manifest, File inputFolder, File targetFolder) throws Exception {
+        for (String relativePath : List.copyOf(manifest.paths())) {
+            if (!new File(inputFolder, relativePath).exists()) {
+                File outputFile = new File(targetFolder, relativePath);
+                Files.deleteIfExists(outputFile.toPath());
+                manifest.remove(relativePath);
+                System.out.printf("Removed: %s (source deleted)%n", outputFile.getAbsolutePath());
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package main.commands.encryption;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only record of the files a folder job has finished, kept in the target folder while the
+ * job runs. If the job is killed, a later run with {@code --resume} reads it back and skips every
+ * file already listed. The journal is deleted once the job completes without failures.
+ *
+ * <p>The first line identifies the job ({@code # qbox journal v1<TAB>job}); every following line is
+ * {@code done<TAB>relative/path}, written and flushed right after the file's output was moved into
+ * place.
+ */
+public class JobJournal implements Closeable {
+
+    public static final String FILE_NAME = ".qbox-journal";
+
+    private static final String HEADER = "# qbox journal v1";
+    private static final String DONE = "done\t";
+
+    private final Path path;
+    private final Set<String> completed = ConcurrentHashMap.newKeySet();
+    private Writer writer;
+
+    private JobJournal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Start a new journal, replacing any existing one.
+     *
+     * @param path the journal file.
+     * @param job  a description of the job, checked when resuming.
+     * @return the open journal.
+     * @throws IOException if the journal cannot be written.
+     */
+    public static JobJournal start(Path path, String job) throws IOException {
+        JobJournal journal = new JobJournal(path);
+        journal.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        journal.writer.write(HEADER + "\t" + job + "\n");
+        journal.writer.flush();
+        return journal;
+    }
+
+    /**
+     * Reopen the journal of an interrupted job and load the files it completed.
+     *
+     * @param path the journal file.
+     * @param job  the description the journal must have been started with.
+     * @return the open journal, positioned for appending.
+     * @throws IOException if the journal is missing, unreadable or belongs to a different job.
+     */
+    public static JobJournal resume(Path path, String job) throws IOException {
+        if (!Files.exists(path)) {
+            throw new IOException("No interrupted job to resume: " + path + " does not exist.");
+        }
+        JobJournal journal = new JobJournal(path);
+        byte[] bytes = Files.readAllBytes(path);
+        // Only lines ending in '\n' were written completely: a line cut short by a kill can name
+        // another real file (logs/app.log.10 cut to logs/app.log.1), so it is dropped and redone
+        int end = 0;
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                end = i + 1;
+                break;
+            }
+        }
+        String[] lines = new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n");
+        String header = end > 0 ? lines[0] : null;
+        if (header == null || !header.equals(HEADER + "\t" + job)) {
+            throw new IOException("Journal " + path + " belongs to a different job"
+                    + (header != null && header.startsWith(HEADER + "\t") ? ": " + header.substring(HEADER.length() + 1) : "."));
+        }
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].startsWith(DONE)) {
+                journal.completed.add(lines[i].substring(DONE.length()));
+            }
+        }
+        if (end < bytes.length) {
+            // Otherwise the next entry would be appended to the fragment
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            }
+        }
+        journal.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        return journal;
+    }
+
+    /**
+     * @return true if a previous run already finished this file.
+     */
+    public boolean isDone(String relativePath) {
+        return completed.contains(relativePath);
+    }
+
+    /**
+     * @return the number of files recorded as finished.
+     */
+    public int completedCount() {
+        return completed.size();
+    }
+
+    /**
+     * Record a finished file. Called from worker threads once the output is in place.
+     *
+     * @param relativePath the file's path relative to the input folder.
+     * @throws IOException if the journal cannot be written.
+     */
+    public synchronized void markDone(String relativePath) throws IOException {
+        completed.add(relativePath);
+        writer.write(DONE + relativePath + "\n");
+        writer.flush();
+    }
+
+    /**
+     * Close and delete the journal once the job has completed.
+     *
+     * @throws IOException if the journal cannot be deleted.
+     */
+    public void finish() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package main.commands.encryption;
+
+import main.commands.util.AtomicFiles;
+
+import javax.crypto.SecretKey;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Packs a folder into a single encrypted archive with an encrypted index, so many small files can
+ * be stored and copied as one, listed without decrypting their contents and extracted one by one.
+ *
+ * <pre>
+ * archive : magic "QBXA" | version (1) | reserved (3) | archive id (16) | entries | index | trailer
+ * entry   : the file contents as a segmented container (see {@link StreamingEncryption})
+ * index   : a compressed segmented container holding the path, size, modification time, offset and length of every entry
+ * trailer : index offset (8) | index length (8) | magic "QBXA"
+ * </pre>
+ *
+ * Every entry is bound to the archive id and its own path as associated data, and the index to
+ * the archive id, so entries cannot be swapped between paths or archives without failing
+ * authentication.
+ */
+public class PackArchive {
+
+    public static final String EXTENSION = ".qbxa";
+
+    static final byte[] MAGIC = { 'Q', 'B', 'X', 'A' };
+    static final byte VERSION = 1;
+
+    private static final int ID_LENGTH = 16;
+    private static final int HEADER_LENGTH = MAGIC.length + 4 + ID_LENGTH;
+    private static final int TRAILER_LENGTH = 8 + 8 + MAGIC.length;
+    private static final int MAX_INDEX_LENGTH = Integer.MAX_VALUE - 8;
+    private static final byte CONTEXT_INDEX = 0;
+    private static final byte CONTEXT_ENTRY = 1;
+    private static final int IO_BUFFER_SIZE = 256 * 1024;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * One file stored in an archive.
+     */
+    public static final class Entry {
+        public final String path;
+        public final long size;
+        public final long modified;
+        final long offset;
+        final long length;
+
+        Entry(String path, long size, long modified, long offset, long length) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Pack every file found by {@code walker} below {@code folder} into an archive, written atomically.
+     *
+     * @param folder  the folder to pack.
+     * @param walker  selects the files to pack.
+     * @param key     the AES key.
+     * @param archive the archive file to write.
+     * @return the packed entries, in archive order.
+     * @throws Exception if a file cannot be read or the archive cannot be written.
+     */
+    public static List<Entry> pack(Path folder, FileWalker walker, SecretKey key, Path archive) throws Exception {
+        return pack(folder, walker, key, CipherSuite.AES_256_GCM, archive);
+    }
+
+    /**
+     * Pack a folder into an archive, sealing the entries and the index with the given cipher suite.
+     *
+     * @param folder  the folder to pack.
+     * @param walker  selects the files to pack.
+     * @param key     the 256-bit key.
+     * @param suite   the cipher suite; recorded in every entry's header.
+     * @param archive the archive file to write.
+     * @return the packed entries, in archive order.
+     * @throws Exception if a file cannot be read or the archive cannot be written.
+     */
+    public static List<Entry> pack(Path folder, FileWalker walker, SecretKey key, CipherSuite suite, Path archive) throws Exception {
+        List<Entry> entries = new ArrayList<>();
+        Path archivePath = archive.toAbsolutePath().normalize();
+        EncryptionLogic.writeAtomically(archive, rawOut -> {
+            CountingOutputStream out = new CountingOutputStream(rawOut);
+            byte[] id = new byte[ID_LENGTH];
+            RANDOM.nextBytes(id);
+            out.write(MAGIC);
+            out.write(new byte[] { VERSION, 0, 0, 0 });
+            out.write(id);
+
+            walker.walk(folder, (file, attributes) -> {
+                if (isArchiveOrTemp(file, archivePath)) {
+                    return;
+                }
+                String relativePath = folder.relativize(file).toString().replace(File.separatorChar, '/');
+                // Small files get a chunk of their own size, so packing many of them allocates little
+                int chunkSize = (int) Math.max(1, Math.min(StreamingEncryption.DEFAULT_CHUNK_SIZE, attributes.size()));
+                long offset = out.count();
+                long size;
+                try (CountingInputStream in = new CountingInputStream(Files.newInputStream(file))) {
+                    StreamingEncryption.encrypt(in, out, key, suite, chunkSize, null, context(id, CONTEXT_ENTRY, relativePath));
+                    size = in.count();
+                }
+                entries.add(new Entry(relativePath, size, attributes.lastModifiedTime().toMillis(), offset, out.count() - offset));
+            });
+
+            long indexOffset = out.count();
+            StreamingEncryption.encrypt(new ByteArrayInputStream(encodeIndex(entries)), out, key, suite,
+                    StreamingEncryption.DEFAULT_CHUNK_SIZE, DeflateCodec.DEFAULT, context(id, CONTEXT_INDEX, null));
+            long indexLength = out.count() - indexOffset;
+            DataOutputStream trailer = new DataOutputStream(out);
+            trailer.writeLong(indexOffset);
+            trailer.writeLong(indexLength);
+            trailer.write(MAGIC);
+            trailer.flush();
+        });
+        return entries;
+    }
+
+    // An archive written inside the packed folder must not pack itself or its temporary file
+    private static boolean isArchiveOrTemp(Path file, Path archivePath) {
+        Path absolute = file.toAbsolutePath().normalize();
+        if (!archivePath.getParent().equals(absolute.getParent())) {
+            return false;
+        }
+        String name = absolute.getFileName().toString();
+        String archiveName = archivePath.getFileName().toString();
+        return name.equals(archiveName) || (name.startsWith("." + archiveName + ".") && AtomicFiles.isTempFile(absolute));
+    }
+
+    /**
+     * Read the index of an archive without touching the entry data.
+     *
+     * @param archive the archive file.
+     * @param key     the AES key.
+     * @return the entries, in archive order.
+     * @throws Exception if the archive is malformed or fails authentication.
+     */
+    public static List<Entry> list(Path archive, SecretKey key) throws Exception {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            return readIndex(channel, readId(channel), key);
+        }
+    }
+
+    /**
+     * Extract entries of an archive into a folder, decrypting only the selected entries.
+     *
+     * @param archive  the archive file.
+     * @param key      the AES key.
+     * @param target   the folder to extract into, or null to write the contents to {@code System.out}.
+     * @param selected the paths to extract, or null or empty for all entries.
+     * @return the extracted entries.
+     * @throws Exception if a selected path is not in the archive, or an entry fails authentication.
+     */
+    public static List<Entry> extract(Path archive, SecretKey key, Path target, Collection<String> selected) throws Exception {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            byte[] id = readId(channel);
+            List<Entry> entries = readIndex(channel, id, key);
+
+            List<Entry> extracted = new ArrayList<>();
+            if (selected == null || selected.isEmpty()) {
+                extracted.addAll(entries);
+            } else {
+                Set<String> missing = new HashSet<>(selected);
+                for (Entry entry : entries) {
+                    if (missing.remove(entry.path)) {
+                        extracted.add(entry);
+                    }
+                }
+                if (!missing.isEmpty()) {
+                    throw new IllegalArgumentException("Not found in archive: " + String.join(", ", missing));
+                }
+            }
+
+            for (Entry entry : extracted) {
+                if (target == null) {
+                    extractEntry(channel, id, key, entry, System.out);
+                } else {
+                    Path outputPath = resolveEntry(target, entry.path);
+                    Files.createDirectories(outputPath.getParent());
+                    EncryptionLogic.writeAtomically(outputPath, out -> extractEntry(channel, id, key, entry, out));
+                    Files.setLastModifiedTime(outputPath, FileTime.fromMillis(entry.modified));
+                }
+            }
+            return extracted;
+        }
+    }
+
+    private static void extractEntry(FileChannel channel, byte[] id, SecretKey key, Entry entry, OutputStream out) throws Exception {
+        CountingOutputStream counted = new CountingOutputStream(out);
+        try (InputStream in = openRegion(channel, entry.offset, entry.length)) {
+            StreamingEncryption.decrypt(in, counted, key, context(id, CONTEXT_ENTRY, entry.path));
+        }
+        if (counted.count() != entry.size) {
+            throw new IOException("Archive entry is corrupt: " + entry.path);
+        }
+    }
+
+    private static byte[] readId(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_LENGTH + TRAILER_LENGTH) {
+            throw new IOException("Not a qbox archive: file is too short.");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        readFully(channel, header, 0);
+        byte[] bytes = header.array();
+        if (!Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IOException("Not a qbox archive.");
+        }
+        if (bytes[MAGIC.length] != VERSION) {
+            throw new IOException("Unsupported archive version: " + bytes[MAGIC.length]);
+        }
+        return Arrays.copyOfRange(bytes, MAGIC.length + 4, HEADER_LENGTH);
+    }
+
+    private static List<Entry> readIndex(FileChannel channel, byte[] id, SecretKey key) throws Exception {
+        long size = channel.size();
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+        readFully(channel, trailer, size - TRAILER_LENGTH);
+        trailer.flip();
+        long indexOffset = trailer.getLong();
+        long indexLength = trailer.getLong();
+        byte[] magic = new byte[MAGIC.length];
+        trailer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || indexOffset < HEADER_LENGTH || indexLength <= 0
+                || indexLength > MAX_INDEX_LENGTH || indexOffset + indexLength != size - TRAILER_LENGTH) {
+            throw new IOException("Archive is truncated or corrupt: invalid trailer.");
+        }
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try (InputStream in = openRegion(channel, indexOffset, indexLength)) {
+            StreamingEncryption.decrypt(in, index, key, context(id, CONTEXT_INDEX, null));
+        }
+        return decodeIndex(index.toByteArray(), indexOffset);
+    }
+
+    private static byte[] encodeIndex(List<Entry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            out.writeUTF(entry.path);
+            out.writeLong(entry.size);
+            out.writeLong(entry.modified);
+            out.writeLong(entry.offset);
+            out.writeLong(entry.length);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static List<Entry> decodeIndex(byte[] bytes, long indexOffset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int count = in.readInt();
+        List<Entry> entries = new ArrayList<>(Math.min(count, bytes.length / 34));
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+            if (entry.offset < HEADER_LENGTH || entry.length <= 0 || entry.offset + entry.length > indexOffset) {
+                throw new IOException("Archive index is corrupt at entry " + i + ".");
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Resolve an entry path below the target folder, rejecting paths that would escape it.
+     */
+    private static Path resolveEntry(Path target, String entryPath) throws IOException {
+        Path root = target.toAbsolutePath().normalize();
+        Path resolved = root.resolve(entryPath).normalize();
+        if (entryPath.isEmpty() || entryPath.startsWith("/") || !resolved.startsWith(root) || resolved.equals(root)) {
+            throw new IOException("Refusing to extract entry outside the target folder: " + entryPath);
+        }
+        return resolved;
+    }
+
+    private static byte[] context(byte[] id, byte type, String path) {
+        byte[] pathBytes = path != null ? path.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] context = Arrays.copyOf(id, id.length + 1 + pathBytes.length);
+        context[id.length] = type;
+        System.arraycopy(pathBytes, 0, context, id.length + 1, pathBytes.length);
+        return context;
+    }
+
+    private static InputStream openRegion(FileChannel channel, long offset, long length) throws IOException {
+        channel.position(offset);
+        return new BufferedInputStream(new BoundedInputStream(Channels.newInputStream(channel), length),
+                (int) Math.min(IO_BUFFER_SIZE, Math.max(1, length)));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Archive is truncated.");
+            }
+        }
+    }
+
+    /**
+     * Reads at most a fixed number of bytes from the underlying stream, which is left open.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            // The channel is owned by the caller
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        long count() {
+            return count;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long count() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package main.commands.encryption;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encrypts and decrypts a single large file with several threads.
+ *
+ * <p>The output is the regular {@link StreamingEncryption} container: segments are sealed
+ * independently on a pool and written strictly in order, so files produced here can be read by the
+ * streaming decoder and vice versa. At most {@code 2 * threads} segments are held in memory.
+ */
+public class ParallelFileEncryption {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * Encrypt a file using several threads.
+     *
+     * @param input       the plaintext file.
+     * @param out         the destination for the encrypted container.
+     * @param key         the AES key.
+     * @param segmentSize the plaintext size of each segment.
+     * @param threads     the number of worker threads.
+     * @throws Exception if reading, encryption or writing fails.
+     */
+    public static void encrypt(Path input, OutputStream out, SecretKey key, int segmentSize, int threads) throws Exception {
+        encrypt(input, out, key, segmentSize, null, threads);
+    }
+
+    /**
+     * Encrypt a file using several threads, compressing each segment with {@code codec} first.
+     * Compression is skipped for the whole file if its first chunk does not compress well.
+     *
+     * @param input       the plaintext file.
+     * @param out         the destination for the encrypted container.
+     * @param key         the AES key.
+     * @param segmentSize the plaintext size of each segment.
+     * @param codec       the compression codec, or null to store segments uncompressed.
+     * @param threads     the number of worker threads.
+     * @throws Exception if reading, encryption or writing fails.
+     */
+    public static void encrypt(Path input, OutputStream out, SecretKey key, int segmentSize, CompressionCodec codec, int threads) throws Exception {
+        encrypt(input, out, key, CipherSuite.AES_256_GCM, segmentSize, codec, threads);
+    }
+
+    /**
+     * Encrypt a file using several threads with the given cipher suite, which is recorded in the header.
+     *
+     * @param input       the plaintext file.
+     * @param out         the destination for the encrypted container.
+     * @param key         the 256-bit key.
+     * @param suite       the cipher suite to seal segments with.
+     * @param segmentSize the plaintext size of each segment.
+     * @param codec       the compression codec, or null to store segments uncompressed.
+     * @param threads     the number of worker threads.
+     * @throws Exception if reading, encryption or writing fails.
+     */
+    public static void encrypt(Path input, OutputStream out, SecretKey key, CipherSuite suite, int segmentSize, CompressionCodec codec,
+                               int threads) throws Exception {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long segmentCount = Math.max(1, (size + segmentSize - 1) / segmentSize);
+            if (codec != null) {
+                byte[] sample = new byte[(int) Math.min(StreamingEncryption.DEFAULT_CHUNK_SIZE, size)];
+                readFully(channel, ByteBuffer.wrap(sample), 0);
+                codec = StreamingEncryption.worthCompressing(codec, sample, sample.length) ? codec : null;
+            }
+            CompressionCodec segmentCodec = codec;
+            StreamingEncryption.Header header = new StreamingEncryption.Header(suite, (byte) 0, segmentCodec, segmentSize);
+            byte[] headerBytes = header.encode();
+            out.write(headerBytes);
+
+            runOrdered(threads, segmentCount, index -> () -> {
+                long position = index * segmentSize;
+                int length = (int) Math.min(segmentSize, size - position);
+                byte[] plain = new byte[length];
+                readFully(channel, ByteBuffer.wrap(plain), position);
+
+                byte[] payload = segmentCodec != null ? new byte[length + 1] : null;
+                byte[] record = new byte[(segmentCodec != null ? length + 1 : length) + StreamingEncryption.RECORD_OVERHEAD];
+                int recordLength = StreamingEncryption.sealRecord(suite, key, headerBytes, segmentCodec, index,
+                        index == segmentCount - 1, plain, 0, length, payload, record);
+                return ByteBuffer.wrap(record, 0, recordLength);
+            }, out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Decrypt a whole file using several threads.
+     *
+     * @param input   the encrypted file.
+     * @param out     the destination for the plaintext.
+     * @param key     the AES key.
+     * @param threads the number of worker threads.
+     * @throws Exception if the file is malformed, fails authentication or cannot be read.
+     */
+    public static void decrypt(Path input, OutputStream out, SecretKey key, int threads) throws Exception {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            SegmentIndex index = SegmentIndex.load(channel);
+            runOrdered(threads, index.recordCount(), i -> () -> openRecord(channel, index, key, i), out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Authenticate every record of a file on several threads without producing any output.
+     *
+     * @param input   the encrypted file.
+     * @param key     the AES key.
+     * @param threads the number of worker threads.
+     * @throws Exception if the file is malformed or a record fails authentication.
+     */
+    public static void verify(Path input, SecretKey key, int threads) throws Exception {
+        ByteBuffer none = ByteBuffer.allocate(0);
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            SegmentIndex index = SegmentIndex.load(channel);
+            runOrdered(threads, index.recordCount(), i -> () -> {
+                byte[] record = new byte[index.recordLength(i)];
+                index.readRecord(channel, i, record);
+                byte[] payload = new byte[index.header().payloadCapacity()];
+                try {
+                    StreamingEncryption.openChunk(index.header().suite, key, index.headerBytes(), i, index.isLast(i), record, 0, payload, 0);
+                } catch (AEADBadTagException e) {
+                    throw new IOException("Record " + i + " failed authentication: the data is corrupt or the key is wrong.", e);
+                }
+                return none;
+            }, OutputStream.nullOutputStream());
+        }
+    }
+
+    /**
+     * Decrypt only the plaintext bytes {@code [offset, offset + length)} of a file. Only the records
+     * covering the range are read and authenticated; this works for compressed files too, since
+     * every record but the last holds exactly one chunk of plaintext.
+     *
+     * @param input  the encrypted file.
+     * @param out    the destination for the plaintext slice.
+     * @param key    the AES key.
+     * @param offset the first plaintext byte to return.
+     * @param length the number of bytes to return, or a negative value for "until the end".
+     * @return the number of bytes written.
+     * @throws Exception if the file is malformed, fails authentication or cannot be read.
+     */
+    public static long decryptRange(Path input, OutputStream out, SecretKey key, long offset, long length) throws Exception {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative.");
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (length > Long.MAX_VALUE - offset) {
+            // offset + length would overflow; no file reaches that far, so read until the end
+            length = -1;
+        }
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            SegmentIndex index = SegmentIndex.load(channel);
+            int chunkSize = index.chunkSize();
+            long lastRecord = length < 0 ? index.recordCount() - 1
+                    : Math.min(index.recordCount() - 1, (offset + length - 1) / chunkSize);
+
+            StreamingEncryption.Header header = index.header();
+            byte[] record = new byte[header.maxRecordLength()];
+            byte[] payload = new byte[header.payloadCapacity()];
+            byte[] plain = new byte[chunkSize];
+            long written = 0;
+            for (long i = offset / chunkSize; i <= lastRecord; i++) {
+                index.readRecord(channel, i, record);
+                int plainLength = StreamingEncryption.openRecord(header.suite, key, index.headerBytes(), header, i, index.isLast(i), record, payload, plain);
+
+                long chunkStart = i * chunkSize;
+                int from = (int) Math.max(0, offset - chunkStart);
+                int to = length < 0 ? plainLength : (int) Math.min(plainLength, offset + length - chunkStart);
+                if (from < to) {
+                    out.write(plain, from, to - from);
+                    written += to - from;
+                }
+            }
+            out.flush();
+            return written;
+        }
+    }
+
+    private static ByteBuffer openRecord(FileChannel channel, SegmentIndex index, SecretKey key, long i) throws Exception {
+        byte[] record = new byte[index.recordLength(i)];
+        index.readRecord(channel, i, record);
+        StreamingEncryption.Header header = index.header();
+        byte[] payload = header.codec != null ? new byte[header.payloadCapacity()] : null;
+        byte[] plain = new byte[index.chunkSize()];
+        int plainLength = StreamingEncryption.openRecord(header.suite, key, index.headerBytes(), header, i, index.isLast(i), record, payload, plain);
+        return ByteBuffer.wrap(plain, 0, plainLength);
+    }
+
+    /**
+     * Run one task per segment on a pool and write the results in segment order, keeping a bounded
+     * window of segments in flight.
+     */
+    private static void runOrdered(int threads, long segmentCount, SegmentTask task, OutputStream out) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<Future<ByteBuffer>> window = new ArrayDeque<>();
+        int maxInFlight = threads * 2;
+        try {
+            for (long i = 0; i < segmentCount; i++) {
+                if (window.size() >= maxInFlight) {
+                    write(window.removeFirst(), out);
+                }
+                window.addLast(executor.submit(task.create(i)));
+            }
+            while (!window.isEmpty()) {
+                write(window.removeFirst(), out);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void write(Future<ByteBuffer> future, OutputStream out) throws Exception {
+        ByteBuffer buffer;
+        try {
+            buffer = future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("File changed while it was being encrypted.");
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface SegmentTask {
+        Callable<ByteBuffer> create(long index);
+    }
+}
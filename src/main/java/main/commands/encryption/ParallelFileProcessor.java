@@ -0,0 +1,138 @@
+package main.commands.encryption;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs per-file tasks on a bounded work-stealing pool.
+ *
+ * <p>Submission blocks once {@code 2 * threads} tasks are queued or running, so the producer can
+ * never run ahead of the workers and the number of open file handles stays bounded. A failing
+ * task is reported on stderr and counted; it does not stop the remaining files.
+ */
+public class ParallelFileProcessor {
+
+    /**
+     * A unit of work for one file.
+     */
+    @FunctionalInterface
+    public interface FileTask {
+        /**
+         * Process the file.
+         *
+         * @return the number of input bytes processed, or {@link #SKIPPED} if there was nothing to do.
+         * @throws Exception if processing fails.
+         */
+        long run() throws Exception;
+    }
+
+    public static final long SKIPPED = -1;
+
+    private final int threads;
+    private final int maxInFlight;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final AtomicLong filesProcessed = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+    private final AtomicLong bytesProcessed = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Create a processor.
+     *
+     * @param threads the number of worker threads, or 0 or less to use all available processors.
+     */
+    public ParallelFileProcessor(int threads) {
+        this.threads = resolveThreads(threads);
+        this.maxInFlight = this.threads * 2;
+        this.executor = Executors.newWorkStealingPool(this.threads);
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Resolve a thread count option.
+     *
+     * @param threads the requested thread count, or 0 or less for all available processors.
+     * @return the effective thread count.
+     */
+    public static int resolveThreads(int threads) {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Submit a task, blocking while the pool is saturated.
+     *
+     * @param file the file the task operates on, used for error reporting.
+     * @param task the work to run.
+     * @throws InterruptedException if interrupted while waiting for capacity.
+     */
+    public void submit(File file, FileTask task) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    long bytes = task.run();
+                    if (bytes == SKIPPED) {
+                        filesSkipped.incrementAndGet();
+                    } else {
+                        bytesProcessed.addAndGet(bytes);
+                        filesProcessed.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    filesFailed.incrementAndGet();
+                    System.err.printf("Error: %s: %s%n", file.getAbsolutePath(), e.getMessage());
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for all submitted tasks and shut the pool down.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+        executor.shutdown();
+    }
+
+    /**
+     * Print aggregate throughput for the completed run.
+     *
+     * @param action the verb describing the work, e.g. "Encrypted".
+     */
+    public void printSummary(String action) {
+        double seconds = Math.max((System.nanoTime() - startNanos) / 1_000_000_000.0, 1e-9);
+        double megabytes = bytesProcessed.get() / (1024.0 * 1024.0);
+        System.out.printf("%s %d files (%.1f MB) in %.2f s using %d thread(s): %.1f MB/s, %.1f files/s%n",
+                action, filesProcessed.get(), megabytes, seconds, threads, megabytes / seconds, filesProcessed.get() / seconds);
+        if (filesSkipped.get() > 0) {
+            System.out.printf("%d unchanged files skipped.%n", filesSkipped.get());
+        }
+        if (filesFailed.get() > 0) {
+            System.err.printf("%d files failed.%n", filesFailed.get());
+        }
+    }
+
+    public long getFilesProcessed() {
+        return filesProcessed.get();
+    }
+
+    public long getFilesSkipped() {
+        return filesSkipped.get();
+    }
+
+    public long getFilesFailed() {
+        return filesFailed.get();
+    }
+}
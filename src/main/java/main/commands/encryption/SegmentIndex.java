@@ -0,0 +1,161 @@
+package main.commands.encryption;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Locates the records of an encrypted container without decrypting them.
+ *
+ * <p>Every record except the last one carries a full chunk, so record positions follow directly
+ * from the header and the file size. This lets a reader seek to the records covering any plaintext
+ * byte range and authenticate only those. Compressed records vary in size; for those containers the
+ * length prefixes are scanned once instead (a few bytes read per record).
+ */
+public class SegmentIndex {
+
+    private final StreamingEncryption.Header header;
+    private final byte[] headerBytes;
+    private final long recordCount;
+    private final long fullRecordLength;
+    private final long lastRecordLength;
+    // Record start offsets plus the end of the file, only for containers with variable-size records
+    private final long[] offsets;
+
+    private SegmentIndex(StreamingEncryption.Header header, long recordCount, long lastRecordLength, long[] offsets) {
+        this.header = header;
+        this.headerBytes = header.encode();
+        this.recordCount = recordCount;
+        this.fullRecordLength = header.maxRecordLength();
+        this.lastRecordLength = lastRecordLength;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Build the index for an encrypted file.
+     *
+     * @param channel an open channel on the encrypted file.
+     * @return the index.
+     * @throws IOException if the header is invalid or the file size is inconsistent with it.
+     */
+    public static SegmentIndex load(FileChannel channel) throws IOException {
+        ByteBuffer headerBuffer = ByteBuffer.allocate(StreamingEncryption.HEADER_LENGTH);
+        while (headerBuffer.hasRemaining() && channel.read(headerBuffer, headerBuffer.position()) > 0) {
+            // keep reading until the header is complete or the file ends
+        }
+        StreamingEncryption.Header header = StreamingEncryption.Header.decode(headerBuffer.array(), headerBuffer.position());
+
+        long body = channel.size() - StreamingEncryption.HEADER_LENGTH;
+        long fullRecordLength = header.maxRecordLength();
+        if (body <= 0) {
+            throw new IOException("Encrypted file is truncated: no data records found.");
+        }
+        if (header.codec != null) {
+            return scan(channel, header);
+        }
+        long recordCount = (body + fullRecordLength - 1) / fullRecordLength;
+        long lastRecordLength = body - (recordCount - 1) * fullRecordLength;
+        if (lastRecordLength < StreamingEncryption.RECORD_OVERHEAD) {
+            throw new IOException("Encrypted file is truncated inside the last record.");
+        }
+        return new SegmentIndex(header, recordCount, lastRecordLength, null);
+    }
+
+    private static SegmentIndex scan(FileChannel channel, StreamingEncryption.Header header) throws IOException {
+        long size = channel.size();
+        long[] offsets = new long[Math.max(2, (int) Math.min(Integer.MAX_VALUE - 8, size / header.maxRecordLength() + 2))];
+        int count = 0;
+        long position = StreamingEncryption.HEADER_LENGTH;
+        ByteBuffer field = ByteBuffer.allocate(StreamingEncryption.LENGTH_FIELD);
+        while (position < size) {
+            field.clear();
+            while (field.hasRemaining()) {
+                if (channel.read(field, position + field.position()) < 0) {
+                    throw new IOException("Encrypted file is truncated inside a record header.");
+                }
+            }
+            int bodyLength = field.getInt(0);
+            if (bodyLength < StreamingEncryption.NONCE_LENGTH + StreamingEncryption.TAG_LENGTH
+                    || bodyLength > header.maxRecordLength() - StreamingEncryption.LENGTH_FIELD) {
+                throw new IOException("Encrypted file is corrupt: invalid record length " + bodyLength + ".");
+            }
+            if (count + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count++] = position;
+            position += StreamingEncryption.LENGTH_FIELD + bodyLength;
+        }
+        if (position != size) {
+            throw new IOException("Encrypted file is truncated at record " + (count - 1) + ".");
+        }
+        offsets[count] = position;
+        return new SegmentIndex(header, count, position - offsets[count - 1], offsets);
+    }
+
+    StreamingEncryption.Header header() {
+        return header;
+    }
+
+    byte[] headerBytes() {
+        return headerBytes;
+    }
+
+    public long recordCount() {
+        return recordCount;
+    }
+
+    public int chunkSize() {
+        return header.chunkSize;
+    }
+
+    /**
+     * @return the total plaintext size of the file, or -1 if the records are compressed and the size
+     *         is only known after decrypting the last one.
+     */
+    public long plaintextSize() {
+        if (offsets != null) {
+            return -1;
+        }
+        return (recordCount - 1) * header.chunkSize + (lastRecordLength - StreamingEncryption.RECORD_OVERHEAD);
+    }
+
+    long recordOffset(long index) {
+        if (offsets != null) {
+            return offsets[(int) index];
+        }
+        return StreamingEncryption.HEADER_LENGTH + index * fullRecordLength;
+    }
+
+    int recordLength(long index) {
+        if (offsets != null) {
+            return (int) (offsets[(int) index + 1] - offsets[(int) index]);
+        }
+        return (int) (index == recordCount - 1 ? lastRecordLength : fullRecordLength);
+    }
+
+    boolean isLast(long index) {
+        return index == recordCount - 1;
+    }
+
+    /**
+     * Read one record into {@code buffer} with positional reads.
+     *
+     * @return the record length.
+     */
+    int readRecord(FileChannel channel, long index, byte[] buffer) throws IOException {
+        int length = recordLength(index);
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        long position = recordOffset(index);
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position + target.position());
+            if (read < 0) {
+                throw new IOException("Encrypted file is truncated at record " + index + ".");
+            }
+        }
+        if (StreamingEncryption.getInt(buffer, 0) != length - StreamingEncryption.LENGTH_FIELD) {
+            throw new IOException("Encrypted file is corrupt: unexpected length for record " + index + ".");
+        }
+        return length;
+    }
+}
@@ -0,0 +1,579 @@
+package main.commands.encryption;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Segmented, authenticated container format used for file encryption.
+ *
+ * <pre>
+ * header : magic "QBOX" | version (1) | cipher suite (1) | flags (1) | codec (1) | chunk size (4)
+ * record : length (4) | nonce (12) | ciphertext + tag (length - 12)
+ * </pre>
+ *
+ * The header names the {@link CipherSuite} that seals every record.
+ *
+ * When the header names a {@link CompressionCodec}, the sealed payload of every record is a marker
+ * byte ({@code 0} stored, {@code 1} compressed) followed by the chunk, so chunks that do not shrink
+ * are kept as they are. Every non-last record still holds a full chunk of plaintext.
+ *
+ * Every record holds at most one chunk of plaintext and is sealed with its own random nonce. The
+ * header, the record index and a "last record" marker are bound as associated data, so records
+ * cannot be reordered, dropped or truncated without failing authentication.
+ */
+public class StreamingEncryption {
+
+    static final byte[] MAGIC = { 'Q', 'B', 'O', 'X' };
+    static final byte VERSION = 1;
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    static final int HEADER_LENGTH = 12;
+    static final int LENGTH_FIELD = 4;
+    static final int NONCE_LENGTH = 12;
+    static final int TAG_LENGTH = 16;
+    static final int RECORD_OVERHEAD = LENGTH_FIELD + NONCE_LENGTH + TAG_LENGTH;
+
+    static final byte PAYLOAD_STORED = 0;
+    static final byte PAYLOAD_COMPRESSED = 1;
+    // Compression is only enabled if the first chunk shrinks to at most this fraction of its size
+    static final double MAX_COMPRESSED_RATIO = 0.9;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Encrypt a stream using the default chunk size.
+     *
+     * @param in  the plaintext source.
+     * @param out the destination for the encrypted container.
+     * @param key the 256-bit key.
+     * @throws IOException              if reading or writing fails.
+     * @throws GeneralSecurityException if the cipher cannot be initialised.
+     */
+    public static void encrypt(InputStream in, OutputStream out, SecretKey key) throws IOException, GeneralSecurityException {
+        encrypt(in, out, key, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Encrypt a stream chunk by chunk. Only two plaintext buffers and one record buffer are held in
+     * memory, regardless of the stream length.
+     *
+     * @param in        the plaintext source.
+     * @param out       the destination for the encrypted container.
+     * @param key       the 256-bit key.
+     * @param chunkSize the plaintext size of each record.
+     * @throws IOException              if reading or writing fails.
+     * @throws GeneralSecurityException if the cipher cannot be initialised.
+     */
+    public static void encrypt(InputStream in, OutputStream out, SecretKey key, int chunkSize) throws IOException, GeneralSecurityException {
+        encrypt(in, out, key, CipherSuite.AES_256_GCM, chunkSize, null, null);
+    }
+
+    /**
+     * Encrypt a stream, compressing every chunk with {@code codec} first. Compression is skipped
+     * for the whole stream if the first chunk does not compress well (e.g. media or archives).
+     *
+     * @param in        the plaintext source.
+     * @param out       the destination for the encrypted container.
+     * @param key       the 256-bit key.
+     * @param chunkSize the plaintext size of each record.
+     * @param codec     the compression codec, or null to store chunks uncompressed.
+     * @throws IOException              if reading or writing fails.
+     * @throws GeneralSecurityException if the cipher cannot be initialised.
+     */
+    public static void encrypt(InputStream in, OutputStream out, SecretKey key, int chunkSize, CompressionCodec codec) throws IOException, GeneralSecurityException {
+        encrypt(in, out, key, CipherSuite.AES_256_GCM, chunkSize, codec, null);
+    }
+
+    /**
+     * Encrypt a stream with the given cipher suite, which is recorded in the header.
+     *
+     * @param in        the plaintext source.
+     * @param out       the destination for the encrypted container.
+     * @param key       the 256-bit key.
+     * @param suite     the cipher suite to seal records with.
+     * @param chunkSize the plaintext size of each record.
+     * @param codec     the compression codec, or null to store chunks uncompressed.
+     * @throws IOException              if reading or writing fails.
+     * @throws GeneralSecurityException if the cipher cannot be initialised.
+     */
+    public static void encrypt(InputStream in, OutputStream out, SecretKey key, CipherSuite suite, int chunkSize, CompressionCodec codec)
+            throws IOException, GeneralSecurityException {
+        encrypt(in, out, key, suite, chunkSize, codec, null);
+    }
+
+    /**
+     * Encrypt a stream, additionally binding every record to {@code context} (e.g. the path of an
+     * archive entry). The context is not stored; the same bytes must be passed to
+     * {@link #decrypt(InputStream, OutputStream, SecretKey, byte[])}.
+     *
+     * @param in        the plaintext source.
+     * @param out       the destination for the encrypted container.
+     * @param key       the 256-bit key.
+     * @param suite     the cipher suite to seal records with.
+     * @param chunkSize the plaintext size of each record.
+     * @param codec     the compression codec, or null to store chunks uncompressed.
+     * @param context   extra associated data, or null for none.
+     * @throws IOException              if reading or writing fails.
+     * @throws GeneralSecurityException if the cipher cannot be initialised.
+     */
+    static void encrypt(InputStream in, OutputStream out, SecretKey key, CipherSuite suite, int chunkSize, CompressionCodec codec, byte[] context)
+            throws IOException, GeneralSecurityException {
+        byte[] current = new byte[chunkSize];
+        byte[] next = new byte[chunkSize];
+        int length = readFully(in, current, 0, chunkSize);
+        if (codec != null && !worthCompressing(codec, current, length)) {
+            codec = null;
+        }
+
+        Header header = new Header(suite, (byte) 0, codec, chunkSize);
+        byte[] encodedHeader = header.encode();
+        out.write(encodedHeader);
+        byte[] headerBytes = withContext(encodedHeader, context);
+
+        byte[] payload = codec != null ? new byte[header.payloadCapacity()] : null;
+        byte[] record = new byte[header.maxRecordLength()];
+
+        long index = 0;
+        while (true) {
+            // A full chunk is only the last one if nothing follows it, so look one chunk ahead.
+            int nextLength = length == chunkSize ? readFully(in, next, 0, chunkSize) : 0;
+            boolean last = nextLength == 0;
+
+            int recordLength = sealRecord(suite, key, headerBytes, codec, index, last, current, 0, length, payload, record);
+            out.write(record, 0, recordLength);
+
+            if (last) {
+                break;
+            }
+            byte[] swap = current;
+            current = next;
+            next = swap;
+            length = nextLength;
+            index++;
+        }
+        out.flush();
+    }
+
+    /**
+     * Decrypt a stream produced by {@link #encrypt(InputStream, OutputStream, SecretKey, int)}.
+     *
+     * @param in  the encrypted container.
+     * @param out the destination for the plaintext.
+     * @param key the 256-bit key.
+     * @throws IOException              if the container is malformed or truncated.
+     * @throws GeneralSecurityException if a record fails authentication.
+     */
+    public static void decrypt(InputStream in, OutputStream out, SecretKey key) throws IOException, GeneralSecurityException {
+        decrypt(in, out, key, null);
+    }
+
+    /**
+     * Decrypt a stream produced by {@link #encrypt(InputStream, OutputStream, SecretKey, CipherSuite, int, CompressionCodec, byte[])}.
+     *
+     * @param in      the encrypted container.
+     * @param out     the destination for the plaintext.
+     * @param key     the 256-bit key.
+     * @param context the associated data used for encryption, or null for none.
+     * @throws IOException              if the container is malformed or truncated.
+     * @throws GeneralSecurityException if a record fails authentication.
+     */
+    static void decrypt(InputStream in, OutputStream out, SecretKey key, byte[] context) throws IOException, GeneralSecurityException {
+        Header header = Header.read(in);
+        byte[] headerBytes = withContext(header.encode(), context);
+
+        byte[] payload = header.codec != null ? new byte[header.payloadCapacity()] : null;
+        byte[] plain = new byte[header.chunkSize];
+
+        readRecords(in, header, (index, last, record) -> {
+            int plainLength = openRecord(header.suite, key, headerBytes, header, index, last, record, payload, plain);
+            out.write(plain, 0, plainLength);
+        });
+        out.flush();
+    }
+
+    /**
+     * Authenticate every record of a container without producing any output. Compressed payloads
+     * are not inflated; the authentication tag already covers them.
+     *
+     * @param in  the encrypted container.
+     * @param key the 256-bit key.
+     * @return the number of records checked.
+     * @throws IOException              if the container is malformed or truncated, or a record fails authentication.
+     * @throws GeneralSecurityException if the cipher cannot be initialised.
+     */
+    public static long verify(InputStream in, SecretKey key) throws IOException, GeneralSecurityException {
+        Header header = Header.read(in);
+        byte[] headerBytes = header.encode();
+
+        byte[] payload = new byte[header.payloadCapacity()];
+        return readRecords(in, header, (index, last, record) -> {
+            try {
+                openChunk(header.suite, key, headerBytes, index, last, record, 0, payload, 0);
+            } catch (AEADBadTagException e) {
+                throw new IOException("Record " + index + (last ? " (last)" : "") + " failed authentication: the data is corrupt or the key is wrong.", e);
+            }
+        });
+    }
+
+    /**
+     * Re-seal every record of a container under a new key in a single pass. Each record is opened
+     * with the old key and sealed again with the new one; compressed payloads are carried over as
+     * they are. Only one chunk of plaintext is ever held, and only in memory.
+     *
+     * @param in     the encrypted container.
+     * @param out    the destination for the re-encrypted container.
+     * @param oldKey the key the container is encrypted with.
+     * @param newKey the key to encrypt with.
+     * @throws IOException              if the container is malformed or truncated.
+     * @throws GeneralSecurityException if a record fails authentication with the old key.
+     */
+    public static void rekey(InputStream in, OutputStream out, SecretKey oldKey, SecretKey newKey) throws IOException, GeneralSecurityException {
+        Header header = Header.read(in);
+        byte[] headerBytes = header.encode();
+        out.write(headerBytes);
+
+        byte[] payload = new byte[header.payloadCapacity()];
+        try {
+            readRecords(in, header, (index, last, record) -> {
+                int payloadLength = openChunk(header.suite, oldKey, headerBytes, index, last, record, 0, payload, 0);
+                int recordLength = sealChunk(header.suite, newKey, headerBytes, index, last, payload, 0, payloadLength, record, 0);
+                out.write(record, 0, recordLength);
+            });
+        } finally {
+            Arrays.fill(payload, (byte) 0);
+        }
+        out.flush();
+    }
+
+    /**
+     * Read the records following a header one by one, looking one record ahead to find the last.
+     *
+     * @return the number of records read.
+     */
+    private static long readRecords(InputStream in, Header header, RecordHandler handler) throws IOException, GeneralSecurityException {
+        byte[] record = new byte[header.maxRecordLength()];
+        int bodyLength = readRecordLength(in, header);
+        if (bodyLength < 0) {
+            throw new IOException("Encrypted file is truncated: no data records found.");
+        }
+        long index = 0;
+        while (true) {
+            putInt(record, 0, bodyLength);
+            if (readFully(in, record, LENGTH_FIELD, bodyLength) != bodyLength) {
+                throw new IOException("Encrypted file is truncated at record " + index + ".");
+            }
+            int nextLength = readRecordLength(in, header);
+            boolean last = nextLength < 0;
+
+            handler.handle(index, last, record);
+
+            if (last) {
+                return index + 1;
+            }
+            bodyLength = nextLength;
+            index++;
+        }
+    }
+
+    /**
+     * Receives one complete record ({@code length | nonce | ciphertext + tag}).
+     */
+    @FunctionalInterface
+    private interface RecordHandler {
+        void handle(long index, boolean last, byte[] record) throws IOException, GeneralSecurityException;
+    }
+
+    private static byte[] withContext(byte[] headerBytes, byte[] context) {
+        if (context == null || context.length == 0) {
+            return headerBytes;
+        }
+        byte[] combined = Arrays.copyOf(headerBytes, headerBytes.length + context.length);
+        System.arraycopy(context, 0, combined, headerBytes.length, context.length);
+        return combined;
+    }
+
+    /**
+     * Test-compress a sample, usually the first chunk of a file.
+     *
+     * @return true if the sample shrinks enough for compression to pay off.
+     */
+    static boolean worthCompressing(CompressionCodec codec, byte[] sample, int length) {
+        if (length == 0) {
+            return false;
+        }
+        int maxLength = (int) (length * MAX_COMPRESSED_RATIO);
+        return codec.compress(sample, 0, length, new byte[length], 0, maxLength) >= 0;
+    }
+
+    /**
+     * Compress (if {@code codec} is set) and seal one chunk into a record.
+     *
+     * @param payload scratch space of {@link Header#payloadCapacity()} bytes; unused without a codec.
+     * @return the total number of bytes written to {@code record}.
+     */
+    static int sealRecord(CipherSuite suite, SecretKey key, byte[] headerBytes, CompressionCodec codec, long index, boolean last,
+                          byte[] plain, int plainOffset, int plainLength, byte[] payload, byte[] record) throws GeneralSecurityException {
+        if (codec == null) {
+            return sealChunk(suite, key, headerBytes, index, last, plain, plainOffset, plainLength, record, 0);
+        }
+        int compressed = plainLength > 1 ? codec.compress(plain, plainOffset, plainLength, payload, 1, plainLength - 1) : -1;
+        int payloadLength;
+        if (compressed >= 0) {
+            payload[0] = PAYLOAD_COMPRESSED;
+            payloadLength = compressed + 1;
+        } else {
+            payload[0] = PAYLOAD_STORED;
+            System.arraycopy(plain, plainOffset, payload, 1, plainLength);
+            payloadLength = plainLength + 1;
+        }
+        return sealChunk(suite, key, headerBytes, index, last, payload, 0, payloadLength, record, 0);
+    }
+
+    /**
+     * Open one record and decompress it if the container uses a codec.
+     *
+     * @param payload scratch space of {@link Header#payloadCapacity()} bytes; unused without a codec.
+     * @param plain   receives the plaintext; at least {@link Header#chunkSize} bytes.
+     * @return the plaintext length.
+     */
+    static int openRecord(CipherSuite suite, SecretKey key, byte[] headerBytes, Header header, long index, boolean last,
+                          byte[] record, byte[] payload, byte[] plain) throws IOException, GeneralSecurityException {
+        if (header.codec == null) {
+            return openChunk(suite, key, headerBytes, index, last, record, 0, plain, 0);
+        }
+        int payloadLength = openChunk(suite, key, headerBytes, index, last, record, 0, payload, 0);
+        if (payloadLength < 1) {
+            throw new IOException("Encrypted file is corrupt: empty payload in record " + index + ".");
+        }
+        if (payload[0] == PAYLOAD_COMPRESSED) {
+            return header.codec.decompress(payload, 1, payloadLength - 1, plain, 0, header.chunkSize);
+        }
+        if (payload[0] != PAYLOAD_STORED || payloadLength - 1 > header.chunkSize) {
+            throw new IOException("Encrypted file is corrupt: invalid payload in record " + index + ".");
+        }
+        System.arraycopy(payload, 1, plain, 0, payloadLength - 1);
+        return payloadLength - 1;
+    }
+
+    /**
+     * Check whether the given bytes start with the container magic.
+     *
+     * @param prefix the first bytes of a file.
+     * @param length the number of valid bytes in {@code prefix}.
+     * @return true if the bytes look like an encrypted container.
+     */
+    static boolean hasMagic(byte[] prefix, int length) {
+        return length >= MAGIC.length && Arrays.equals(prefix, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * Seal one chunk into a record ({@code length | nonce | ciphertext + tag}).
+     *
+     * @return the total number of bytes written to {@code record}.
+     */
+    static int sealChunk(CipherSuite suite, SecretKey key, byte[] headerBytes, long index, boolean last,
+                         byte[] plain, int plainOffset, int plainLength, byte[] record, int recordOffset)
+            throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        System.arraycopy(nonce, 0, record, recordOffset + LENGTH_FIELD, NONCE_LENGTH);
+
+        Cipher cipher = suite.init(Cipher.ENCRYPT_MODE, key, nonce, 0, NONCE_LENGTH);
+        cipher.updateAAD(associatedData(headerBytes, index, last));
+        int cipherLength = cipher.doFinal(plain, plainOffset, plainLength, record, recordOffset + LENGTH_FIELD + NONCE_LENGTH);
+
+        putInt(record, recordOffset, NONCE_LENGTH + cipherLength);
+        return LENGTH_FIELD + NONCE_LENGTH + cipherLength;
+    }
+
+    /**
+     * Authenticate and decrypt one record.
+     *
+     * @return the number of plaintext bytes written to {@code plain}.
+     */
+    static int openChunk(CipherSuite suite, SecretKey key, byte[] headerBytes, long index, boolean last,
+                         byte[] record, int recordOffset, byte[] plain, int plainOffset)
+            throws GeneralSecurityException {
+        int bodyLength = getInt(record, recordOffset);
+        Cipher cipher = suite.init(Cipher.DECRYPT_MODE, key, record, recordOffset + LENGTH_FIELD, NONCE_LENGTH);
+        cipher.updateAAD(associatedData(headerBytes, index, last));
+        return cipher.doFinal(record, recordOffset + LENGTH_FIELD + NONCE_LENGTH, bodyLength - NONCE_LENGTH, plain, plainOffset);
+    }
+
+    /**
+     * Seal one chunk into {@code record} at its current position, advancing it past the record.
+     * Works with heap, direct and mapped buffers alike.
+     */
+    static void sealChunk(CipherSuite suite, SecretKey key, byte[] headerBytes, long index, boolean last,
+                          ByteBuffer plain, ByteBuffer record) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        int start = record.position();
+        record.position(start + LENGTH_FIELD);
+        record.put(nonce);
+
+        Cipher cipher = suite.init(Cipher.ENCRYPT_MODE, key, nonce, 0, NONCE_LENGTH);
+        cipher.updateAAD(associatedData(headerBytes, index, last));
+        int cipherLength = cipher.doFinal(plain, record);
+
+        record.putInt(start, NONCE_LENGTH + cipherLength);
+    }
+
+    /**
+     * Authenticate and decrypt the record starting at the current position of {@code record}.
+     *
+     * @return the number of plaintext bytes written to {@code plain}.
+     */
+    static int openChunk(CipherSuite suite, SecretKey key, byte[] headerBytes, long index, boolean last,
+                         ByteBuffer record, ByteBuffer plain) throws GeneralSecurityException {
+        int start = record.position();
+        int bodyLength = record.getInt(start);
+        byte[] nonce = new byte[NONCE_LENGTH];
+        record.get(start + LENGTH_FIELD, nonce);
+
+        Cipher cipher = suite.init(Cipher.DECRYPT_MODE, key, nonce, 0, NONCE_LENGTH);
+        cipher.updateAAD(associatedData(headerBytes, index, last));
+        return cipher.doFinal(record.slice(start + LENGTH_FIELD + NONCE_LENGTH, bodyLength - NONCE_LENGTH), plain);
+    }
+
+    private static byte[] associatedData(byte[] headerBytes, long index, boolean last) {
+        byte[] aad = new byte[headerBytes.length + 9];
+        System.arraycopy(headerBytes, 0, aad, 0, headerBytes.length);
+        for (int i = 0; i < 8; i++) {
+            aad[headerBytes.length + i] = (byte) (index >>> (56 - 8 * i));
+        }
+        aad[aad.length - 1] = (byte) (last ? 1 : 0);
+        return aad;
+    }
+
+    /**
+     * Read the length prefix of the next record.
+     *
+     * @return the record body length, or -1 at a clean end of stream.
+     */
+    static int readRecordLength(InputStream in, Header header) throws IOException {
+        byte[] field = new byte[LENGTH_FIELD];
+        int read = readFully(in, field, 0, LENGTH_FIELD);
+        if (read == 0) {
+            return -1;
+        }
+        if (read < LENGTH_FIELD) {
+            throw new IOException("Encrypted file is truncated inside a record header.");
+        }
+        int bodyLength = getInt(field, 0);
+        if (bodyLength < NONCE_LENGTH + TAG_LENGTH || bodyLength > header.maxRecordLength() - LENGTH_FIELD) {
+            throw new IOException("Encrypted file is corrupt: invalid record length " + bodyLength + ".");
+        }
+        return bodyLength;
+    }
+
+    /**
+     * Read until {@code length} bytes are available or the stream ends.
+     *
+     * @return the number of bytes read.
+     */
+    static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    static int getInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24)
+                | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8)
+                | (buffer[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Fixed-size container header.
+     */
+    static final class Header {
+        final CipherSuite suite;
+        final byte flags;
+        final CompressionCodec codec;
+        final int chunkSize;
+
+        Header(CipherSuite suite, byte flags, int chunkSize) {
+            this(suite, flags, null, chunkSize);
+        }
+
+        Header(CipherSuite suite, byte flags, CompressionCodec codec, int chunkSize) {
+            if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+                throw new IllegalArgumentException("Chunk size must be between 1 and " + MAX_CHUNK_SIZE + " bytes.");
+            }
+            this.suite = suite;
+            this.flags = flags;
+            this.codec = codec;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * @return the largest sealed payload: the chunk, plus the marker byte when compressed.
+         */
+        int payloadCapacity() {
+            return codec != null ? chunkSize + 1 : chunkSize;
+        }
+
+        int maxRecordLength() {
+            return payloadCapacity() + RECORD_OVERHEAD;
+        }
+
+        byte[] encode() {
+            byte[] bytes = new byte[HEADER_LENGTH];
+            System.arraycopy(MAGIC, 0, bytes, 0, MAGIC.length);
+            bytes[4] = VERSION;
+            bytes[5] = suite.id();
+            bytes[6] = flags;
+            bytes[7] = codec != null ? codec.id() : CompressionCodec.NONE;
+            putInt(bytes, 8, chunkSize);
+            return bytes;
+        }
+
+        static Header read(InputStream in) throws IOException {
+            byte[] bytes = new byte[HEADER_LENGTH];
+            int read = readFully(in, bytes, 0, HEADER_LENGTH);
+            return decode(bytes, read);
+        }
+
+        static Header decode(byte[] bytes, int length) throws IOException {
+            if (!hasMagic(bytes, length)) {
+                throw new IOException("Not a QBox encrypted file.");
+            }
+            if (length < HEADER_LENGTH) {
+                throw new IOException("Encrypted file is truncated inside the header.");
+            }
+            if (bytes[4] != VERSION) {
+                throw new IOException("Unsupported encrypted file version: " + bytes[4]);
+            }
+            int chunkSize = getInt(bytes, 8);
+            if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+                throw new IOException("Encrypted file is corrupt: invalid chunk size " + chunkSize + ".");
+            }
+            return new Header(CipherSuite.forId(bytes[5]), bytes[6], CompressionCodec.forId(bytes[7]), chunkSize);
+        }
+    }
+}
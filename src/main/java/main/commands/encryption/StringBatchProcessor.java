@@ -0,0 +1,121 @@
+package main.commands.encryption;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+
+/**
+ * Applies a string transformation to newline-delimited records, spreading each batch of records
+ * across a thread pool while writing the results in input order.
+ */
+public class StringBatchProcessor {
+
+    public static final int DEFAULT_BATCH_SIZE = 8192;
+
+    private final UnaryOperator<String> operation;
+    private final int threads;
+    private final int batchSize;
+
+    /**
+     * Create a processor.
+     *
+     * @param operation the transformation applied to every record; must be thread-safe.
+     * @param threads   the number of worker threads.
+     * @param batchSize the number of records read before they are dispatched.
+     */
+    public StringBatchProcessor(UnaryOperator<String> operation, int threads, int batchSize) {
+        this.operation = operation;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Transform every line of {@code in} and write one result line per input line to {@code out}.
+     *
+     * @param in  the newline-delimited records.
+     * @param out the destination; flushed but not closed.
+     * @return the number of records processed.
+     * @throws IOException if reading or writing fails, or a record cannot be transformed.
+     */
+    public long process(BufferedReader in, Writer out) throws IOException {
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        long lineNumber = 0;
+        try {
+            List<String> batch = new ArrayList<>(batchSize);
+            String line;
+            while ((line = in.readLine()) != null) {
+                batch.add(line);
+                if (batch.size() == batchSize) {
+                    writeBatch(transform(batch, lineNumber, executor), out);
+                    lineNumber += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(transform(batch, lineNumber, executor), out);
+                lineNumber += batch.size();
+            }
+            out.flush();
+            return lineNumber;
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private String[] transform(List<String> batch, long firstLine, ExecutorService executor) throws IOException {
+        String[] results = new String[batch.size()];
+        if (executor == null) {
+            transformSlice(batch, results, 0, batch.size(), firstLine);
+            return results;
+        }
+
+        int sliceSize = (batch.size() + threads - 1) / threads;
+        List<Future<?>> slices = new ArrayList<>(threads);
+        for (int from = 0; from < batch.size(); from += sliceSize) {
+            int start = from;
+            int end = Math.min(batch.size(), from + sliceSize);
+            slices.add(executor.submit(() -> {
+                transformSlice(batch, results, start, end, firstLine);
+                return null;
+            }));
+        }
+        for (Future<?> slice : slices) {
+            try {
+                slice.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while processing records.", e);
+            }
+        }
+        return results;
+    }
+
+    private void transformSlice(List<String> batch, String[] results, int start, int end, long firstLine) throws IOException {
+        for (int i = start; i < end; i++) {
+            try {
+                results[i] = operation.apply(batch.get(i));
+            } catch (RuntimeException e) {
+                String detail = e.getCause() != null ? e.getCause().getMessage() : null;
+                throw new IOException("Line " + (firstLine + i + 1) + ": " + e.getMessage() + (detail != null ? " (" + detail + ")" : ""), e);
+            }
+        }
+    }
+
+    private static void writeBatch(String[] results, Writer out) throws IOException {
+        for (String result : results) {
+            out.write(result);
+            out.write('\n');
+        }
+    }
+}
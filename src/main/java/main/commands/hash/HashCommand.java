@@ -0,0 +1,184 @@
+package main.commands.hash;
+
+import main.commands.encryption.ChangeManifest;
+import main.commands.encryption.FileWalker;
+import main.commands.encryption.JobJournal;
+import main.commands.encryption.ParallelFileProcessor;
+import main.commands.util.AtomicFiles;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Command(
+    name = "hash",
+    mixinStandardHelpOptions = true,
+    description = "Compute checksums of every file in a folder in parallel, write or check a manifest.",
+    subcommands = {
+        HashCommand.ExamplesCommand.class
+    }
+)
+public class HashCommand implements Callable<Integer> {
+
+    @Option(names = { "-i", "--input-folder" }, description = "Path to the folder or file to hash.", required = true)
+    private String inputFolder;
+
+    @Option(names = { "-a", "--algorithm" }, defaultValue = "SHA256", description = "Checksum: SHA256 or CRC32C (faster, not cryptographic). Default: ${DEFAULT-VALUE}.")
+    private FileHasher.Algorithm algorithm;
+
+    @Option(names = {
+            "--recursive" }, defaultValue = "true", description = "Process files in subdirectories (default: true).")
+    private boolean recursive;
+
+    @Option(names = { "--filter" }, description = "Filter files by extension (e.g., '*.txt'). Files must match it and any --include patterns.")
+    private String filter;
+
+    @Option(names = { "--include" }, split = ",", description = "Glob patterns of files to hash (e.g., '*.log,reports/**/*.csv'). Patterns without '/' match the file name.")
+    private List<String> includes = new ArrayList<>();
+
+    @Option(names = { "--exclude" }, split = ",", description = "Glob patterns of files or directories to skip (e.g., '*.tmp,.git').")
+    private List<String> excludes = new ArrayList<>();
+
+    @Option(names = { "-t",
+            "--threads" }, defaultValue = "0", description = "Number of files to hash in parallel (default: all CPU cores).")
+    private int threads;
+
+    @Option(names = { "-o", "--output" }, description = "Write a manifest (size, modification time, SHA-256 and path per file) that 'encryption file --incremental --hashes' can use.")
+    private String output;
+
+    @Option(names = { "--check" }, paramLabel = "MANIFEST", description = "Compare the files against a manifest and report changed, new and missing ones.")
+    private String check;
+
+    @Option(names = { "-c", "--clean" }, description = "Output only the checksum lines, without the summary.")
+    private boolean cleanOutput;
+
+    @Override
+    public Integer call() {
+        try {
+            Path input = Path.of(inputFolder);
+            if (!Files.exists(input)) {
+                throw new IllegalArgumentException("Input folder or file does not exist: " + inputFolder);
+            }
+            if ((output != null || check != null) && algorithm != FileHasher.Algorithm.SHA256) {
+                throw new IllegalArgumentException("Manifests record SHA-256; --output and --check require --algorithm SHA256.");
+            }
+
+            if (Files.isRegularFile(input)) {
+                System.out.printf("%s  %s%n", FileHasher.hash(input, algorithm), input.getFileName());
+                return 0;
+            }
+
+            Map<String, String> hashes = new ConcurrentHashMap<>();
+            ChangeManifest manifest = new ChangeManifest();
+            ParallelFileProcessor processor = hashFolder(input, hashes, manifest);
+
+            if (check != null) {
+                return checkManifest(ChangeManifest.load(Path.of(check)), hashes) && processor.getFilesFailed() == 0 ? 0 : 1;
+            }
+            for (Map.Entry<String, String> entry : new TreeMap<>(hashes).entrySet()) {
+                System.out.printf("%s  %s%n", entry.getValue(), entry.getKey());
+            }
+            if (output != null) {
+                manifest.save(Path.of(output));
+            }
+            if (!cleanOutput) {
+                processor.printSummary("Hashed");
+            }
+            return processor.getFilesFailed() == 0 ? 0 : 1;
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private ParallelFileProcessor hashFolder(Path folder, Map<String, String> hashes, ChangeManifest manifest) throws Exception {
+        // A manifest stored in the folder never lists itself
+        Path outputPath = output != null ? Path.of(output).toAbsolutePath().normalize() : null;
+        Path checkPath = check != null ? Path.of(check).toAbsolutePath().normalize() : null;
+        ParallelFileProcessor processor = new ParallelFileProcessor(threads);
+
+        new FileWalker(recursive, includes, excludes).filter(filter).walk(folder, (path, attributes) -> {
+            String name = path.getFileName().toString();
+            if (AtomicFiles.isTempFile(path) || name.equals(ChangeManifest.FILE_NAME) || name.equals(JobJournal.FILE_NAME)
+                    || path.toAbsolutePath().normalize().equals(outputPath) || path.toAbsolutePath().normalize().equals(checkPath)) {
+                return;
+            }
+            String relativePath = folder.relativize(path).toString().replace(File.separatorChar, '/');
+            processor.submit(path.toFile(), () -> {
+                String hash = FileHasher.hash(path, algorithm);
+                hashes.put(relativePath, hash);
+                manifest.put(relativePath, new ChangeManifest.Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), hash));
+                return attributes.size();
+            });
+        });
+        processor.awaitCompletion();
+        return processor;
+    }
+
+    /**
+     * Report every difference between the hashed files and a manifest. Only the content hash is
+     * compared, so a tree restored with new timestamps (e.g. decrypted) still matches.
+     *
+     * @return true if the files match the manifest exactly.
+     */
+    private boolean checkManifest(ChangeManifest manifest, Map<String, String> hashes) {
+        int changed = 0;
+        int added = 0;
+        for (Map.Entry<String, String> entry : new TreeMap<>(hashes).entrySet()) {
+            ChangeManifest.Entry expected = manifest.get(entry.getKey());
+            if (expected == null) {
+                System.out.printf("NEW: %s%n", entry.getKey());
+                added++;
+            } else if (!expected.sha256.equals(entry.getValue())) {
+                System.out.printf("CHANGED: %s%n", entry.getKey());
+                changed++;
+            }
+        }
+        TreeSet<String> missing = new TreeSet<>(manifest.paths());
+        missing.removeAll(hashes.keySet());
+        for (String path : missing) {
+            System.out.printf("MISSING: %s%n", path);
+        }
+
+        if (!cleanOutput) {
+            System.out.printf("%d files checked: %d unchanged, %d changed, %d new, %d missing.%n",
+                    hashes.size(), hashes.size() - changed - added, changed, added, missing.size());
+        }
+        return changed == 0 && added == 0 && missing.isEmpty();
+    }
+
+    // Subcommand for examples
+    @Command(name = "examples", description = "Show usage examples for the hash tool.")
+    static class ExamplesCommand implements Runnable {
+        @Override
+        public void run() {
+            System.out.println("\n=== Hash Tool Usage Examples ===\n");
+
+            System.out.println("1. List the SHA-256 of every file in a folder (sha256sum format):");
+            System.out.println("   $ qbox hash --input-folder ./test_folder");
+            System.out.println();
+
+            System.out.println("2. Quick corruption check with the faster CRC32C:");
+            System.out.println("   $ qbox hash --input-folder ./test_folder --algorithm CRC32C --clean");
+            System.out.println();
+
+            System.out.println("3. Record a manifest before encrypting and check the decrypted tree against it:");
+            System.out.println("   $ qbox hash --input-folder ./test_folder --output ./test_folder.manifest");
+            System.out.println("   $ qbox hash --input-folder ./decrypted_folder --check ./test_folder.manifest");
+            System.out.println();
+
+            System.out.println("4. Let incremental encryption reuse the manifest instead of reading the files again:");
+            System.out.println("   $ qbox encryption file --encrypt --input-folder ./test_folder --key YOUR_BASE64_KEY --replace=false --output-folder ./encrypted_folder/ --incremental --hashes ./test_folder.manifest");
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package main.commands.sqlite;
+
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteOpenMode;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent read-only queries concurrently on a pool of connections to the same database.
+ * Every connection is opened read-only with {@code query_only} set and a shared memory map of the
+ * file, so the connections read the same page cache instead of copying pages into private caches.
+ *
+ * <p>In WAL mode readers never wait for each other or for a writer; in rollback-journal mode they
+ * still run in parallel but wait while another process writes.
+ */
+public class BatchQueryRunner {
+
+    static final long DEFAULT_MMAP_SIZE = 256L * 1024 * 1024;
+    static final String TAG_FIELD = "_query";
+    private static final int STREAM_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * The outcome of one query.
+     */
+    public static final class QueryResult {
+        public final int index;
+        public final long line;
+        public final String sql;
+        public final long rows;
+        public final long elapsedNanos;
+        public final String error;
+
+        QueryResult(int index, long line, String sql, long rows, long elapsedNanos, String error) {
+            this.index = index;
+            this.line = line;
+            this.sql = sql;
+            this.rows = rows;
+            this.elapsedNanos = elapsedNanos;
+            this.error = error;
+        }
+    }
+
+    private static final class Query {
+        final int index;
+        final long line;
+        final String sql;
+
+        Query(int index, long line, String sql) {
+            this.index = index;
+            this.line = line;
+            this.sql = sql;
+        }
+    }
+
+    private final String dbFile;
+    private final int parallel;
+    private long mmapSize = DEFAULT_MMAP_SIZE;
+
+    /**
+     * @param dbFile   the database.
+     * @param parallel the number of connections and queries running at once.
+     */
+    public BatchQueryRunner(String dbFile, int parallel) {
+        if (parallel < 1) {
+            throw new IllegalArgumentException("--parallel must be at least 1.");
+        }
+        this.dbFile = dbFile;
+        this.parallel = parallel;
+    }
+
+    /**
+     * @param mmapSize the number of bytes of the database file each connection maps.
+     */
+    public BatchQueryRunner mmapSize(long mmapSize) {
+        this.mmapSize = mmapSize;
+        return this;
+    }
+
+    /**
+     * Switch the database to WAL mode, which needs one write; WAL mode persists in the file.
+     *
+     * @param dbFile the database.
+     * @return the previous journal mode.
+     * @throws SQLException if the database cannot be switched.
+     */
+    public static String enableWal(String dbFile) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+             Statement stmt = conn.createStatement()) {
+            String previous = journalMode(stmt);
+            stmt.execute("PRAGMA journal_mode = WAL");
+            return previous;
+        }
+    }
+
+    /**
+     * @param dbFile the database.
+     * @return the journal mode of the database, e.g. {@code wal} or {@code delete}.
+     * @throws SQLException if the database cannot be opened.
+     */
+    public static String journalMode(String dbFile) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+             Statement stmt = conn.createStatement()) {
+            return journalMode(stmt);
+        }
+    }
+
+    private static String journalMode(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+            return rs.next() ? rs.getString(1).toLowerCase(Locale.ROOT) : "";
+        }
+    }
+
+    /**
+     * Read the queries of a script, one per statement.
+     *
+     * @param script the script; it is closed.
+     * @return the queries in script order.
+     * @throws IOException if the script cannot be read.
+     */
+    private static List<Query> readQueries(InputStream script) throws IOException {
+        List<Query> queries = new ArrayList<>();
+        try (SqlStatementReader reader = new SqlStatementReader(script)) {
+            String sql;
+            while ((sql = reader.next()) != null) {
+                queries.add(new Query(queries.size() + 1, reader.line(), sql));
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Run every query of a script and write each result to its own file.
+     *
+     * @param script    the queries.
+     * @param outputDir the folder the results are written to, as {@code query-001.csv} etc.
+     * @param format    the format of the result files.
+     * @return the outcome of every query, in script order.
+     * @throws Exception if the script cannot be read or the connections cannot be opened.
+     */
+    public List<QueryResult> runToFiles(InputStream script, Path outputDir, ResultRenderer.Format format) throws Exception {
+        List<Query> queries = readQueries(script);
+        Files.createDirectories(outputDir);
+        String extension = format.extension();
+        int width = Math.max(3, String.valueOf(queries.size()).length());
+
+        return run(queries, (query, rs) -> {
+            Path file = outputDir.resolve(String.format("query-%0" + width + "d.%s", query.index, extension));
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), STREAM_CHUNK_SIZE)) {
+                return ResultRenderer.render(rs, format, true, out);
+            }
+        });
+    }
+
+    /**
+     * Run every query of a script and write all rows to one NDJSON stream. Each row gets a
+     * {@value #TAG_FIELD} field with the number of its query; rows of different queries interleave,
+     * but lines are never split.
+     *
+     * @param script the queries.
+     * @param out    the combined stream.
+     * @return the outcome of every query, in script order.
+     * @throws Exception if the script cannot be read or the connections cannot be opened.
+     */
+    public List<QueryResult> runToStream(InputStream script, OutputStream out) throws Exception {
+        List<Query> queries = readQueries(script);
+        List<QueryResult> results = run(queries, (query, rs) -> {
+            try (LineBatchingOutputStream lines = new LineBatchingOutputStream(out)) {
+                return ResultRenderer.renderTagged(rs, TAG_FIELD, query.index, lines);
+            }
+        });
+        out.flush();
+        return results;
+    }
+
+    @FunctionalInterface
+    private interface ResultWriter {
+        long write(Query query, ResultSet rs) throws Exception;
+    }
+
+    private List<QueryResult> run(List<Query> queries, ResultWriter writer) throws Exception {
+        int connections = Math.max(1, Math.min(parallel, queries.size()));
+        BlockingQueue<Connection> pool = new ArrayBlockingQueue<>(connections);
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                pool.add(openReadOnly());
+            }
+
+            List<Future<QueryResult>> futures = new ArrayList<>();
+            for (Query query : queries) {
+                futures.add(executor.submit(() -> {
+                    Connection conn = pool.take();
+                    long start = System.nanoTime();
+                    try (Statement stmt = conn.createStatement()) {
+                        long rows;
+                        if (stmt.execute(query.sql)) {
+                            try (ResultSet rs = stmt.getResultSet()) {
+                                rows = writer.write(query, rs);
+                            }
+                        } else {
+                            rows = Math.max(stmt.getUpdateCount(), 0);
+                        }
+                        return new QueryResult(query.index, query.line, query.sql, rows, System.nanoTime() - start, null);
+                    } catch (Exception e) {
+                        return new QueryResult(query.index, query.line, query.sql, 0, System.nanoTime() - start, e.getMessage());
+                    } finally {
+                        pool.put(conn);
+                    }
+                }));
+            }
+
+            List<QueryResult> results = new ArrayList<>();
+            for (Future<QueryResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Query worker failed", e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+            for (Connection conn : pool) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    // closing a read-only connection cannot lose data
+                }
+            }
+        }
+    }
+
+    private Connection openReadOnly() throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        // Each connection is used by one thread at a time, so SQLite's own locking is not needed
+        config.setOpenMode(SQLiteOpenMode.NOMUTEX);
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(mmapSize));
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile, config.toProperties());
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA query_only = ON");
+        }
+        return conn;
+    }
+
+    /**
+     * Collects complete lines and writes them to a shared stream in large chunks, holding the
+     * stream's lock only while writing, so concurrent writers never split each other's lines.
+     */
+    private static final class LineBatchingOutputStream extends OutputStream {
+        private final OutputStream target;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(STREAM_CHUNK_SIZE + 1024);
+        private int lastNewline = -1;
+
+        LineBatchingOutputStream(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            buffer.write(b);
+            if (b == '\n') {
+                lastNewline = buffer.size() - 1;
+                if (buffer.size() >= STREAM_CHUNK_SIZE) {
+                    flushLines();
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = len - 1; i >= 0; i--) {
+                if (b[off + i] == '\n') {
+                    lastNewline = buffer.size() + i;
+                    break;
+                }
+            }
+            buffer.write(b, off, len);
+            if (buffer.size() >= STREAM_CHUNK_SIZE && lastNewline >= 0) {
+                flushLines();
+            }
+        }
+
+        private void flushLines() throws IOException {
+            byte[] bytes = buffer.toByteArray();
+            int complete = lastNewline + 1;
+            synchronized (target) {
+                target.write(bytes, 0, complete);
+            }
+            buffer.reset();
+            buffer.write(bytes, complete, bytes.length - complete);
+            lastNewline = -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (lastNewline >= 0) {
+                flushLines();
+            }
+        }
+    }
+}
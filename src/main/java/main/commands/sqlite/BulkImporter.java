@@ -0,0 +1,578 @@
+package main.commands.sqlite;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Loads CSV, TSV, JSON or NDJSON rows into a table. Rows are streamed from the input and inserted
+ * through one reused prepared statement in JDBC batches, inside large transactions, with the
+ * durability PRAGMAs relaxed for the duration of the load and restored afterwards.
+ *
+ * <p>If the table does not exist it is created, with a column type inferred from the first
+ * {@value #SAMPLE_ROWS} rows for every input column.
+ */
+public class BulkImporter {
+
+    static final int SAMPLE_ROWS = 1000;
+    static final int DEFAULT_BATCH_SIZE = 10_000;
+    static final int ROWS_PER_STATEMENT = 64;
+    // SQLITE_MAX_VARIABLE_NUMBER of SQLite 3.32 and later
+    static final int MAX_VARIABLES = 32766;
+    // Negative cache_size is in KiB: 256 MiB of page cache while loading
+    static final String LOAD_CACHE_SIZE = "-262144";
+    // A decimal with a fraction or exponent and no leading zeros, e.g. 2.5, -0.75 or 1e-3
+    private static final Pattern REAL = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+([eE][-+]?[0-9]+)?|[eE][-+]?[0-9]+)");
+
+    /**
+     * The outcome of an import.
+     */
+    public static final class Result {
+        public final long rows;
+        public final boolean tableCreated;
+        public final long elapsedNanos;
+
+        Result(long rows, boolean tableCreated, long elapsedNanos) {
+            this.rows = rows;
+            this.tableCreated = tableCreated;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return the number of rows inserted per second.
+         */
+        public double rowsPerSecond() {
+            return rows / Math.max(elapsedNanos / 1e9, 1e-9);
+        }
+    }
+
+    private final Connection conn;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long commitEvery;
+    private boolean header = true;
+
+    /**
+     * Create an importer. The connection must be in auto-commit mode and is returned in it.
+     *
+     * @param conn the database connection.
+     */
+    public BulkImporter(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * @param batchSize the number of rows sent to the database per {@code executeBatch}.
+     */
+    public BulkImporter batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param commitEvery the number of rows per transaction; 0 to load everything in one transaction.
+     */
+    public BulkImporter commitEvery(long commitEvery) {
+        this.commitEvery = commitEvery;
+        return this;
+    }
+
+    /**
+     * @param header whether the first CSV/TSV line holds the column names. Without a header the
+     *               values are assigned to the table's columns in order, or to {@code c1, c2, ...}.
+     */
+    public BulkImporter header(boolean header) {
+        this.header = header;
+        return this;
+    }
+
+    /**
+     * Import every row of the input into a table.
+     *
+     * @param in     the data; it is read to the end but not closed.
+     * @param format {@link ResultRenderer.Format#CSV}, {@code TSV}, {@code JSON} or {@code NDJSON}.
+     * @param table  the table, created if it does not exist.
+     * @return the number of rows imported and the time taken.
+     * @throws SQLException if an insert fails; rows of the failed transaction are rolled back.
+     * @throws IOException  if the input cannot be read or parsed.
+     */
+    public Result importRows(InputStream in, ResultRenderer.Format format, String table) throws SQLException, IOException {
+        long start = System.nanoTime();
+        List<String> tableColumns = tableColumns(table);
+
+        try (RowReader reader = new PrefetchingReader(open(in, format, tableColumns))) {
+            // Buffer a sample first: it decides the column types of a new table
+            List<Object[]> sample = new ArrayList<>();
+            Object[] row;
+            while (sample.size() < SAMPLE_ROWS && (row = reader.next()) != null) {
+                sample.add(row);
+            }
+            List<String> columns = reader.columns();
+            if (columns.isEmpty()) {
+                throw new IOException("The input has no columns.");
+            }
+
+            boolean created = tableColumns.isEmpty();
+            Map<String, String> saved = applyLoadPragmas();
+            try {
+                conn.setAutoCommit(false);
+                if (created) {
+                    createTable(table, columns, sample);
+                }
+                long rows = insert(table, columns, sample, reader);
+                conn.commit();
+                return new Result(rows, created, System.nanoTime() - start);
+            } catch (SQLException | IOException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+                restorePragmas(saved);
+            }
+        }
+    }
+
+    private long insert(String table, List<String> columns, List<Object[]> sample, RowReader reader) throws SQLException, IOException {
+        // Several rows per statement cut the per-row step and reset calls into the driver
+        int rowsPerStatement = Math.max(1, Math.min(ROWS_PER_STATEMENT, MAX_VARIABLES / columns.size()));
+        int statementsPerBatch = Math.max(1, batchSize / rowsPerStatement);
+        long rows = 0;
+        long committed = 0;
+        try (PreparedStatement insert = conn.prepareStatement(insertSql(table, columns, rowsPerStatement));
+             PreparedStatement insertOne = conn.prepareStatement(insertSql(table, columns, 1))) {
+            Object[][] block = new Object[rowsPerStatement][];
+            int blockRows = 0;
+            int pending = 0;
+            int sampleIndex = 0;
+            Object[] row;
+            while ((row = sampleIndex < sample.size() ? sample.get(sampleIndex++) : reader.next()) != null) {
+                block[blockRows++] = row;
+                if (blockRows < rowsPerStatement) {
+                    continue;
+                }
+                bind(insert, block, blockRows, columns.size());
+                insert.addBatch();
+                rows += blockRows;
+                blockRows = 0;
+                if (++pending == statementsPerBatch) {
+                    insert.executeBatch();
+                    pending = 0;
+                }
+                if (commitEvery > 0 && rows - committed >= commitEvery) {
+                    if (pending > 0) {
+                        insert.executeBatch();
+                        pending = 0;
+                    }
+                    conn.commit();
+                    committed = rows;
+                }
+            }
+            if (pending > 0) {
+                insert.executeBatch();
+            }
+            for (int i = 0; i < blockRows; i++) {
+                bind(insertOne, new Object[][] { block[i] }, 1, columns.size());
+                insertOne.addBatch();
+            }
+            if (blockRows > 0) {
+                insertOne.executeBatch();
+                rows += blockRows;
+            }
+        }
+        return rows;
+    }
+
+    private static void bind(PreparedStatement insert, Object[][] block, int blockRows, int columnCount) throws SQLException {
+        int parameter = 1;
+        for (int r = 0; r < blockRows; r++) {
+            Object[] row = block[r];
+            for (int i = 0; i < columnCount; i++) {
+                insert.setObject(parameter++, i < row.length ? row[i] : null);
+            }
+        }
+    }
+
+    private static String insertSql(String table, List<String> columns, int rows) {
+        String values = "(" + "?, ".repeat(columns.size() - 1) + "?)";
+        return "INSERT INTO " + quote(table) + " (" + columns.stream().map(BulkImporter::quote).collect(Collectors.joining(", "))
+                + ") VALUES " + (values + ", ").repeat(rows - 1) + values;
+    }
+
+    private List<String> tableColumns(String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        DatabaseMetaData metaData = conn.getMetaData();
+        try (ResultSet rs = metaData.getColumns(null, null, table, null)) {
+            while (rs.next()) {
+                columns.add(rs.getString("COLUMN_NAME"));
+            }
+        }
+        return columns;
+    }
+
+    private void createTable(String table, List<String> columns, List<Object[]> sample) throws SQLException {
+        List<String> definitions = new ArrayList<>();
+        for (int i = 0; i < columns.size(); i++) {
+            definitions.add(quote(columns.get(i)) + " " + inferType(sample, i));
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE " + quote(table) + " (" + String.join(", ", definitions) + ")");
+        }
+    }
+
+    /**
+     * @return INTEGER or REAL if every non-null sample value of the column is one, otherwise TEXT.
+     */
+    static String inferType(List<Object[]> sample, int column) {
+        boolean seen = false;
+        boolean integer = true;
+        for (Object[] row : sample) {
+            Object value = column < row.length ? row[column] : null;
+            if (value == null) {
+                continue;
+            }
+            seen = true;
+            if (isInteger(value)) {
+                continue;
+            }
+            integer = false;
+            if (!isReal(value)) {
+                return "TEXT";
+            }
+        }
+        return !seen ? "TEXT" : integer ? "INTEGER" : "REAL";
+    }
+
+    private static boolean isInteger(Object value) {
+        if (value instanceof Long) {
+            return true;
+        }
+        try {
+            return value instanceof String text && Long.toString(Long.parseLong(text)).equals(text);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isReal(Object value) {
+        if (value instanceof Double) {
+            return true;
+        }
+        // Only decimal notation SQLite reads back as the same number; Double.parseDouble would also
+        // accept " 12", "1f" or "0x1p3", and integers such as "01234" that must stay TEXT
+        return value instanceof String text && REAL.matcher(text).matches() && Double.isFinite(Double.parseDouble(text));
+    }
+
+    private Map<String, String> applyLoadPragmas() throws SQLException {
+        Map<String, String> saved = new HashMap<>();
+        try (Statement stmt = conn.createStatement()) {
+            for (String pragma : List.of("journal_mode", "synchronous", "cache_size")) {
+                try (ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+                    saved.put(pragma, rs.next() ? rs.getString(1) : null);
+                }
+            }
+            // A rollback journal in memory still allows the load to be rolled back on errors
+            stmt.execute("PRAGMA journal_mode = MEMORY");
+            stmt.execute("PRAGMA synchronous = OFF");
+            stmt.execute("PRAGMA cache_size = " + LOAD_CACHE_SIZE);
+        }
+        return saved;
+    }
+
+    private void restorePragmas(Map<String, String> saved) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (Map.Entry<String, String> pragma : saved.entrySet()) {
+                if (pragma.getValue() != null) {
+                    stmt.execute("PRAGMA " + pragma.getKey() + " = " + pragma.getValue());
+                }
+            }
+        }
+    }
+
+    static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    private RowReader open(InputStream in, ResultRenderer.Format format, List<String> tableColumns) throws IOException {
+        return switch (format) {
+            case CSV -> new DelimitedRows(in, ',', header, tableColumns);
+            case TSV -> new DelimitedRows(in, '\t', header, tableColumns);
+            case JSON, NDJSON -> new JsonRows(in);
+            default -> throw new IllegalArgumentException("Cannot import " + format.name().toLowerCase(Locale.ROOT) + "; use csv, tsv, json or ndjson.");
+        };
+    }
+
+    /**
+     * A stream of rows; the values are Strings, Longs, Doubles or null.
+     */
+    private interface RowReader extends Closeable {
+        /**
+         * @return the next row, or null at the end of the input.
+         */
+        Object[] next() throws IOException;
+
+        /**
+         * @return the column names, known once the first row has been read.
+         */
+        List<String> columns();
+    }
+
+    /**
+     * Parses rows on a separate thread, in blocks handed over through a small queue, so parsing the
+     * input overlaps with inserting into the database.
+     */
+    private static final class PrefetchingReader implements RowReader {
+        private static final int BLOCK_ROWS = 1024;
+        private static final List<Object[]> END = List.of();
+
+        private final RowReader source;
+        private final BlockingQueue<List<Object[]>> blocks = new ArrayBlockingQueue<>(16);
+        private final Thread parser;
+        private volatile Exception failure;
+        private List<Object[]> block = new ArrayList<>();
+        private int position;
+
+        PrefetchingReader(RowReader source) {
+            this.source = source;
+            this.parser = new Thread(this::parse, "qbox-import-parser");
+            parser.setDaemon(true);
+            parser.start();
+        }
+
+        private void parse() {
+            try {
+                List<Object[]> rows = new ArrayList<>(BLOCK_ROWS);
+                Object[] row;
+                while ((row = source.next()) != null) {
+                    rows.add(row);
+                    if (rows.size() == BLOCK_ROWS) {
+                        blocks.put(rows);
+                        rows = new ArrayList<>(BLOCK_ROWS);
+                    }
+                }
+                if (!rows.isEmpty()) {
+                    blocks.put(rows);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                failure = e;
+            }
+            try {
+                blocks.put(END);
+            } catch (InterruptedException e) {
+                // closed by the consumer
+            }
+        }
+
+        @Override
+        public Object[] next() throws IOException {
+            while (position == block.size()) {
+                if (block == END) {
+                    return null;
+                }
+                try {
+                    block = blocks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading the input.", e);
+                }
+                position = 0;
+                if (block == END && failure != null) {
+                    throw failure instanceof IOException io ? io : new IOException(failure.getMessage(), failure);
+                }
+            }
+            return block.get(position++);
+        }
+
+        @Override
+        public List<String> columns() {
+            return source.columns();
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.interrupt();
+            source.close();
+        }
+    }
+
+    /**
+     * CSV or TSV through Jackson's CSV parser; empty fields become NULL. TSV has no quoting and uses
+     * the backslash escapes written by {@link ResultRenderer}.
+     */
+    private static final class DelimitedRows implements RowReader {
+        private final MappingIterator<String[]> rows;
+        private final boolean tsv;
+        private List<String> columns;
+        private long record;
+
+        DelimitedRows(InputStream in, char separator, boolean header, List<String> tableColumns) throws IOException {
+            CsvMapper mapper = new CsvMapper();
+            mapper.enable(CsvParser.Feature.WRAP_AS_ARRAY);
+            CsvSchema schema = CsvSchema.emptySchema().withColumnSeparator(separator);
+            tsv = separator == '\t';
+            if (tsv) {
+                schema = schema.withoutQuoteChar();
+            }
+            rows = mapper.readerFor(String[].class).with(schema).readValues(in);
+            if (header) {
+                columns = rows.hasNextValue() ? List.of(rows.nextValue()) : List.of();
+            } else if (!tableColumns.isEmpty()) {
+                columns = tableColumns;
+            }
+        }
+
+        @Override
+        public Object[] next() throws IOException {
+            if (!rows.hasNextValue()) {
+                return null;
+            }
+            String[] values = rows.nextValue();
+            if (columns == null) {
+                columns = new ArrayList<>();
+                for (int i = 1; i <= values.length; i++) {
+                    columns.add("c" + i);
+                }
+            }
+            record++;
+            if (values.length > columns.size()) {
+                throw new IOException(String.format("Row %d has %d fields but there are %d columns.",
+                        record, values.length, columns.size()));
+            }
+            Object[] row = new Object[values.length];
+            for (int i = 0; i < values.length; i++) {
+                String value = values[i];
+                row[i] = value.isEmpty() ? null : tsv && value.indexOf('\\') >= 0 ? unescape(value) : value;
+            }
+            return row;
+        }
+
+        @Override
+        public List<String> columns() {
+            return columns != null ? columns : List.of();
+        }
+
+        private static String unescape(String value) {
+            StringBuilder text = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' && i + 1 < value.length()) {
+                    char escaped = value.charAt(++i);
+                    text.append(switch (escaped) {
+                        case 't' -> '\t';
+                        case 'n' -> '\n';
+                        case 'r' -> '\r';
+                        default -> escaped;
+                    });
+                } else {
+                    text.append(c);
+                }
+            }
+            return text.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            rows.close();
+        }
+    }
+
+    /**
+     * A JSON array of objects, or one object per line. The first object names the columns; nested
+     * objects and arrays are stored as JSON text.
+     */
+    private static final class JsonRows implements RowReader {
+        private final JsonParser parser;
+        private final List<String> columns = new ArrayList<>();
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private boolean tokenPending;
+
+        JsonRows(InputStream in) throws IOException {
+            parser = new ObjectMapper().getFactory().createParser(in);
+            // A JSON array is unwrapped; for NDJSON the first object's token is already current
+            tokenPending = parser.nextToken() != JsonToken.START_ARRAY;
+        }
+
+        @Override
+        public Object[] next() throws IOException {
+            JsonToken token = tokenPending ? parser.currentToken() : parser.nextToken();
+            tokenPending = false;
+            if (token == null || token == JsonToken.END_ARRAY) {
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException(String.format("Expected a JSON object at line %d.", parser.currentLocation().getLineNr()));
+            }
+
+            boolean defining = columns.isEmpty();
+            List<Object> values = new ArrayList<>(Math.max(columns.size(), 8));
+            for (int i = 0; i < columns.size(); i++) {
+                values.add(null);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken valueToken = parser.nextToken();
+                Integer index = indexes.get(name);
+                if (index == null) {
+                    if (!defining) {
+                        throw new IOException(String.format("Unknown column '%s' at line %d; the first object defines the columns.",
+                                name, parser.currentLocation().getLineNr()));
+                    }
+                    index = columns.size();
+                    columns.add(name);
+                    indexes.put(name, index);
+                    values.add(null);
+                }
+                values.set(index, value(valueToken));
+            }
+            return values.toArray();
+        }
+
+        private Object value(JsonToken token) throws IOException {
+            return switch (token) {
+                case VALUE_NULL -> null;
+                case VALUE_TRUE -> 1L;
+                case VALUE_FALSE -> 0L;
+                case VALUE_NUMBER_INT -> parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER ? parser.getText() : parser.getLongValue();
+                case VALUE_NUMBER_FLOAT -> parser.getDoubleValue();
+                case START_OBJECT, START_ARRAY -> parser.readValueAsTree().toString();
+                default -> parser.getText();
+            };
+        }
+
+        @Override
+        public List<String> columns() {
+            return columns;
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package main.commands.sqlite;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A named set of PRAGMA settings applied to a connection right after it is opened, e.g.
+ * {@code journal_mode=WAL,synchronous=NORMAL}. Profiles are either built in, or written inline as
+ * {@code name=value} pairs separated by commas or semicolons.
+ *
+ * <p>{@code page_size} only takes effect on a new, empty database, and {@code journal_mode=WAL} is
+ * stored in the file; every other setting lasts for the connection only.
+ */
+public final class PragmaProfile {
+
+    private static final Map<String, String> BUILT_IN = new LinkedHashMap<>();
+    private static final Pattern NAME = Pattern.compile("[a-z_]+");
+    private static final Pattern VALUE = Pattern.compile("-?[A-Za-z0-9_]+");
+
+    static {
+        BUILT_IN.put("default", "");
+        BUILT_IN.put("wal", "journal_mode=WAL,synchronous=NORMAL");
+        BUILT_IN.put("wal-mmap", "journal_mode=WAL,synchronous=NORMAL,cache_size=-65536,mmap_size=268435456");
+        BUILT_IN.put("large-pages", "page_size=16384,journal_mode=WAL,synchronous=NORMAL,cache_size=-65536");
+        BUILT_IN.put("unsafe-fast", "journal_mode=MEMORY,synchronous=OFF,cache_size=-262144,temp_store=MEMORY");
+    }
+
+    public final String name;
+    private final List<String[]> settings;
+
+    private PragmaProfile(String name, List<String[]> settings) {
+        this.name = name;
+        this.settings = settings;
+    }
+
+    /**
+     * Look up a built-in profile, or parse an inline one.
+     *
+     * @param spec a built-in name such as {@code wal}, or settings such as {@code page_size=8192,cache_size=-32768}.
+     * @return the profile.
+     */
+    public static PragmaProfile forName(String spec) {
+        String trimmed = spec.trim();
+        String builtIn = BUILT_IN.get(trimmed.toLowerCase(Locale.ROOT));
+        if (builtIn != null) {
+            return new PragmaProfile(trimmed.toLowerCase(Locale.ROOT), parse(builtIn));
+        }
+        if (!trimmed.contains("=")) {
+            throw new IllegalArgumentException("Unknown PRAGMA profile: " + spec + " (built in: "
+                    + String.join(", ", BUILT_IN.keySet()) + "; or name=value pairs separated by commas)");
+        }
+        return new PragmaProfile(trimmed, parse(trimmed));
+    }
+
+    /**
+     * @return every built-in profile, starting with SQLite's defaults.
+     */
+    public static List<PragmaProfile> builtIn() {
+        return BUILT_IN.keySet().stream().map(PragmaProfile::forName).collect(Collectors.toList());
+    }
+
+    private static List<String[]> parse(String spec) {
+        List<String[]> settings = new ArrayList<>();
+        for (String pair : spec.split("[,;]")) {
+            if (pair.isBlank()) {
+                continue;
+            }
+            String[] parts = pair.split("=", 2);
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            String value = parts.length > 1 ? parts[1].trim() : "";
+            // The values end up in SQL text, so only plain names and numbers are accepted
+            if (!NAME.matcher(name).matches() || !VALUE.matcher(value).matches()) {
+                throw new IllegalArgumentException("Invalid PRAGMA setting: " + pair.trim() + " (expected name=value)");
+            }
+            settings.add(new String[] { name, value });
+        }
+        // page_size must be set before anything creates the first page, journal_mode before other writes
+        settings.sort((a, b) -> Integer.compare(order(a[0]), order(b[0])));
+        return settings;
+    }
+
+    private static int order(String name) {
+        return switch (name) {
+            case "page_size" -> 0;
+            case "journal_mode" -> 1;
+            default -> 2;
+        };
+    }
+
+    /**
+     * Apply the settings. The connection must be in auto-commit mode.
+     *
+     * @param conn the connection.
+     * @throws SQLException if a setting is rejected.
+     */
+    public void apply(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String[] setting : settings) {
+                stmt.execute("PRAGMA " + setting[0] + " = " + setting[1]);
+            }
+        }
+    }
+
+    /**
+     * @return the settings as {@code name=value} pairs, or {@code (SQLite defaults)}.
+     */
+    public String spec() {
+        return settings.isEmpty() ? "(SQLite defaults)"
+                : settings.stream().map(setting -> setting[0] + "=" + setting[1]).collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,391 @@
+package main.commands.sqlite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A bounded on-disk cache of rendered query results. An entry is keyed by the normalized SQL, the
+ * output format and the database file, and stores a fingerprint of the database taken when the
+ * result was computed: a lookup whose fingerprint no longer matches is a miss, so any committed
+ * change to the database invalidates its entries without scanning the cache.
+ *
+ * <p>The fingerprint is read from the file system and the 100-byte database header (the file change
+ * counter and the schema cookie), plus the size and modification time of the {@code -wal} file, so
+ * a hit needs neither a database connection nor SQLite itself. When the cache exceeds its size, the
+ * least recently used entries are deleted; a hit marks an entry as used by touching its file.
+ */
+public class QueryCache {
+
+    static final String SUFFIX = ".qcache";
+
+    private static final int HEADER_SIZE = 100;
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+    private static final Set<String> READ_ONLY_KEYWORDS = Set.of("SELECT", "VALUES", "WITH");
+    // Functions whose result differs between two runs on the same data
+    private static final Pattern NON_DETERMINISTIC = Pattern.compile(
+            "(?i)\\b(random|randomblob|changes|total_changes|last_insert_rowid)\\s*\\(|'now'|\\bcurrent_(time|date|timestamp)\\b");
+
+    private final Path dir;
+    private final long maxSize;
+
+    /**
+     * @param dir     the cache folder; created when the first entry is stored.
+     * @param maxSize the total size of all entries in bytes.
+     */
+    public QueryCache(Path dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the default cache folder, {@code ~/.qbox/query-cache}.
+     */
+    public static Path defaultDir() {
+        return Path.of(System.getProperty("user.home"), ".qbox", "query-cache");
+    }
+
+    /**
+     * Whether the result of a statement may be cached: a {@code SELECT}, {@code VALUES} or
+     * {@code WITH} statement that uses no function whose result changes between runs, like
+     * {@code random()} or {@code 'now'}.
+     *
+     * @param sql the statement.
+     * @return true if its result depends only on the database contents.
+     */
+    public static boolean isCacheable(String sql) {
+        String normalized = normalize(sql);
+        int end = 0;
+        while (end < normalized.length() && Character.isLetter(normalized.charAt(end))) {
+            end++;
+        }
+        return READ_ONLY_KEYWORDS.contains(normalized.substring(0, end).toUpperCase(Locale.ROOT))
+                && !NON_DETERMINISTIC.matcher(normalized).find();
+    }
+
+    /**
+     * Normalize a statement so that formatting differences do not create separate entries: comments
+     * are removed, runs of whitespace outside literals become one space, and a final semicolon is
+     * dropped.
+     *
+     * @param sql the statement.
+     * @return the normalized statement.
+     */
+    static String normalize(String sql) {
+        try (SqlStatementReader reader = new SqlStatementReader(new StringReader(sql))) {
+            String statement = reader.next();
+            return statement == null ? "" : collapseWhitespace(statement.strip()).replaceFirst(";$", "");
+        } catch (IOException e) {
+            // an unterminated literal: the statement will fail to run anyway
+            return sql.strip();
+        }
+    }
+
+    private static String collapseWhitespace(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space) {
+                out.append(' ');
+                space = false;
+            }
+            if (quote == 0 && (c == '\'' || c == '"' || c == '`' || c == '[')) {
+                quote = c == '[' ? ']' : c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Compute the key of a result.
+     *
+     * @param dbFile the database.
+     * @param sql    the statement.
+     * @param format the output format, and for text whether values are labelled: e.g. {@code text-labels}.
+     * @return the key, a hex SHA-256.
+     * @throws IOException if the database path cannot be resolved.
+     */
+    public static String key(Path dbFile, String sql, String format) throws IOException {
+        return sha256(dbFile.toRealPath() + "\n" + format + "\n" + normalize(sql));
+    }
+
+    /**
+     * Take the fingerprint of a database.
+     *
+     * @param dbFile the database.
+     * @return a string that changes with every committed transaction and schema change.
+     * @throws IOException if the database cannot be read.
+     */
+    public static String fingerprint(Path dbFile) throws IOException {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(Files.size(dbFile)).append(':').append(Files.getLastModifiedTime(dbFile).to(TimeUnit.MICROSECONDS));
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(dbFile, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+        }
+        if (header.position() == HEADER_SIZE) {
+            // File change counter and schema cookie, big-endian at offsets 24 and 40
+            fingerprint.append(':').append(header.getInt(24)).append(':').append(header.getInt(40));
+        }
+
+        // Commits in WAL mode reach the main file only at the next checkpoint
+        Path wal = dbFile.resolveSibling(dbFile.getFileName() + "-wal");
+        try {
+            long walSize = Files.size(wal);
+            fingerprint.append(":wal:").append(walSize).append(':').append(Files.getLastModifiedTime(wal).to(TimeUnit.MICROSECONDS));
+        } catch (NoSuchFileException e) {
+            // not in WAL mode, or no writes since the last checkpoint
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Look up a cached result.
+     *
+     * @param key         see {@link #key(Path, String, String)}.
+     * @param fingerprint see {@link #fingerprint(Path)}.
+     * @return the result, to be copied and closed by the caller; null if there is no entry or it
+     * was computed on another database state.
+     * @throws IOException if the entry cannot be read.
+     */
+    public InputStream get(String key, String fingerprint) throws IOException {
+        Path entry = dir.resolve(key + SUFFIX);
+        InputStream in;
+        try {
+            in = new BufferedInputStream(Files.newInputStream(entry), COPY_BUFFER_SIZE);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (!fingerprint.equals(readLine(in))) {
+            in.close();
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Evicted by another process since it was opened: the open stream still reads it
+        }
+        return in;
+    }
+
+    /**
+     * Start storing a result. Output written to the returned stream also goes to {@code out}; the
+     * entry is stored when the stream is closed, unless {@link Entry#discard()} was called, the
+     * result outgrew the cache or the cache file could not be written. Errors of the cache file
+     * never interrupt the output.
+     *
+     * @param key         see {@link #key(Path, String, String)}.
+     * @param fingerprint the fingerprint taken before the statement ran.
+     * @param out         the stream the result is written to as well.
+     * @return the stream to write the result to.
+     * @throws IOException if the cache folder cannot be written.
+     */
+    public Entry put(String key, String fingerprint, OutputStream out) throws IOException {
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, key, ".tmp");
+        return new Entry(dir.resolve(key + SUFFIX), temp, fingerprint, out);
+    }
+
+    /**
+     * A result being written to the cache and to its actual destination at the same time.
+     */
+    public final class Entry extends OutputStream {
+        private final Path file;
+        private final Path temp;
+        private final OutputStream out;
+        private OutputStream cache;
+        private long size;
+
+        private Entry(Path file, Path temp, String fingerprint, OutputStream out) throws IOException {
+            this.file = file;
+            this.temp = temp;
+            this.out = out;
+            this.cache = new BufferedOutputStream(Files.newOutputStream(temp), COPY_BUFFER_SIZE);
+            byte[] header = (fingerprint + "\n").getBytes(StandardCharsets.UTF_8);
+            cache.write(header);
+            size = header.length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (cache != null && ++size <= maxSize) {
+                try {
+                    cache.write(b);
+                } catch (IOException e) {
+                    discard();
+                }
+            } else {
+                discard();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            size += len;
+            if (cache != null && size <= maxSize) {
+                try {
+                    cache.write(b, off, len);
+                } catch (IOException e) {
+                    discard();
+                }
+            } else {
+                discard();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Do not store the result, e.g. because the statement failed.
+         */
+        public void discard() {
+            if (cache != null) {
+                try {
+                    cache.close();
+                } catch (IOException e) {
+                    // the partial entry is deleted anyway
+                }
+                cache = null;
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // a leftover .tmp file is never read as an entry
+                }
+            }
+        }
+
+        /**
+         * Flush the output and store the entry.
+         *
+         * @throws IOException if the output cannot be flushed, or the entry cannot be stored; the
+         *                     output is complete in the second case.
+         */
+        @Override
+        public void close() throws IOException {
+            out.flush();
+            if (cache == null) {
+                return;
+            }
+            try {
+                cache.close();
+                cache = null;
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                discard();
+                throw e;
+            }
+            evict(file);
+        }
+    }
+
+    // Delete the least recently used entries until the cache fits, never the one just stored. Other
+    // processes may evict the same entries concurrently: a missing file counts as evicted, and
+    // upkeep errors are ignored, since the result has already been written
+    private void evict(Path keep) {
+        List<Path> entries = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(SUFFIX)) {
+                    entries.add(file);
+                    total += size(file);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            return;
+        }
+        if (total <= maxSize) {
+            return;
+        }
+        entries.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+        for (Path entry : entries) {
+            if (total <= maxSize) {
+                break;
+            }
+            if (!entry.equals(keep)) {
+                long size = size(entry);
+                try {
+                    Files.deleteIfExists(entry);
+                } catch (IOException e) {
+                    continue;
+                }
+                // Deleted here or by another process: either way it no longer takes space
+                total -= size;
+            }
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String sha256(String text) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
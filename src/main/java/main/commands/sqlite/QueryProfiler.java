@@ -0,0 +1,369 @@
+package main.commands.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Profiles one SQL statement: captures its {@code EXPLAIN QUERY PLAN}, times preparing it, reaching
+ * the first row and reading the remaining rows separately over one or more runs, and turns full
+ * scans of large tables into candidate indexes on the columns the statement compares or sorts by.
+ *
+ * <p>Every run happens in a transaction that is rolled back, so profiling an {@code UPDATE} or
+ * {@code DELETE} does not change the database. Index advice is a heuristic based on the columns the
+ * statement compares; check a candidate by creating it and profiling again with several runs.
+ */
+public class QueryProfiler {
+
+    static final long LARGE_TABLE_ROWS = 10_000;
+
+    private static final Pattern SCAN = Pattern.compile("^SCAN (?:TABLE )?(\\S+)(?: AS (\\S+))?(.*)$");
+    private static final Pattern TABLE_REFERENCE = Pattern.compile(
+            "(?i)\\b(?:FROM|JOIN)\\s+((?:\\w+\\.)?(?:\"(?:[^\"]|\"\")+\"|\\[[^\\]]+]|`[^`]+`|\\w+))(?:\\s+(?:AS\\s+)?([A-Za-z_]\\w*))?");
+    private static final Pattern COLUMN_BEFORE_OPERATOR = Pattern.compile(
+            "(?i)(?:\\b([A-Za-z_]\\w*)\\.)?\\b([A-Za-z_]\\w*)\\s*(==|=|<=|>=|<|>|\\bIN\\b|\\bIS\\b|\\bBETWEEN\\b)");
+    private static final Pattern COLUMN_AFTER_OPERATOR = Pattern.compile(
+            "(?i)(==|=|<=|>=|<|>)\\s*(?:([A-Za-z_]\\w*)\\.)?([A-Za-z_]\\w*)\\b(?!\\s*[(.])");
+    private static final Pattern ORDER_BY = Pattern.compile("(?is)\\bORDER\\s+BY\\s+(.+?)(?:\\bLIMIT\\b|$)");
+    private static final Set<String> NOT_AN_ALIAS = Set.of("WHERE", "JOIN", "INNER", "LEFT", "RIGHT", "FULL", "CROSS",
+            "NATURAL", "OUTER", "ON", "USING", "GROUP", "ORDER", "LIMIT", "UNION", "EXCEPT", "INTERSECT", "WINDOW",
+            "HAVING", "INDEXED", "NOT");
+
+    /**
+     * One line of the query plan.
+     */
+    public static final class PlanStep {
+        public final int depth;
+        public final String detail;
+
+        PlanStep(int depth, String detail) {
+            this.depth = depth;
+            this.detail = detail;
+        }
+    }
+
+    /**
+     * The timings of one run. For statements that return no rows, {@link #firstRowNanos} is the
+     * execution time and {@link #rows} the number of rows changed.
+     */
+    public static final class Run {
+        public final long prepareNanos;
+        public final long firstRowNanos;
+        public final long drainNanos;
+        public final long rows;
+        public final long bytes;
+
+        Run(long prepareNanos, long firstRowNanos, long drainNanos, long rows, long bytes) {
+            this.prepareNanos = prepareNanos;
+            this.firstRowNanos = firstRowNanos;
+            this.drainNanos = drainNanos;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the time from preparing the statement to reading its last row.
+         */
+        public long totalNanos() {
+            return prepareNanos + firstRowNanos + drainNanos;
+        }
+    }
+
+    /**
+     * The plan, runs and advice for a statement.
+     */
+    public static final class Profile {
+        public final List<PlanStep> plan;
+        public final List<Run> runs;
+        public final List<String> advice;
+
+        Profile(List<PlanStep> plan, List<Run> runs, List<String> advice) {
+            this.plan = plan;
+            this.runs = runs;
+            this.advice = advice;
+        }
+    }
+
+    private final Connection conn;
+
+    /**
+     * @param conn the connection to profile on; it is left in auto-commit mode.
+     */
+    public QueryProfiler(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Profile a statement.
+     *
+     * @param sql    the statement.
+     * @param repeat the number of timed runs.
+     * @return the plan, the timings of every run and the index advice.
+     * @throws SQLException if the statement cannot be planned or executed.
+     */
+    public Profile profile(String sql, int repeat) throws SQLException {
+        if (repeat < 1) {
+            throw new IllegalArgumentException("--repeat must be at least 1.");
+        }
+        List<PlanStep> plan = plan(sql);
+        List<Run> runs = new ArrayList<>();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            for (int i = 0; i < repeat; i++) {
+                try {
+                    runs.add(run(sql));
+                } finally {
+                    conn.rollback();
+                }
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return new Profile(plan, runs, advise(sql, plan));
+    }
+
+    /**
+     * @param sorted values in ascending order.
+     * @param fraction the percentile as a fraction, e.g. {@code 0.95}.
+     * @return the nearest-rank percentile, or 0 if there are no values.
+     */
+    static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private List<PlanStep> plan(String sql) throws SQLException {
+        List<PlanStep> plan = new ArrayList<>();
+        Map<Integer, Integer> depths = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) {
+                int depth = depths.getOrDefault(rs.getInt("parent"), -1) + 1;
+                depths.put(rs.getInt("id"), depth);
+                plan.add(new PlanStep(depth, rs.getString("detail")));
+            }
+        }
+        return plan;
+    }
+
+    private Run run(String sql) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            long prepared = System.nanoTime();
+            if (!stmt.execute()) {
+                long executed = System.nanoTime();
+                return new Run(prepared - start, executed - prepared, 0, Math.max(stmt.getUpdateCount(), 0), 0);
+            }
+            try (ResultSet rs = stmt.getResultSet()) {
+                int columns = rs.getMetaData().getColumnCount();
+                long rows = 0;
+                long bytes = 0;
+                long firstRow = 0;
+                while (rs.next()) {
+                    if (rows++ == 0) {
+                        firstRow = System.nanoTime();
+                    }
+                    for (int i = 1; i <= columns; i++) {
+                        bytes += size(rs.getObject(i));
+                    }
+                }
+                long end = System.nanoTime();
+                if (rows == 0) {
+                    firstRow = end;
+                }
+                return new Run(prepared - start, firstRow - prepared, end - firstRow, rows, bytes);
+            }
+        }
+    }
+
+    // Approximate size of a value as SQLite stores it: 8 bytes per number, UTF-8 text, raw BLOBs
+    private static long size(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof byte[] bytes) {
+            return bytes.length;
+        } else if (value instanceof Number) {
+            return 8;
+        }
+        String text = value.toString();
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            length += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+        return length;
+    }
+
+    private List<String> advise(String sql, List<PlanStep> plan) throws SQLException {
+        // Literals could contain anything that looks like SQL
+        String stripped = sql.replaceAll("'(?:[^']|'')*'", "?");
+        Map<String, String> aliases = aliases(stripped);
+        List<String> advice = new ArrayList<>();
+        boolean sorted = plan.stream().anyMatch(step -> step.detail.startsWith("USE TEMP B-TREE FOR ORDER BY"));
+
+        for (PlanStep step : plan) {
+            Matcher scan = SCAN.matcher(step.detail);
+            if (!scan.matches() || scan.group(3).contains("USING")) {
+                continue;
+            }
+            String reference = scan.group(2) != null ? scan.group(2) : scan.group(1);
+            String table = aliases.getOrDefault(reference.toLowerCase(Locale.ROOT), scan.group(1));
+            Set<String> columns = columns(table);
+            if (columns.isEmpty()) {
+                // a subquery, CTE or view rather than a table
+                continue;
+            }
+            long rows = estimateRows(table);
+            if (rows < LARGE_TABLE_ROWS) {
+                continue;
+            }
+            String index = candidateIndex(table, reference, columns, stripped);
+            if (index == null && sorted) {
+                List<String> orderBy = orderByColumns(stripped, columns);
+                index = orderBy.isEmpty() ? null : createIndex(table, orderBy);
+            }
+            advice.add(String.format("Full table scan of %s (~%d rows)%s", table, rows, index != null
+                    ? ". Candidate index:\n    " + index
+                    : "; no compared or sorted column to index, so every row is read."));
+        }
+        return advice;
+    }
+
+    // Maps every table name and alias in the FROM and JOIN clauses to its table
+    private static Map<String, String> aliases(String sql) {
+        Map<String, String> aliases = new LinkedHashMap<>();
+        Matcher matcher = TABLE_REFERENCE.matcher(sql);
+        while (matcher.find()) {
+            String table = unquote(matcher.group(1).replaceFirst("^\\w+\\.(?=.)", ""));
+            aliases.putIfAbsent(table.toLowerCase(Locale.ROOT), table);
+            String alias = matcher.group(2);
+            if (alias != null && !NOT_AN_ALIAS.contains(alias.toUpperCase(Locale.ROOT))) {
+                aliases.put(alias.toLowerCase(Locale.ROOT), table);
+            }
+        }
+        return aliases;
+    }
+
+    // Columns compared with '=' or IN first, in the order they appear, then the first range column
+    private static String candidateIndex(String table, String reference, Set<String> columns, String sql) {
+        Set<String> equality = new LinkedHashSet<>();
+        Set<String> range = new LinkedHashSet<>();
+        Matcher before = COLUMN_BEFORE_OPERATOR.matcher(sql);
+        while (before.find()) {
+            addColumn(before.group(1), before.group(2), before.group(3), table, reference, columns, equality, range);
+        }
+        Matcher after = COLUMN_AFTER_OPERATOR.matcher(sql);
+        while (after.find()) {
+            addColumn(after.group(2), after.group(3), after.group(1), table, reference, columns, equality, range);
+        }
+        range.removeAll(equality);
+
+        List<String> indexed = new ArrayList<>(equality);
+        range.stream().findFirst().ifPresent(indexed::add);
+        return indexed.isEmpty() ? null : createIndex(table, indexed);
+    }
+
+    private static void addColumn(String qualifier, String column, String operator, String table, String reference,
+                                  Set<String> columns, Set<String> equality, Set<String> range) {
+        if (qualifier != null && !qualifier.equalsIgnoreCase(reference) && !qualifier.equalsIgnoreCase(table)) {
+            return;
+        }
+        String name = columns.stream().filter(column::equalsIgnoreCase).findFirst().orElse(null);
+        if (name == null) {
+            return;
+        }
+        String op = operator.toUpperCase(Locale.ROOT);
+        if (op.equals("=") || op.equals("==") || op.equals("IN") || op.equals("IS")) {
+            equality.add(name);
+        } else {
+            range.add(name);
+        }
+    }
+
+    private static List<String> orderByColumns(String sql, Set<String> columns) {
+        Matcher matcher = ORDER_BY.matcher(sql.strip().replaceAll(";$", ""));
+        if (!matcher.find()) {
+            return List.of();
+        }
+        List<String> orderBy = new ArrayList<>();
+        for (String term : matcher.group(1).split(",")) {
+            String column = term.strip().replaceAll("(?i)\\s+(ASC|DESC)$", "").replaceFirst("^\\w+\\.", "");
+            String name = columns.stream().filter(column::equalsIgnoreCase).findFirst().orElse(null);
+            if (name == null) {
+                // An expression: an index on the plain columns would not match it
+                return List.of();
+            }
+            orderBy.add(name);
+        }
+        return orderBy;
+    }
+
+    private static String createIndex(String table, List<String> columns) {
+        return String.format("CREATE INDEX %s ON %s(%s);", quote("idx_" + table + "_" + String.join("_", columns)),
+                quote(table), String.join(", ", columns.stream().map(QueryProfiler::quote).toList()));
+    }
+
+    private static String quote(String identifier) {
+        return identifier.matches("[A-Za-z_]\\w*") ? identifier : "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String unquote(String identifier) {
+        if (identifier.length() > 1 && "\"[`".indexOf(identifier.charAt(0)) >= 0) {
+            return identifier.substring(1, identifier.length() - 1).replace("\"\"", "\"");
+        }
+        return identifier;
+    }
+
+    private Set<String> columns(String table) throws SQLException {
+        Set<String> columns = new LinkedHashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT name FROM pragma_table_info(?)")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    columns.add(rs.getString(1));
+                }
+            }
+        }
+        return columns;
+    }
+
+    // ANALYZE statistics when available, otherwise the largest rowid, which needs no scan
+    private long estimateRows(String table) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT stat FROM sqlite_stat1 WHERE tbl = ? LIMIT 1")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return Long.parseLong(rs.getString(1).split(" ")[0]);
+                }
+            }
+        } catch (SQLException | NumberFormatException e) {
+            // no sqlite_stat1 table: ANALYZE has never run
+        }
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT max(rowid) FROM " + quote(table))) {
+                return rs.next() ? rs.getLong(1) : 0;
+            } catch (SQLException e) {
+                // a WITHOUT ROWID table
+                try (ResultSet rs = stmt.executeQuery("SELECT count(*) FROM " + quote(table))) {
+                    return rs.next() ? rs.getLong(1) : 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package main.commands.sqlite;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a result set to a file or stream as it is read, one row at a time, so exporting a table of
+ * any size needs the memory of one row plus the output buffers.
+ *
+ * <p>File output can be split into parts of a maximum size. Every part is a complete document in
+ * its own right (a CSV part repeats the header, a JSON part is a closed array), so parts can be
+ * loaded independently. A part is closed at the first row boundary after it reaches the limit, so
+ * it can exceed the limit by one row plus the output buffer.
+ */
+public class ResultExporter {
+
+    static final int DEFAULT_FETCH_SIZE = 10_000;
+    private static final int FILE_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The outcome of an export.
+     */
+    public static final class Result {
+        public final long rows;
+        public final long bytes;
+        public final List<Path> files;
+        public final long elapsedNanos;
+
+        Result(long rows, long bytes, List<Path> files, long elapsedNanos) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.files = files;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return the number of rows exported per second.
+         */
+        public double rowsPerSecond() {
+            return rows / Math.max(elapsedNanos / 1e9, 1e-9);
+        }
+
+        /**
+         * @return the number of bytes written per second.
+         */
+        public double bytesPerSecond() {
+            return bytes / Math.max(elapsedNanos / 1e9, 1e-9);
+        }
+    }
+
+    private final ResultRenderer.Format format;
+    private long splitSize;
+
+    /**
+     * @param format the output format.
+     */
+    public ResultExporter(ResultRenderer.Format format) {
+        this.format = format;
+    }
+
+    /**
+     * @param splitSize the size in bytes after which file output continues in a new part; 0 writes one file.
+     */
+    public ResultExporter splitSize(long splitSize) {
+        if (splitSize < 0) {
+            throw new IllegalArgumentException("Split size must not be negative.");
+        }
+        this.splitSize = splitSize;
+        return this;
+    }
+
+    /**
+     * Write every remaining row to a stream as one document.
+     *
+     * @param rs  the result set; it is read to the end but not closed.
+     * @param out the stream to write to; it is flushed but not closed.
+     * @return the rows and bytes written; {@link Result#files} is empty.
+     * @throws SQLException if reading the result set fails.
+     * @throws IOException  if writing fails.
+     */
+    public Result export(ResultSet rs, OutputStream out) throws SQLException, IOException {
+        long start = System.nanoTime();
+        CountingOutputStream counter = new CountingOutputStream(out);
+        long rows = ResultRenderer.render(rs, format, false, counter);
+        return new Result(rows, counter.count, List.of(), System.nanoTime() - start);
+    }
+
+    /**
+     * Write every remaining row to a file, or to numbered parts next to it if a split size is set:
+     * {@code events.csv} becomes {@code events-001.csv}, {@code events-002.csv} and so on.
+     *
+     * @param rs   the result set; it is read to the end but not closed.
+     * @param file the output file.
+     * @return the rows and bytes written and the files created.
+     * @throws SQLException if reading the result set fails.
+     * @throws IOException  if writing fails.
+     */
+    public Result export(ResultSet rs, Path file) throws SQLException, IOException {
+        long start = System.nanoTime();
+        String[] columns = ResultRenderer.columnLabels(rs);
+        List<Path> files = new ArrayList<>();
+        long rows = 0;
+        long bytes = 0;
+
+        Part part = null;
+        try {
+            while (rs.next()) {
+                if (part == null) {
+                    part = new Part(partFile(file, files.size() + 1), columns);
+                    files.add(part.file);
+                }
+                part.writer.writeRow(rs);
+                rows++;
+                if (splitSize > 0 && part.counter.count >= splitSize) {
+                    bytes += part.close();
+                    part = null;
+                }
+            }
+            // An empty result still produces a (header-only) document
+            if (files.isEmpty()) {
+                part = new Part(partFile(file, 1), columns);
+                files.add(part.file);
+            }
+            if (part != null) {
+                bytes += part.close();
+                part = null;
+            }
+        } finally {
+            if (part != null) {
+                part.out.close();
+            }
+        }
+        return new Result(rows, bytes, files, System.nanoTime() - start);
+    }
+
+    private Path partFile(Path file, int number) {
+        if (splitSize == 0) {
+            return file;
+        }
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String part = dot > 0
+                ? String.format("%s-%03d%s", name.substring(0, dot), number, name.substring(dot))
+                : String.format("%s-%03d", name, number);
+        return file.resolveSibling(part);
+    }
+
+    /**
+     * One output file with its own complete document.
+     */
+    private final class Part {
+        final Path file;
+        final OutputStream out;
+        final CountingOutputStream counter;
+        final ResultRenderer.RowWriter writer;
+
+        Part(Path file, String[] columns) throws IOException {
+            this.file = file;
+            this.out = new BufferedOutputStream(Files.newOutputStream(file), FILE_BUFFER_SIZE);
+            this.counter = new CountingOutputStream(out);
+            this.writer = ResultRenderer.open(format, columns, false, counter);
+        }
+
+        long close() throws IOException {
+            writer.finish();
+            out.close();
+            return counter.count;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The underlying stream is closed by its owner
+            flush();
+        }
+    }
+}
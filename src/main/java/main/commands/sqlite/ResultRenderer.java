@@ -0,0 +1,418 @@
+package main.commands.sqlite;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.xml.XmlFactory;
+import com.fasterxml.jackson.dataformat.xml.ser.ToXmlGenerator;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
+
+import javax.xml.namespace.QName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Streams a {@link ResultSet} to an output stream one row at a time, so memory use does not depend
+ * on the number of rows. Column names are read from the metadata once, and all output goes through
+ * one large buffer instead of a formatted write per cell.
+ */
+public class ResultRenderer {
+
+    static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final YAMLFactory YAML_FACTORY = YAMLFactory.builder()
+            .enable(YAMLGenerator.Feature.MINIMIZE_QUOTES)
+            .build();
+    private static final XmlFactory XML_FACTORY = new XmlFactory();
+
+    /**
+     * Supported output formats.
+     */
+    public enum Format {
+        /** {@code column: value} pairs separated by tabs, one row per line; the original query output. */
+        TEXT,
+        /** RFC 4180 CSV with a header row. */
+        CSV,
+        /** Tab-separated values with a header row; tabs, newlines and backslashes in values are escaped. */
+        TSV,
+        /** One JSON array of row objects. */
+        JSON,
+        /** One JSON object per line. */
+        NDJSON,
+        /** A YAML sequence of row mappings. */
+        YAML,
+        /** A {@code <rows>} document with one {@code <row>} element per row. */
+        XML;
+
+        /**
+         * Look up a format by name, ignoring case.
+         *
+         * @param name the format name, e.g. {@code csv}.
+         * @return the format.
+         */
+        public static Format forName(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown output format: " + name + " (supported: "
+                        + Arrays.stream(values()).map(f -> f.name().toLowerCase(Locale.ROOT)).collect(Collectors.joining(", ")) + ")");
+            }
+        }
+
+        /**
+         * @return true for formats meant for other programs, which must not be mixed with status messages.
+         */
+        public boolean isMachineReadable() {
+            return this != TEXT;
+        }
+
+        /**
+         * @return the usual file extension of the format.
+         */
+        public String extension() {
+            return this == TEXT ? "txt" : name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Writes the rows of one result as one document. The document is started when the writer is
+     * opened (e.g. the CSV header or the opening JSON bracket) and completed by {@link #finish()}.
+     */
+    public interface RowWriter {
+        /**
+         * Write the current row of a result set.
+         *
+         * @param rs the result set, positioned on a row.
+         * @throws SQLException if reading the row fails.
+         * @throws IOException  if writing fails.
+         */
+        void writeRow(ResultSet rs) throws SQLException, IOException;
+
+        /**
+         * Complete the document and flush it; the underlying stream is not closed.
+         *
+         * @throws IOException if writing fails.
+         */
+        void finish() throws IOException;
+    }
+
+    /**
+     * Write every remaining row of a result set.
+     *
+     * @param rs      the result set; it is read to the end but not closed.
+     * @param format  the output format.
+     * @param labels  for {@link Format#TEXT}, whether to prefix each value with its column name.
+     * @param out     the stream to write to; it is flushed but not closed.
+     * @return the number of rows written.
+     * @throws SQLException if reading the result set fails.
+     * @throws IOException  if writing fails.
+     */
+    public static long render(ResultSet rs, Format format, boolean labels, OutputStream out) throws SQLException, IOException {
+        return drain(rs, open(format, columnLabels(rs), labels, out));
+    }
+
+    /**
+     * Write every remaining row as NDJSON, with an extra first field identifying where the row came
+     * from, so rows of several results can share one stream.
+     *
+     * @param rs       the result set; it is read to the end but not closed.
+     * @param tagField the name of the extra field, e.g. {@code _query}.
+     * @param tag      its value.
+     * @param out      the stream to write to; it is flushed but not closed.
+     * @return the number of rows written.
+     * @throws SQLException if reading the result set fails.
+     * @throws IOException  if writing fails.
+     */
+    public static long renderTagged(ResultSet rs, String tagField, long tag, OutputStream out) throws SQLException, IOException {
+        return drain(rs, new GeneratorRowWriter(jsonGenerator(out), out, columnLabels(rs), Layout.LINES, tagField, tag));
+    }
+
+    /**
+     * Start a document for the rows of a result, to be written one at a time.
+     *
+     * @param format  the output format.
+     * @param columns the column labels, see {@link #columnLabels(ResultSet)}.
+     * @param labels  for {@link Format#TEXT}, whether to prefix each value with its column name.
+     * @param out     the stream to write to; it is not closed.
+     * @return the writer.
+     * @throws IOException if writing the start of the document fails.
+     */
+    public static RowWriter open(Format format, String[] columns, boolean labels, OutputStream out) throws IOException {
+        return switch (format) {
+            case CSV -> new DelimitedRowWriter(out, columns, ',', ResultRenderer::csv);
+            case TSV -> new DelimitedRowWriter(out, columns, '\t', ResultRenderer::tsv);
+            case JSON -> new GeneratorRowWriter(jsonGenerator(out), out, columns, Layout.ARRAY, null, 0);
+            case NDJSON -> new GeneratorRowWriter(jsonGenerator(out), out, columns, Layout.LINES, null, 0);
+            case YAML -> new GeneratorRowWriter(withoutAutoClose(YAML_FACTORY.createGenerator(out, JsonEncoding.UTF8)),
+                    out, columns, Layout.ARRAY, null, 0);
+            case XML -> new GeneratorRowWriter(xmlGenerator(out), out, xmlNames(columns), Layout.ELEMENTS, null, 0);
+            case TEXT -> new TextRowWriter(out, columns, labels);
+        };
+    }
+
+    /**
+     * @param rs a result set.
+     * @return its column labels.
+     * @throws SQLException if the metadata cannot be read.
+     */
+    public static String[] columnLabels(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        String[] columns = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = metaData.getColumnLabel(i + 1);
+        }
+        return columns;
+    }
+
+    private static long drain(ResultSet rs, RowWriter writer) throws SQLException, IOException {
+        long rows = 0;
+        while (rs.next()) {
+            writer.writeRow(rs);
+            rows++;
+        }
+        writer.finish();
+        return rows;
+    }
+
+    private static JsonGenerator jsonGenerator(OutputStream out) throws IOException {
+        JsonGenerator json = withoutAutoClose(JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8));
+        // Rows are separated by the newline written after each one, not the default space
+        json.setRootValueSeparator(null);
+        return json;
+    }
+
+    private static JsonGenerator xmlGenerator(OutputStream out) throws IOException {
+        ToXmlGenerator xml = XML_FACTORY.createGenerator(out);
+        xml.enable(ToXmlGenerator.Feature.WRITE_XML_DECLARATION);
+        xml.setNextName(new QName("rows"));
+        // Writes the declaration; normally done by XmlMapper, which is not used for streaming
+        xml.initGenerator();
+        return withoutAutoClose(xml);
+    }
+
+    private static JsonGenerator withoutAutoClose(JsonGenerator generator) {
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return generator;
+    }
+
+    // Column labels can be any text, element names cannot: replace what is not allowed
+    private static String[] xmlNames(String[] columns) {
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            String name = columns[i].replaceAll("[^A-Za-z0-9_.-]", "_");
+            boolean validStart = !name.isEmpty() && (Character.isLetter(name.charAt(0)) || name.charAt(0) == '_');
+            names[i] = validStart ? name : "_" + name;
+        }
+        return names;
+    }
+
+    /**
+     * The original query output: {@code column: value} pairs, or bare values, separated by tabs.
+     */
+    private static final class TextRowWriter implements RowWriter {
+        private final Writer writer;
+        private final String[] columns;
+        private final boolean labels;
+
+        TextRowWriter(OutputStream out, String[] columns, boolean labels) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()), OUTPUT_BUFFER_SIZE);
+            this.columns = columns;
+            this.labels = labels;
+        }
+
+        @Override
+        public void writeRow(ResultSet rs) throws SQLException, IOException {
+            for (int i = 0; i < columns.length; i++) {
+                if (labels) {
+                    writer.write(columns[i]);
+                    writer.write(": ");
+                }
+                writer.write(String.valueOf(rs.getString(i + 1)));
+                writer.write('\t');
+            }
+            writer.write(System.lineSeparator());
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+    }
+
+    private interface Escaper {
+        void write(Writer writer, String value) throws IOException;
+    }
+
+    /**
+     * CSV or TSV with a header row; NULL is written as an empty field.
+     */
+    private static final class DelimitedRowWriter implements RowWriter {
+        private final Writer writer;
+        private final char delimiter;
+        private final Escaper escaper;
+        private final String[] values;
+
+        DelimitedRowWriter(OutputStream out, String[] columns, char delimiter, Escaper escaper) throws IOException {
+            // UTF-8 like the Jackson formats, whatever the locale, so files read back the same everywhere
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+            this.delimiter = delimiter;
+            this.escaper = escaper;
+            this.values = new String[columns.length];
+            writeLine(columns);
+        }
+
+        @Override
+        public void writeRow(ResultSet rs) throws SQLException, IOException {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = rs.getString(i + 1);
+            }
+            writeLine(values);
+        }
+
+        private void writeLine(String[] line) throws IOException {
+            for (int i = 0; i < line.length; i++) {
+                if (i > 0) {
+                    writer.write(delimiter);
+                }
+                if (line[i] != null) {
+                    escaper.write(writer, line[i]);
+                }
+            }
+            writer.write('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+    }
+
+    private enum Layout {
+        /** A JSON or YAML array of objects. */
+        ARRAY,
+        /** One root-level object per line. */
+        LINES,
+        /** Repeated elements inside the XML root element. */
+        ELEMENTS
+    }
+
+    /**
+     * One object per row through a Jackson generator. Integers and reals stay numbers, BLOBs are
+     * written as Base64 and NULL as null.
+     */
+    private static final class GeneratorRowWriter implements RowWriter {
+        private final JsonGenerator generator;
+        private final OutputStream out;
+        private final String[] columns;
+        private final Layout layout;
+        private final String tagField;
+        private final long tag;
+
+        GeneratorRowWriter(JsonGenerator generator, OutputStream out, String[] columns, Layout layout, String tagField, long tag)
+                throws IOException {
+            this.generator = generator;
+            this.out = out;
+            this.columns = columns;
+            this.layout = layout;
+            this.tagField = tagField;
+            this.tag = tag;
+            if (layout == Layout.ARRAY) {
+                generator.writeStartArray();
+            } else if (layout == Layout.ELEMENTS) {
+                generator.writeStartObject();
+            }
+        }
+
+        @Override
+        public void writeRow(ResultSet rs) throws SQLException, IOException {
+            if (layout == Layout.ELEMENTS) {
+                generator.writeFieldName("row");
+            }
+            generator.writeStartObject();
+            if (tagField != null) {
+                generator.writeNumberField(tagField, tag);
+            }
+            for (int i = 0; i < columns.length; i++) {
+                generator.writeFieldName(columns[i]);
+                Object value = rs.getObject(i + 1);
+                if (value == null) {
+                    generator.writeNull();
+                } else if (value instanceof Integer number) {
+                    generator.writeNumber(number);
+                } else if (value instanceof Long number) {
+                    generator.writeNumber(number);
+                } else if (value instanceof Double number && !Double.isFinite(number)) {
+                    // Not valid JSON numbers; written as "NaN", "Infinity" or "-Infinity" like other encoders do
+                    generator.writeString(number.toString());
+                } else if (value instanceof Double number) {
+                    generator.writeNumber(number);
+                } else if (value instanceof byte[] bytes) {
+                    generator.writeString(Base64.getEncoder().encodeToString(bytes));
+                } else {
+                    generator.writeString(value.toString());
+                }
+            }
+            generator.writeEndObject();
+            if (layout == Layout.LINES) {
+                generator.writeRaw('\n');
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (layout == Layout.ARRAY) {
+                generator.writeEndArray();
+            } else if (layout == Layout.ELEMENTS) {
+                generator.writeEndObject();
+            }
+            generator.close();
+            // YAML ends documents with a newline itself; end the JSON array and XML root likewise
+            if (layout != Layout.LINES && !(generator instanceof YAMLGenerator)) {
+                out.write('\n');
+            }
+            out.flush();
+        }
+    }
+
+    private static void csv(Writer writer, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static void tsv(Writer writer, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\t' -> writer.write("\\t");
+                case '\n' -> writer.write("\\n");
+                case '\r' -> writer.write("\\r");
+                case '\\' -> writer.write("\\\\");
+                default -> writer.write(c);
+            }
+        }
+    }
+}
@@ -1,15 +1,28 @@
 package main.commands.sqlite;
 
+import main.commands.util.AtomicFiles;
+import main.commands.util.ByteSize;
+import picocli.CommandLine.ArgGroup;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 @Command(
@@ -19,6 +32,12 @@ import java.util.concurrent.Callable;
     subcommands = {
         SQLiteClient.CreateDbCommand.class,
         SQLiteClient.QueryCommand.class,
+        SQLiteClient.ImportCommand.class,
+        SQLiteClient.ShellCommand.class,
+        SQLiteClient.BatchCommand.class,
+        SQLiteClient.ExportCommand.class,
+        SQLiteClient.BenchCommand.class,
+        SQLiteClient.SyncCommand.class,
         SQLiteClient.ExamplesCommand.class
     }
 )
@@ -26,18 +45,27 @@ public class SQLiteClient implements Runnable {
 
     @Override
     public void run() {
-        System.out.println("SQLite client. Use one of the subcommands: create-db, query, or examples.");
+        System.out.println("SQLite client. Use one of the subcommands: create-db, query, import, shell, batch, export, bench, sync, or examples.");
     }
 
-    @Command(name = "create-db", description = "Creates a SQLite database from a .sql schema file.")
+    @Command(name = "create-db", description = "Creates a SQLite database from a .sql schema or dump file.")
     static class CreateDbCommand implements Callable<Integer> {
 
-        @Parameters(index = "0", description = "The path to the .sql schema file.")
+        @Parameters(index = "0", description = "The path to the .sql schema or dump file.")
         private String schemaFile;
 
         @Option(names = { "-o", "--output-db" }, description = "Path to the output .db file.", required = true)
         private String outputDb;
 
+        @Option(names = { "--transaction-size" }, defaultValue = "10000", description = "Statements per transaction; 0 runs the whole script in one (default: ${DEFAULT-VALUE}).")
+        private int transactionSize;
+
+        @Option(names = { "-c", "--clean" }, description = "Do not print progress or the summary.")
+        private boolean cleanOutput;
+
+        @Option(names = { "--pragma-profile" }, description = "PRAGMA settings applied before the script runs: a profile name from 'sqlite bench' or name=value pairs.")
+        private String pragmaProfile;
+
         @Override
         public Integer call() throws Exception {
             Path schemaPath = Path.of(schemaFile);
@@ -46,13 +74,24 @@ public class SQLiteClient implements Runnable {
                 return 1;
             }
 
-            String schema = Files.readString(schemaPath);
-
+            long size = Files.size(schemaPath);
             try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + outputDb)) {
-                try (Statement stmt = conn.createStatement()) {
-                    stmt.execute(schema);
+                if (pragmaProfile != null) {
+                    PragmaProfile.forName(pragmaProfile).apply(conn);
+                }
+                ScriptExecutor executor = new ScriptExecutor(conn).transactionSize(transactionSize);
+                if (!cleanOutput) {
+                    executor.progress(progress -> System.out.printf("%d statements, %.1f of %.1f MB (%.0f statements/s, %.1f MB/s)%n",
+                            progress.statements, progress.bytes / 1e6, size / 1e6, progress.statementsPerSecond(),
+                            progress.bytesPerSecond() / 1e6), ScriptExecutor.DEFAULT_PROGRESS_INTERVAL_NANOS);
+                }
+                ScriptExecutor.Progress result = executor.execute(Files.newInputStream(schemaPath));
+                if (!cleanOutput) {
+                    System.out.printf("Database created successfully: %s%n", outputDb);
+                    System.out.printf("Executed %d statements (%.1f MB) in %.2f s: %.0f statements/s, %.1f MB/s%n",
+                            result.statements, result.bytes / 1e6, result.elapsedNanos / 1e9, result.statementsPerSecond(),
+                            result.bytesPerSecond() / 1e6);
                 }
-                System.out.printf("Database created successfully: %s%n", outputDb);
             } catch (Exception e) {
                 System.err.printf("Error creating database: %s%n", e.getMessage());
                 return 1;
@@ -74,6 +113,30 @@ public class SQLiteClient implements Runnable {
         @Option(names = { "-c", "--clean" }, description = "Output only the query result.")
         private boolean cleanOutput;
 
+        @Option(names = { "-f", "--output-format" }, defaultValue = "text", description = "Result format: text, csv, tsv, json, ndjson, yaml or xml (default: ${DEFAULT-VALUE}). Formats other than text imply --clean.")
+        private String outputFormat;
+
+        @Option(names = { "--fetch-size" }, defaultValue = "1000", description = "Number of rows the driver fetches at a time (default: ${DEFAULT-VALUE}).")
+        private int fetchSize;
+
+        @Option(names = { "--profile" }, description = "Instead of printing the result, show the query plan, a prepare/first row/drain timing breakdown and index advice.")
+        private boolean profile;
+
+        @Option(names = { "--repeat" }, defaultValue = "1", description = "Number of timed runs for --profile, reported as p50/p95/p99 latencies; implies --profile (default: ${DEFAULT-VALUE}).")
+        private int repeat;
+
+        @Option(names = { "--pragma-profile" }, description = "PRAGMA settings applied to the connection: a profile name from 'sqlite bench' or name=value pairs.")
+        private String pragmaProfile;
+
+        @Option(names = { "--cache" }, description = "Reuse the result of an earlier identical read-only query while the database is unchanged.")
+        private boolean cache;
+
+        @Option(names = { "--cache-dir" }, description = "Folder of the result cache (default: ~/.qbox/query-cache).")
+        private String cacheDir;
+
+        @Option(names = { "--cache-size" }, defaultValue = "256M", converter = ByteSize.Converter.class, description = "Maximum total size of the result cache; least recently used results are removed first (default: ${DEFAULT-VALUE}).")
+        private long cacheSize;
+
         @Override
         public Integer call() throws Exception {
             Path dbPath = Path.of(dbFile);
@@ -82,35 +145,102 @@ public class SQLiteClient implements Runnable {
                 return 1;
             }
 
+            if (profile || repeat > 1) {
+                try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile)) {
+                    if (pragmaProfile != null) {
+                        PragmaProfile.forName(pragmaProfile).apply(conn);
+                    }
+                    printProfile(new QueryProfiler(conn).profile(query, repeat));
+                } catch (Exception e) {
+                    System.err.printf("Error profiling query: %s%n", e.getMessage());
+                    return 1;
+                }
+                return 0;
+            }
+
+            ResultRenderer.Format format;
+            QueryCache resultCache = null;
+            String key = null;
+            String fingerprint = null;
+            try {
+                format = ResultRenderer.Format.forName(outputFormat);
+                // Look up the cache before opening the database, so a hit needs no connection
+                if (cache && QueryCache.isCacheable(query)) {
+                    boolean clean = cleanOutput || format.isMachineReadable();
+                    resultCache = new QueryCache(cacheDir != null ? Path.of(cacheDir) : QueryCache.defaultDir(),
+                            cacheSize);
+                    key = QueryCache.key(dbPath, query, format.extension() + (clean ? "" : "-labels"));
+                    fingerprint = QueryCache.fingerprint(dbPath);
+                    InputStream cached = null;
+                    try {
+                        cached = resultCache.get(key, fingerprint);
+                    } catch (IOException e) {
+                        System.err.printf("Warning: result cache not readable, running the query: %s%n", e.getMessage());
+                    }
+                    if (cached != null) {
+                        try (InputStream in = cached) {
+                            if (!clean) {
+                                System.out.printf("Query executed successfully on database: %s (cached result)%n", dbFile);
+                            }
+                            in.transferTo(System.out);
+                            System.out.flush();
+                            return 0;
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                System.err.printf("Error executing query: %s%n", e.getMessage());
+                return 1;
+            }
+
             try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
                  Statement stmt = conn.createStatement()) {
 
+                if (pragmaProfile != null) {
+                    PragmaProfile.forName(pragmaProfile).apply(conn);
+                }
+                boolean clean = cleanOutput || format.isMachineReadable();
+                stmt.setFetchSize(fetchSize);
                 boolean isResultSet = stmt.execute(query);
 
                 if (isResultSet) {
                     try (ResultSet rs = stmt.getResultSet()) {
-                        int columnCount = rs.getMetaData().getColumnCount();
-
-                        if (!cleanOutput) {
+                        if (!clean) {
                             System.out.printf("Query executed successfully on database: %s%n", dbFile);
                         }
-
-                        while (rs.next()) {
-                            for (int i = 1; i <= columnCount; i++) {
-                                if (!cleanOutput) {
-                                    System.out.printf("%s: ", rs.getMetaData().getColumnName(i));
-                                }
-                                System.out.printf("%s\t", rs.getString(i));
+                        QueryCache.Entry entry = null;
+                        if (resultCache != null) {
+                            try {
+                                entry = resultCache.put(key, fingerprint, System.out);
+                            } catch (IOException e) {
+                                System.err.printf("Warning: result not cached: %s%n", e.getMessage());
+                            }
+                        }
+                        if (entry == null) {
+                            ResultRenderer.render(rs, format, !clean, System.out);
+                        } else {
+                            try {
+                                ResultRenderer.render(rs, format, !clean, entry);
+                            } catch (Exception e) {
+                                entry.discard();
+                                throw e;
+                            }
+                            // The result is complete on stdout; failing to store it is not a query error
+                            try {
+                                entry.close();
+                            } catch (IOException e) {
+                                System.err.printf("Warning: result not cached: %s%n", e.getMessage());
                             }
-                            System.out.println();
                         }
                     }
                 } else {
                     int updateCount = stmt.getUpdateCount();
-                    if (!cleanOutput) {
+                    if (!clean) {
                         System.out.printf("Query executed successfully on database: %s%n", dbFile);
                     }
-                    System.out.printf("%d rows affected.%n", updateCount);
+                    if (!format.isMachineReadable()) {
+                        System.out.printf("%d rows affected.%n", updateCount);
+                    }
                 }
             } catch (Exception e) {
                 System.err.printf("Error executing query: %s%n", e.getMessage());
@@ -119,6 +249,513 @@ public class SQLiteClient implements Runnable {
 
             return 0;
         }
+
+        private static void printProfile(QueryProfiler.Profile profile) {
+            System.out.println("Query plan:");
+            for (QueryProfiler.PlanStep step : profile.plan) {
+                System.out.println("  " + "  ".repeat(step.depth) + step.detail);
+            }
+
+            int runs = profile.runs.size();
+            System.out.printf("%nTiming (%d run%s, ms):%n", runs, runs == 1 ? "" : "s");
+            System.out.printf("  %-10s %10s %10s %10s %10s%n", "Phase", "p50", "p95", "p99", "max");
+            printPhase("prepare", profile.runs.stream().mapToLong(run -> run.prepareNanos).toArray());
+            printPhase("first row", profile.runs.stream().mapToLong(run -> run.firstRowNanos).toArray());
+            printPhase("drain", profile.runs.stream().mapToLong(run -> run.drainNanos).toArray());
+            printPhase("total", profile.runs.stream().mapToLong(QueryProfiler.Run::totalNanos).toArray());
+
+            QueryProfiler.Run last = profile.runs.get(runs - 1);
+            System.out.printf("%nRows: %d, bytes: %d (%.0f rows/s, %.1f MB/s)%n", last.rows, last.bytes,
+                    last.rows / Math.max(last.totalNanos() / 1e9, 1e-9), last.bytes / 1e6 / Math.max(last.totalNanos() / 1e9, 1e-9));
+
+            System.out.println();
+            if (profile.advice.isEmpty()) {
+                System.out.println("No full scans of large tables found.");
+            } else {
+                System.out.println("Advice:");
+                profile.advice.forEach(advice -> System.out.println("  " + advice));
+            }
+        }
+
+        private static void printPhase(String phase, long[] nanos) {
+            Arrays.sort(nanos);
+            System.out.printf("  %-10s %10.3f %10.3f %10.3f %10.3f%n", phase, QueryProfiler.percentile(nanos, 0.50) / 1e6,
+                    QueryProfiler.percentile(nanos, 0.95) / 1e6, QueryProfiler.percentile(nanos, 0.99) / 1e6,
+                    QueryProfiler.percentile(nanos, 1.0) / 1e6);
+        }
+    }
+
+    @Command(name = "import", description = "Bulk-loads a CSV, TSV, JSON or NDJSON file into a table.")
+    static class ImportCommand implements Callable<Integer> {
+
+        @Option(names = { "-d", "--db" }, description = "Path to the SQLite database file (created if missing).", required = true)
+        private String dbFile;
+
+        @Option(names = { "-t", "--table" }, description = "Table to insert into; created with inferred column types if it does not exist.", required = true)
+        private String table;
+
+        @Option(names = { "-f", "--file" }, description = "Data file to import, or '-' for stdin.", required = true)
+        private String file;
+
+        @Option(names = { "--format" }, description = "Input format: csv, tsv, json or ndjson (default: from the file extension, csv for stdin).")
+        private String format;
+
+        @Option(names = { "--no-header" }, negatable = false, description = "The CSV/TSV input has no header line; values fill the table's columns in order.")
+        private boolean noHeader;
+
+        @Option(names = { "--batch-size" }, defaultValue = "10000", description = "Rows sent to the database per batch (default: ${DEFAULT-VALUE}).")
+        private int batchSize;
+
+        @Option(names = { "--commit-every" }, defaultValue = "0", description = "Commit after this many rows; 0 imports everything in one transaction (default: ${DEFAULT-VALUE}).")
+        private long commitEvery;
+
+        @Option(names = { "-c", "--clean" }, description = "Output only the number of imported rows.")
+        private boolean cleanOutput;
+
+        @Override
+        public Integer call() {
+            boolean stdin = "-".equals(file);
+            if (!stdin && !Files.isRegularFile(Path.of(file))) {
+                System.err.printf("Error: Data file %s not found.%n", file);
+                return 1;
+            }
+
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 InputStream in = stdin ? System.in : Files.newInputStream(Path.of(file))) {
+
+                ResultRenderer.Format inputFormat = ResultRenderer.Format.forName(format != null ? format : stdin ? "csv" : extension(file));
+                BulkImporter.Result result = new BulkImporter(conn)
+                        .batchSize(batchSize)
+                        .commitEvery(commitEvery)
+                        .header(!noHeader)
+                        .importRows(in, inputFormat, table);
+
+                if (cleanOutput) {
+                    System.out.println(result.rows);
+                } else {
+                    System.out.printf("Imported %d rows into %s%s in %.2f s (%.0f rows/s).%n", result.rows, table,
+                            result.tableCreated ? " (table created)" : "", result.elapsedNanos / 1e9, result.rowsPerSecond());
+                }
+            } catch (Exception e) {
+                System.err.printf("Error importing data: %s%n", e.getMessage());
+                return 1;
+            }
+
+            return 0;
+        }
+
+        private static String extension(String file) {
+            int dot = file.lastIndexOf('.');
+            if (dot < 0) {
+                throw new IllegalArgumentException("Cannot tell the format of " + file + "; use --format.");
+            }
+            return file.substring(dot + 1);
+        }
+    }
+
+    @Command(name = "shell", description = "Runs SQL interactively or from a script on one open connection.")
+    static class ShellCommand implements Callable<Integer> {
+
+        @Option(names = { "-d", "--db" }, description = "Path to the SQLite database file (created if missing).", required = true)
+        private String dbFile;
+
+        @Option(names = { "-f", "--file" }, description = "Script of statements and dot-commands to run instead of reading stdin.")
+        private String script;
+
+        @Option(names = { "-m", "--mode" }, defaultValue = "text", description = "Initial output format: text, csv, tsv, json or ndjson (default: ${DEFAULT-VALUE}).")
+        private String mode;
+
+        // Declared by its negative name: picocli inverts negatable options that default to true
+        @Option(names = { "--no-timer" }, negatable = true, description = "Print the time and rows/s of each statement to stderr; on by default, --no-timer turns it off.")
+        private boolean noTimer;
+
+        @Option(names = { "--statement-cache" }, defaultValue = "100", description = "Number of prepared statements kept open (default: ${DEFAULT-VALUE}).")
+        private int statementCache;
+
+        @Option(names = { "--bail" }, description = "Stop at the first error.")
+        private boolean bail;
+
+        @Override
+        public Integer call() {
+            if (script != null && !Files.isRegularFile(Path.of(script))) {
+                System.err.printf("Error: Script file %s not found.%n", script);
+                return 1;
+            }
+
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 BufferedReader in = script != null
+                         ? Files.newBufferedReader(Path.of(script), StandardCharsets.UTF_8)
+                         : new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+
+                SqlShell shell = new SqlShell(conn, statementCache)
+                        .mode(ResultRenderer.Format.forName(mode))
+                        .timer(!noTimer)
+                        .bail(bail);
+                boolean interactive = script == null && System.console() != null;
+                if (interactive) {
+                    System.out.printf("Connected to %s. Enter \".help\" for commands.%n", dbFile);
+                }
+                try {
+                    return shell.run(in, interactive) == 0 ? 0 : 1;
+                } finally {
+                    shell.close();
+                }
+            } catch (Exception e) {
+                System.err.printf("Error: %s%n", e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "batch", description = "Runs independent read-only queries in parallel on a pool of connections.")
+    static class BatchCommand implements Callable<Integer> {
+
+        @Option(names = { "-d", "--db" }, description = "Path to the SQLite database file.", required = true)
+        private String dbFile;
+
+        @Option(names = { "-q", "--queries" }, description = "File of SQL queries separated by semicolons.", required = true)
+        private String queriesFile;
+
+        @Option(names = { "-p", "--parallel" }, defaultValue = "0", description = "Number of queries run at once (default: all CPU cores).")
+        private int parallel;
+
+        @Option(names = { "-o", "--output-dir" }, description = "Write each result to its own file in this folder instead of one NDJSON stream on stdout.")
+        private String outputDir;
+
+        @Option(names = { "-f", "--output-format" }, defaultValue = "csv", description = "Format of the result files: text, csv, tsv, json, ndjson, yaml or xml (default: ${DEFAULT-VALUE}).")
+        private String outputFormat;
+
+        @Option(names = { "--mmap-size" }, defaultValue = "256", description = "MiB of the database file each connection memory-maps (default: ${DEFAULT-VALUE}).")
+        private long mmapSizeMb;
+
+        @Option(names = { "--wal" }, description = "Switch the database to WAL mode first, so the queries never wait for writers.")
+        private boolean wal;
+
+        @Option(names = { "-c", "--clean" }, description = "Do not print the latency summary.")
+        private boolean cleanOutput;
+
+        @Override
+        public Integer call() {
+            if (!Files.exists(Path.of(dbFile))) {
+                System.err.printf("Error: Database file %s not found.%n", dbFile);
+                return 1;
+            }
+            if (!Files.isRegularFile(Path.of(queriesFile))) {
+                System.err.printf("Error: Queries file %s not found.%n", queriesFile);
+                return 1;
+            }
+
+            try {
+                String journalMode = wal ? BatchQueryRunner.enableWal(dbFile) : BatchQueryRunner.journalMode(dbFile);
+                if (!wal && !"wal".equals(journalMode) && !cleanOutput) {
+                    System.err.printf("Note: %s is in %s journal mode; queries wait while another process writes. Use --wal to switch.%n",
+                            dbFile, journalMode);
+                }
+
+                int threads = parallel > 0 ? parallel : Runtime.getRuntime().availableProcessors();
+                BatchQueryRunner runner = new BatchQueryRunner(dbFile, threads).mmapSize(mmapSizeMb * 1024 * 1024);
+                long start = System.nanoTime();
+                List<BatchQueryRunner.QueryResult> results;
+                try (InputStream script = Files.newInputStream(Path.of(queriesFile))) {
+                    results = outputDir != null
+                            ? runner.runToFiles(script, Path.of(outputDir), ResultRenderer.Format.forName(outputFormat))
+                            : runner.runToStream(script, System.out);
+                }
+                long elapsed = System.nanoTime() - start;
+
+                if (!cleanOutput) {
+                    // The summary must not mix with the NDJSON rows on stdout
+                    printSummary(outputDir != null ? System.out : System.err, results, threads, elapsed);
+                }
+                return results.stream().allMatch(result -> result.error == null) ? 0 : 1;
+            } catch (Exception e) {
+                System.err.printf("Error running queries: %s%n", e.getMessage());
+                return 1;
+            }
+        }
+
+        private static void printSummary(PrintStream out, List<BatchQueryRunner.QueryResult> results, int threads, long elapsedNanos) {
+            out.printf("%5s %6s %10s %10s %12s  %s%n", "Query", "Line", "Rows", "ms", "rows/s", "SQL");
+            long[] latencies = new long[results.size()];
+            long totalRows = 0;
+            for (int i = 0; i < results.size(); i++) {
+                BatchQueryRunner.QueryResult result = results.get(i);
+                latencies[i] = result.elapsedNanos;
+                totalRows += result.rows;
+                String sql = result.sql.replaceAll("\\s+", " ");
+                sql = sql.length() > 60 ? sql.substring(0, 57) + "..." : sql;
+                if (result.error != null) {
+                    out.printf("%5d %6d %10s %10.1f %12s  %s%n      Error: %s%n", result.index, result.line, "-",
+                            result.elapsedNanos / 1e6, "-", sql, result.error);
+                } else {
+                    out.printf("%5d %6d %10d %10.1f %12.0f  %s%n", result.index, result.line, result.rows,
+                            result.elapsedNanos / 1e6, result.rows / Math.max(result.elapsedNanos / 1e9, 1e-9), sql);
+                }
+            }
+            Arrays.sort(latencies);
+            long failed = results.stream().filter(result -> result.error != null).count();
+            out.printf("%d queries (%d failed), %d rows in %.2f s on %d connections; latency p50 %.1f ms, p95 %.1f ms, max %.1f ms%n",
+                    results.size(), failed, totalRows, elapsedNanos / 1e9, Math.min(threads, Math.max(results.size(), 1)),
+                    QueryProfiler.percentile(latencies, 0.50) / 1e6, QueryProfiler.percentile(latencies, 0.95) / 1e6,
+                    QueryProfiler.percentile(latencies, 1.0) / 1e6);
+        }
+    }
+
+    @Command(name = "export", description = "Streams a table or query result to a CSV, TSV, JSON, NDJSON, YAML or XML file.")
+    static class ExportCommand implements Callable<Integer> {
+
+        @Option(names = { "-d", "--db" }, description = "Path to the SQLite database file.", required = true)
+        private String dbFile;
+
+        @ArgGroup(exclusive = true, multiplicity = "1")
+        private Source source;
+
+        static class Source {
+            @Option(names = { "-q", "--query" }, description = "SQL query whose result is exported.", required = true)
+            private String query;
+
+            @Option(names = { "-t", "--table" }, description = "Table to export.", required = true)
+            private String table;
+        }
+
+        @Option(names = { "--format" }, description = "Output format: csv, tsv, json, ndjson, yaml or xml (default: from the output file extension, csv for stdout).")
+        private String format;
+
+        @Option(names = { "-o", "--output" }, description = "Output file (default: stdout).")
+        private String output;
+
+        @Option(names = { "--split-size" }, converter = ByteSize.Converter.class, description = "Continue in a new numbered part once a file reaches this size, e.g. 512M or 2G (requires --output).")
+        private Long splitSize;
+
+        @Option(names = { "--fetch-size" }, defaultValue = "10000", description = "Number of rows the driver fetches at a time (default: ${DEFAULT-VALUE}).")
+        private int fetchSize;
+
+        @Option(names = { "-c", "--clean" }, description = "Do not print the summary.")
+        private boolean cleanOutput;
+
+        @Override
+        public Integer call() {
+            if (!Files.exists(Path.of(dbFile))) {
+                System.err.printf("Error: Database file %s not found.%n", dbFile);
+                return 1;
+            }
+            if (splitSize != null && output == null) {
+                System.err.println("Error: --split-size requires --output.");
+                return 1;
+            }
+
+            try {
+                ResultRenderer.Format outputFormat = ResultRenderer.Format.forName(format != null ? format
+                        : output != null ? ImportCommand.extension(output) : "csv");
+                if (!outputFormat.isMachineReadable()) {
+                    System.err.println("Error: export writes csv, tsv, json, ndjson, yaml or xml.");
+                    return 1;
+                }
+                ResultExporter exporter = new ResultExporter(outputFormat)
+                        .splitSize(splitSize != null ? splitSize : 0);
+                String sql = source.query != null ? source.query : "SELECT * FROM \"" + source.table.replace("\"", "\"\"") + "\"";
+
+                ResultExporter.Result result;
+                try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                     Statement stmt = conn.createStatement()) {
+                    stmt.setFetchSize(fetchSize);
+                    try (ResultSet rs = stmt.executeQuery(sql)) {
+                        result = output != null ? exporter.export(rs, Path.of(output)) : exporter.export(rs, System.out);
+                    }
+                }
+
+                if (!cleanOutput) {
+                    // The summary must not mix with the exported rows on stdout
+                    PrintStream out = output != null ? System.out : System.err;
+                    out.printf("Exported %d rows (%.1f MB) in %.2f s: %.0f rows/s, %.1f MB/s%n", result.rows, result.bytes / 1e6,
+                            result.elapsedNanos / 1e9, result.rowsPerSecond(), result.bytesPerSecond() / 1e6);
+                    result.files.forEach(file -> out.println("  " + file));
+                }
+                return 0;
+            } catch (Exception e) {
+                System.err.printf("Error exporting data: %s%n", e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(name = "bench", description = "Compares PRAGMA profiles on synthetic or recorded workloads.")
+    static class BenchCommand implements Callable<Integer> {
+
+        @Option(names = { "--profiles" }, split = ",", description = "PRAGMA profiles to compare (default: all built-in profiles). Inline profiles use ';' between settings, e.g. 'page_size=8192;cache_size=-32768'.")
+        private List<String> profiles;
+
+        @Option(names = { "--workloads" }, split = ",", description = "Workloads to run: insert, lookup, scan, mixed (default: all four, or only the script with --script).")
+        private List<String> workloads;
+
+        @Option(names = { "--script" }, description = "Recorded workload: a SQL file whose statements are timed one by one on an empty database.")
+        private String script;
+
+        @Option(names = { "--rows" }, defaultValue = "100000", description = "Rows in the synthetic table (default: ${DEFAULT-VALUE}).")
+        private int rows;
+
+        @Option(names = { "--ops" }, defaultValue = "10000", description = "Lookups and mixed operations per profile; scans run a hundredth as many (default: ${DEFAULT-VALUE}).")
+        private int ops;
+
+        @Option(names = { "--threads" }, defaultValue = "4", description = "Connections of the mixed read/write workload (default: ${DEFAULT-VALUE}).")
+        private int threads;
+
+        @Option(names = { "--seed" }, defaultValue = "42", description = "Seed of the generated data, so runs are repeatable (default: ${DEFAULT-VALUE}).")
+        private long seed;
+
+        @Option(names = { "--dir" }, description = "Directory for the benchmark databases (default: system temp directory). Use the file system the real databases live on.")
+        private String workDir;
+
+        @Override
+        public Integer call() {
+            try {
+                List<PragmaProfile> selected = profiles == null ? PragmaProfile.builtIn()
+                        : profiles.stream().map(PragmaProfile::forName).toList();
+                List<WorkloadBenchmark.Workload> selectedWorkloads = new ArrayList<>();
+                if (workloads != null) {
+                    workloads.forEach(workload -> selectedWorkloads.add(WorkloadBenchmark.Workload.forName(workload)));
+                } else if (script == null) {
+                    selectedWorkloads.addAll(List.of(WorkloadBenchmark.Workload.INSERT, WorkloadBenchmark.Workload.LOOKUP,
+                            WorkloadBenchmark.Workload.SCAN, WorkloadBenchmark.Workload.MIXED));
+                }
+                if (script != null) {
+                    if (!Files.isRegularFile(Path.of(script))) {
+                        System.err.printf("Error: Script file %s not found.%n", script);
+                        return 1;
+                    }
+                    if (!selectedWorkloads.contains(WorkloadBenchmark.Workload.SCRIPT)) {
+                        selectedWorkloads.add(WorkloadBenchmark.Workload.SCRIPT);
+                    }
+                }
+
+                Path dir = workDir != null ? Path.of(workDir) : Path.of(System.getProperty("java.io.tmpdir"));
+                WorkloadBenchmark benchmark = new WorkloadBenchmark(dir).rows(rows).ops(ops).threads(threads).seed(seed);
+                if (script != null) {
+                    benchmark.script(Path.of(script));
+                }
+                printResults(benchmark.run(selected, selectedWorkloads), selected, selectedWorkloads);
+                return 0;
+            } catch (Exception e) {
+                System.err.printf("Error running benchmark: %s%n", e.getMessage());
+                return 1;
+            }
+        }
+
+        private static void printResults(List<WorkloadBenchmark.Result> results, List<PragmaProfile> profiles,
+                                         List<WorkloadBenchmark.Workload> workloads) {
+            int width = Math.max(7, profiles.stream().mapToInt(profile -> profile.name.length()).max().orElse(0));
+            System.out.printf("%-8s %-" + width + "s %12s %10s %10s %10s %8s%n", "Workload", "Profile", "ops/s", "p50 ms", "p95 ms",
+                    "p99 ms", "Errors");
+            for (WorkloadBenchmark.Workload workload : workloads) {
+                List<WorkloadBenchmark.Result> rows = results.stream().filter(result -> result.workload == workload).toList();
+                double best = rows.stream().mapToDouble(WorkloadBenchmark.Result::opsPerSecond).max().orElse(0);
+                for (WorkloadBenchmark.Result result : rows) {
+                    System.out.printf("%-8s %-" + width + "s %12.0f %10.3f %10.3f %10.3f %8d%s%n", workload, result.profile.name,
+                            result.opsPerSecond(), result.latency(0.50) / 1e6, result.latency(0.95) / 1e6, result.latency(0.99) / 1e6,
+                            result.errors, result.opsPerSecond() == best && rows.size() > 1 ? "  *" : "");
+                }
+            }
+            System.out.printf("%n* fastest profile per workload. insert is measured in rows/s with latency per %d-row commit.%n",
+                    WorkloadBenchmark.INSERT_BATCH);
+            System.out.println("\nProfiles:");
+            for (PragmaProfile profile : profiles) {
+                System.out.printf("  %-" + width + "s %s%n", profile.name, profile.spec());
+            }
+            System.out.println("\nApply one with --pragma-profile NAME on create-db or query, e.g.:");
+            System.out.println("  qbox sqlite create-db schema.sql -o database.db --pragma-profile NAME");
+        }
+    }
+
+    @Command(name = "sync", description = "Brings a target database up to date with a source database, changing only the rows that differ.")
+    static class SyncCommand implements Callable<Integer> {
+
+        @Option(names = { "--source" }, description = "Database to copy changes from (only read).", required = true)
+        private String sourceFile;
+
+        @Option(names = { "--target" }, description = "Database to update; created if it does not exist.", required = true)
+        private String targetFile;
+
+        @Option(names = { "--tables" }, split = ",", description = "Tables to synchronize (default: every table of the source).")
+        private List<String> tables;
+
+        @Option(names = { "--chunk-size" }, defaultValue = "4096", description = "Source rows hashed as one range; only ranges whose hashes differ are narrowed down (default: ${DEFAULT-VALUE}).")
+        private int chunkSize;
+
+        @Option(names = { "--changeset" }, description = "Also write the changes as a SQL script, to be applied to another copy of the target with 'create-db --transaction-size 0'. Not written if the sync stops on an error.")
+        private String changeset;
+
+        @Option(names = { "--dry-run" }, description = "Only compare (and write the changeset); leave the target unchanged.")
+        private boolean dryRun;
+
+        @Option(names = { "-c", "--clean" }, description = "Do not print the summary.")
+        private boolean cleanOutput;
+
+        @Override
+        public Integer call() {
+            if (!Files.exists(Path.of(sourceFile))) {
+                System.err.printf("Error: Database file %s not found.%n", sourceFile);
+                return 1;
+            }
+            if (dryRun && !Files.exists(Path.of(targetFile))) {
+                System.err.printf("Error: Database file %s not found.%n", targetFile);
+                return 1;
+            }
+
+            long start = System.nanoTime();
+            List<TableSync.TableResult> results = new ArrayList<>();
+            try (Connection source = TableSync.openSource(sourceFile);
+                 Connection target = DriverManager.getConnection("jdbc:sqlite:" + targetFile)) {
+                TableSync sync = new TableSync(source, target).chunkSize(chunkSize).apply(!dryRun);
+                List<String> selected = tables != null ? tables : sync.sourceTables();
+                if (changeset == null) {
+                    results.addAll(sync.sync(selected));
+                } else {
+                    // Moved into place only once the sync succeeded, so a failed run never leaves a
+                    // partial changeset that would be applied as if it were complete
+                    AtomicFiles.writeFile(Path.of(changeset), tempFile -> {
+                        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                            results.addAll(sync.changeset(writer).sync(selected));
+                        }
+                    });
+                }
+            } catch (Exception e) {
+                System.err.printf("Error synchronizing databases: %s%n", e.getMessage());
+                return 1;
+            }
+
+            boolean failed = false;
+            for (TableSync.TableResult result : results) {
+                if (result.error != null) {
+                    System.err.printf("Error: Table %s: %s%n", result.table, result.error);
+                    failed = true;
+                }
+            }
+            if (!cleanOutput) {
+                printResults(results, System.nanoTime() - start);
+            }
+            return failed ? 1 : 0;
+        }
+
+        private void printResults(List<TableSync.TableResult> results, long elapsedNanos) {
+            int width = Math.max(5, results.stream().mapToInt(result -> result.table.length()).max().orElse(0));
+            System.out.printf("%-" + width + "s %12s %10s %10s %10s %10s %10s%n", "Table", "Rows", "Ranges", "Differing", "Inserted",
+                    "Updated", "Deleted");
+            long changes = 0;
+            for (TableSync.TableResult result : results) {
+                if (result.error == null) {
+                    System.out.printf("%-" + width + "s %12d %10d %10d %10d %10d %10d%s%n", result.table, result.sourceRows,
+                            result.rangesHashed, result.rangesDiffering, result.inserted, result.updated, result.deleted,
+                            result.created ? "  (created)" : "");
+                    changes += result.changes();
+                }
+            }
+            System.out.printf("%n%d changes %s in %.2f s.%n", changes, dryRun ? "found (dry run, target unchanged)" : "applied",
+                    elapsedNanos / 1e9);
+            if (changeset != null) {
+                System.out.println("Changeset written to " + changeset + "; apply it in one transaction with:");
+                System.out.println("  qbox sqlite create-db " + changeset + " -o TARGET.db --transaction-size 0");
+            }
+        }
     }
 
     @Command(name = "examples", description = "Show usage examples for the SQLite client.")
@@ -131,6 +768,8 @@ public class SQLiteClient implements Runnable {
             // Create database examples
             System.out.println("1. Create a SQLite database from a schema file:");
             System.out.println("   $ qbox sqlite create-db schema.sql -o database.db");
+            System.out.println("   Restore a large dump, committing every 50000 statements:");
+            System.out.println("   $ qbox sqlite create-db dump.sql -o database.db --transaction-size 50000");
             System.out.println();
 
             // Query examples
@@ -145,6 +784,47 @@ public class SQLiteClient implements Runnable {
             System.out.println("4. Use clean output mode for SELECT queries:");
             System.out.println("   $ qbox sqlite query -d database.db -q \"SELECT name FROM users;\" -c");
             System.out.println();
+
+            System.out.println("5. Stream a large result as CSV or newline-delimited JSON:");
+            System.out.println("   $ qbox sqlite query -d database.db -q \"SELECT * FROM events;\" --output-format csv > events.csv");
+            System.out.println("   $ qbox sqlite query -d database.db -q \"SELECT * FROM events;\" --output-format ndjson --fetch-size 10000 | jq .id");
+            System.out.println("   Cache the result of an expensive report until the database changes:");
+            System.out.println("   $ qbox sqlite query -d database.db -q \"SELECT day, count(*) FROM events GROUP BY day;\" --cache -f csv");
+            System.out.println("   Profile a slow query: plan, timing breakdown over 20 runs and index advice:");
+            System.out.println("   $ qbox sqlite query -d database.db -q \"SELECT * FROM events WHERE user_id = 42;\" --profile --repeat 20");
+            System.out.println();
+
+            System.out.println("6. Bulk-import a CSV or NDJSON file, creating the table if needed:");
+            System.out.println("   $ qbox sqlite import -d database.db --table events --file events.csv");
+            System.out.println("   $ gunzip -c events.ndjson.gz | qbox sqlite import -d database.db --table events --file - --format ndjson");
+            System.out.println();
+
+            System.out.println("7. Open an interactive shell, or run a script of statements and dot-commands on one connection:");
+            System.out.println("   $ qbox sqlite shell -d database.db");
+            System.out.println("   $ qbox sqlite shell -d database.db -f report.sql --mode csv --no-timer");
+            System.out.println();
+
+            System.out.println("8. Run a file of reporting queries 8 at a time, one result file per query:");
+            System.out.println("   $ qbox sqlite batch -d database.db --queries reports.sql --parallel 8 --output-dir ./reports");
+            System.out.println();
+
+            System.out.println("9. Export a table or query result, splitting large output into 512 MB parts:");
+            System.out.println("   $ qbox sqlite export -d database.db --table events -o events.ndjson --split-size 512M");
+            System.out.println("   $ qbox sqlite export -d database.db -q \"SELECT id, name FROM users;\" --format xml -o users.xml");
+            System.out.println();
+
+            System.out.println("10. Compare PRAGMA profiles on this machine, then build a database with the fastest one:");
+            System.out.println("   $ qbox sqlite bench --rows 200000 --threads 8 --dir /data");
+            System.out.println("   $ qbox sqlite bench --profiles default,wal,'page_size=8192;journal_mode=WAL' --script workload.sql");
+            System.out.println("   $ qbox sqlite create-db schema.sql -o database.db --pragma-profile wal-mmap");
+            System.out.println();
+
+            System.out.println("11. Update a copy of a database with only the rows that changed, and keep the changes for other copies:");
+            System.out.println("   $ qbox sqlite sync --source master.db --target replica.db --changeset changes.sql");
+            System.out.println("   $ qbox sqlite create-db changes.sql -o edge.db --transaction-size 0");
+            System.out.println("   Preview the changes without touching the target:");
+            System.out.println("   $ qbox sqlite sync --source master.db --target replica.db --dry-run");
+            System.out.println();
         }
     }
 }
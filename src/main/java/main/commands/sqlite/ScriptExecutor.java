@@ -0,0 +1,204 @@
+package main.commands.sqlite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Executes a SQL script statement by statement as it is read, committing every
+ * {@code transactionSize} statements instead of running each one in its own auto-commit
+ * transaction. Memory use does not depend on the size of the script.
+ *
+ * <p>The script's own {@code BEGIN}/{@code COMMIT} statements (as written by {@code sqlite3 .dump})
+ * are skipped, since the executor manages the transactions. Statements that cannot run inside a
+ * transaction ({@code PRAGMA}, {@code VACUUM}, {@code ATTACH}, {@code DETACH}) are executed
+ * between batches.
+ *
+ * <p>{@code SAVEPOINT}, {@code RELEASE} and {@code ROLLBACK TO} run inside the current batch, which
+ * is not committed while a savepoint is open. A plain {@code ROLLBACK} is rejected: earlier batches
+ * are already committed, so it could not undo what the script expects.
+ */
+public class ScriptExecutor {
+
+    static final int DEFAULT_TRANSACTION_SIZE = 10_000;
+    static final long DEFAULT_PROGRESS_INTERVAL_NANOS = 2_000_000_000L;
+
+    private static final Set<String> TRANSACTION_CONTROL = Set.of("BEGIN", "COMMIT", "END");
+    private static final Set<String> OUTSIDE_TRANSACTION = Set.of("PRAGMA", "VACUUM", "ATTACH", "DETACH");
+    private static final Pattern SAVEPOINT = Pattern.compile("(?is)SAVEPOINT\\s+(\\S+?)\\s*;?\\s*");
+    private static final Pattern RELEASE = Pattern.compile("(?is)RELEASE\\s+(?:SAVEPOINT\\s+)?(\\S+?)\\s*;?\\s*");
+    private static final Pattern ROLLBACK_TO = Pattern.compile("(?is)ROLLBACK\\s+(?:TRANSACTION\\s+)?TO\\b.*");
+
+    /**
+     * Receives progress while the script runs.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void progress(Progress progress);
+    }
+
+    /**
+     * Progress of a script execution.
+     */
+    public static final class Progress {
+        public final long statements;
+        public final long bytes;
+        public final long elapsedNanos;
+
+        Progress(long statements, long bytes, long elapsedNanos) {
+            this.statements = statements;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return the number of statements executed per second.
+         */
+        public double statementsPerSecond() {
+            return statements / Math.max(elapsedNanos / 1e9, 1e-9);
+        }
+
+        /**
+         * @return the number of script bytes processed per second.
+         */
+        public double bytesPerSecond() {
+            return bytes / Math.max(elapsedNanos / 1e9, 1e-9);
+        }
+    }
+
+    private final Connection conn;
+    private int transactionSize = DEFAULT_TRANSACTION_SIZE;
+    private long progressIntervalNanos = DEFAULT_PROGRESS_INTERVAL_NANOS;
+    private ProgressListener listener;
+
+    /**
+     * Create an executor. The connection must be in auto-commit mode and is returned in it.
+     *
+     * @param conn the database connection.
+     */
+    public ScriptExecutor(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * @param transactionSize the number of statements per transaction; 0 to run the whole script in one.
+     */
+    public ScriptExecutor transactionSize(int transactionSize) {
+        if (transactionSize < 0) {
+            throw new IllegalArgumentException("Transaction size must not be negative.");
+        }
+        this.transactionSize = transactionSize;
+        return this;
+    }
+
+    /**
+     * @param listener called about every {@code intervalNanos} while the script runs.
+     */
+    public ScriptExecutor progress(ProgressListener listener, long intervalNanos) {
+        this.listener = listener;
+        this.progressIntervalNanos = intervalNanos;
+        return this;
+    }
+
+    /**
+     * Execute every statement of a script.
+     *
+     * @param script the UTF-8 script; it is read to the end and closed.
+     * @return the statements executed and bytes read.
+     * @throws SQLException if a statement fails; the statements of its transaction are rolled back
+     *                      and the message names the statement and its line.
+     * @throws IOException  if the script cannot be read or ends inside a literal or comment.
+     */
+    public Progress execute(InputStream script) throws SQLException, IOException {
+        long start = System.nanoTime();
+        long nextReport = start + progressIntervalNanos;
+        long statements = 0;
+        int inTransaction = 0;
+        // Savepoint names, innermost first; a commit would release them, so batches wait until they are closed
+        Deque<String> savepoints = new ArrayDeque<>();
+
+        try (SqlStatementReader reader = new SqlStatementReader(script);
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            String sql;
+            while ((sql = reader.next()) != null) {
+                String keyword = reader.firstWord();
+                if (TRANSACTION_CONTROL.contains(keyword)) {
+                    continue;
+                }
+                if (keyword.equals("ROLLBACK") && !ROLLBACK_TO.matcher(sql).matches()) {
+                    throw new SQLException(String.format("Statement %d (line %d) failed: ROLLBACK is not supported, since earlier "
+                            + "statements are already committed in batches; remove it, or use SAVEPOINT and ROLLBACK TO.",
+                            statements + 1, reader.line()));
+                }
+                trackSavepoint(keyword, sql, savepoints);
+                boolean outside = OUTSIDE_TRANSACTION.contains(keyword) && savepoints.isEmpty();
+                try {
+                    if (outside) {
+                        conn.commit();
+                        conn.setAutoCommit(true);
+                        inTransaction = 0;
+                    }
+                    stmt.execute(sql);
+                    if (outside) {
+                        conn.setAutoCommit(false);
+                    }
+                } catch (SQLException e) {
+                    throw new SQLException(String.format("Statement %d (line %d) failed: %s", statements + 1, reader.line(),
+                            e.getMessage()), e.getSQLState(), e.getErrorCode(), e);
+                }
+                statements++;
+
+                if (!outside && transactionSize > 0 && ++inTransaction >= transactionSize && savepoints.isEmpty()) {
+                    conn.commit();
+                    inTransaction = 0;
+                }
+                if (listener != null && (statements & 0xFF) == 0 && System.nanoTime() >= nextReport) {
+                    listener.progress(new Progress(statements, reader.bytesRead(), System.nanoTime() - start));
+                    nextReport = System.nanoTime() + progressIntervalNanos;
+                }
+            }
+            conn.commit();
+            return new Progress(statements, reader.bytesRead(), System.nanoTime() - start);
+        } catch (SQLException | IOException | RuntimeException e) {
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+            }
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static void trackSavepoint(String keyword, String sql, Deque<String> savepoints) {
+        Matcher matcher;
+        if (keyword.equals("SAVEPOINT") && (matcher = SAVEPOINT.matcher(sql)).matches()) {
+            savepoints.push(savepointName(matcher.group(1)));
+        } else if (keyword.equals("RELEASE") && (matcher = RELEASE.matcher(sql)).matches()) {
+            // Releasing a savepoint also releases every savepoint opened after it
+            String name = savepointName(matcher.group(1));
+            if (savepoints.contains(name)) {
+                String released;
+                do {
+                    released = savepoints.pop();
+                } while (!released.equals(name));
+            }
+        }
+    }
+
+    private static String savepointName(String token) {
+        String name = token;
+        if (name.length() >= 2 && "\"'`[".indexOf(name.charAt(0)) >= 0) {
+            name = name.substring(1, name.length() - 1);
+        }
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
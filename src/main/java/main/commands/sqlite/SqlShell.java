@@ -0,0 +1,268 @@
+package main.commands.sqlite;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An interactive or script-driven SQL shell on one open connection. Prepared statements are cached
+ * by their SQL text, so repeating a statement skips parsing and planning, and SQLite's page cache
+ * stays warm between statements.
+ *
+ * <p>Input is read line by line; a statement runs once a line completes it with a semicolon. Lines
+ * starting with a dot outside a statement are shell commands: {@code .timer}, {@code .mode},
+ * {@code .read}, {@code .cache}, {@code .help} and {@code .quit}.
+ */
+public class SqlShell {
+
+    private static final String PROMPT = "sqlite> ";
+    private static final String CONTINUATION_PROMPT = "   ...> ";
+
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements;
+    private ResultRenderer.Format mode = ResultRenderer.Format.TEXT;
+    private boolean timer = true;
+    private boolean bail;
+    private boolean quit;
+    private long errors;
+    private long cacheHits;
+    private long cacheMisses;
+
+    /**
+     * Create a shell.
+     *
+     * @param conn          the connection every statement runs on.
+     * @param cacheCapacity the number of prepared statements kept open; the least recently used is closed first.
+     */
+    public SqlShell(Connection conn, int cacheCapacity) {
+        this.conn = conn;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= cacheCapacity) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param bail whether to stop at the first failing statement.
+     */
+    public SqlShell bail(boolean bail) {
+        this.bail = bail;
+        return this;
+    }
+
+    /**
+     * @param mode the initial output format, changed with {@code .mode}.
+     */
+    public SqlShell mode(ResultRenderer.Format mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * @param timer whether to print the time and rows/s of each statement, changed with {@code .timer}.
+     */
+    public SqlShell timer(boolean timer) {
+        this.timer = timer;
+        return this;
+    }
+
+    /**
+     * Run statements and shell commands until the input ends or {@code .quit}.
+     *
+     * @param in          the input.
+     * @param interactive whether to show prompts.
+     * @return the number of statements and commands that failed.
+     * @throws IOException if the input cannot be read.
+     */
+    public long run(BufferedReader in, boolean interactive) throws IOException {
+        StringBuilder pending = new StringBuilder();
+        String line;
+        while (!quit && !(bail && errors > 0)) {
+            if (interactive) {
+                System.out.print(pending.length() == 0 ? PROMPT : CONTINUATION_PROMPT);
+                System.out.flush();
+            }
+            if ((line = in.readLine()) == null) {
+                break;
+            }
+            if (pending.length() == 0 && line.stripLeading().startsWith(".")) {
+                command(line.strip());
+                continue;
+            }
+            pending.append(line).append('\n');
+            // A statement can only be complete once a semicolon has been typed
+            if (line.indexOf(';') >= 0) {
+                executeComplete(pending);
+            }
+        }
+        if (pending.length() > 0 && !quit && !(bail && errors > 0)) {
+            executeRemainder(pending);
+        }
+        return errors;
+    }
+
+    /**
+     * Close every cached statement.
+     */
+    public void close() {
+        statements.values().forEach(SqlShell::closeQuietly);
+        statements.clear();
+    }
+
+    // Execute the complete statements at the start of pending and leave any unfinished remainder
+    private void executeComplete(StringBuilder pending) {
+        int executed = 0;
+        try (SqlStatementReader reader = new SqlStatementReader(new StringReader(pending.toString()))) {
+            String sql;
+            while ((sql = reader.next()) != null && reader.terminated()) {
+                execute(sql);
+                executed = (int) reader.charsRead();
+                if (bail && errors > 0) {
+                    pending.setLength(0);
+                    return;
+                }
+            }
+            if (sql == null) {
+                // Nothing left but whitespace and comments
+                pending.setLength(0);
+                return;
+            }
+        } catch (IOException e) {
+            // Inside a literal or comment: wait for more lines
+        }
+        // The statements before the remainder have run and must not run again with it
+        pending.delete(0, executed);
+    }
+
+    // At the end of the input: run a last statement missing its semicolon; trailing comments are ignored
+    private void executeRemainder(StringBuilder pending) {
+        try (SqlStatementReader reader = new SqlStatementReader(new StringReader(pending.toString()))) {
+            String sql;
+            while ((sql = reader.next()) != null && !(bail && errors > 0)) {
+                execute(sql);
+            }
+        } catch (IOException e) {
+            fail("Incomplete statement at the end of the input: " + e.getMessage());
+        }
+        pending.setLength(0);
+    }
+
+    /**
+     * Execute one statement through the statement cache and print its result.
+     *
+     * @param sql the statement.
+     */
+    void execute(String sql) {
+        long start = System.nanoTime();
+        try {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = conn.prepareStatement(sql);
+                statements.put(sql, stmt);
+                cacheMisses++;
+            } else {
+                cacheHits++;
+            }
+
+            long rows;
+            if (stmt.execute()) {
+                try (ResultSet rs = stmt.getResultSet()) {
+                    rows = ResultRenderer.render(rs, mode, true, System.out);
+                }
+            } else {
+                rows = stmt.getUpdateCount();
+            }
+            if (timer) {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.err.printf("Run Time: %.3f ms, %d rows (%.0f rows/s)%n", seconds * 1e3, Math.max(rows, 0),
+                        Math.max(rows, 0) / Math.max(seconds, 1e-9));
+            }
+        } catch (SQLException | IOException e) {
+            errors++;
+            System.err.println("Error: " + e.getMessage());
+            // A statement that failed to run may be left in a bad state; prepare it again next time
+            closeQuietly(statements.remove(sql));
+        }
+    }
+
+    private void command(String line) throws IOException {
+        String[] parts = line.split("\\s+", 2);
+        String argument = parts.length > 1 ? parts[1].strip() : "";
+        switch (parts[0].toLowerCase(Locale.ROOT)) {
+            case ".quit", ".exit" -> quit = true;
+            case ".timer" -> {
+                if (argument.equalsIgnoreCase("on") || argument.equalsIgnoreCase("off")) {
+                    timer = argument.equalsIgnoreCase("on");
+                } else {
+                    fail("Usage: .timer on|off");
+                }
+            }
+            case ".mode" -> {
+                if (argument.isEmpty()) {
+                    System.out.println("current output mode: " + mode.name().toLowerCase(Locale.ROOT));
+                } else {
+                    try {
+                        mode = ResultRenderer.Format.forName(argument);
+                    } catch (IllegalArgumentException e) {
+                        fail(e.getMessage());
+                    }
+                }
+            }
+            case ".read" -> {
+                if (argument.isEmpty()) {
+                    fail("Usage: .read FILE");
+                    return;
+                }
+                try (BufferedReader script = Files.newBufferedReader(Path.of(argument), StandardCharsets.UTF_8)) {
+                    run(script, false);
+                } catch (NoSuchFileException e) {
+                    fail("Cannot open " + argument);
+                }
+            }
+            case ".cache" -> System.out.printf("%d prepared statements cached, %d hits, %d misses%n",
+                    statements.size(), cacheHits, cacheMisses);
+            case ".help" -> {
+                System.out.println(".cache              Show prepared statement cache statistics");
+                System.out.println(".help               Show this message");
+                System.out.println(".mode [FORMAT]      Set the output format: text, csv, tsv, json, ndjson, yaml or xml");
+                System.out.println(".quit               Exit the shell (also .exit)");
+                System.out.println(".read FILE          Run the statements and commands in FILE");
+                System.out.println(".timer on|off       Print the time and rows/s of each statement");
+            }
+            default -> fail("Unknown command: " + parts[0] + ". Enter \".help\" for help.");
+        }
+    }
+
+    private void fail(String message) {
+        errors++;
+        System.err.println("Error: " + message);
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        if (stmt == null) {
+            return;
+        }
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // nothing to do; the statement is discarded either way
+        }
+    }
+}
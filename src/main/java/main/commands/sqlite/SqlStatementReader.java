@@ -0,0 +1,292 @@
+package main.commands.sqlite;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Splits a SQL script into statements while reading it, so scripts of any size can be executed
+ * with constant memory. Semicolons inside string literals, quoted identifiers, comments and
+ * {@code CREATE TRIGGER ... BEGIN ... END} bodies do not end a statement.
+ *
+ * <p>A trigger ends, as in SQLite's {@code sqlite3_complete()}, at the first {@code END} that
+ * directly follows a semicolon and is itself followed by one.
+ */
+public class SqlStatementReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int READER_BUFFER_SIZE = 4096;
+
+    private final CountingInputStream counter;
+    private final Reader reader;
+    private final char[] buffer;
+    private int position;
+    private int limit;
+
+    private final StringBuilder statement = new StringBuilder();
+    private final StringBuilder word = new StringBuilder();
+    private final String[] leadingWords = new String[3];
+    private int wordCount;
+    private boolean trigger;
+    private boolean afterSemicolon;
+    private boolean endPending;
+    private boolean terminated;
+
+    private long line = 1;
+    private long statementLine;
+    private long charsRead;
+
+    /**
+     * @param in the UTF-8 script; closed with this reader.
+     */
+    public SqlStatementReader(InputStream in) {
+        this.counter = new CountingInputStream(in);
+        this.reader = new InputStreamReader(counter, StandardCharsets.UTF_8);
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * @param reader the script, typically short text already in memory; closed with this reader.
+     *               {@link #bytesRead()} is not tracked.
+     */
+    public SqlStatementReader(Reader reader) {
+        this.counter = null;
+        this.reader = reader;
+        this.buffer = new char[READER_BUFFER_SIZE];
+    }
+
+    /**
+     * Read the next statement.
+     *
+     * @return the statement including its terminating semicolon (if any), or null at the end of the script.
+     * @throws IOException if reading fails or the script ends inside a literal or comment.
+     */
+    public String next() throws IOException {
+        statement.setLength(0);
+        word.setLength(0);
+        wordCount = 0;
+        trigger = false;
+        afterSemicolon = false;
+        endPending = false;
+        terminated = false;
+
+        int c;
+        while ((c = read()) >= 0) {
+            char ch = (char) c;
+            if (Character.isWhitespace(ch)) {
+                endWord();
+                if (statement.length() > 0) {
+                    statement.append(ch);
+                }
+                continue;
+            }
+            if (ch == '-' && peek() == '-') {
+                endWord();
+                skipLineComment();
+                continue;
+            }
+            if (ch == '/' && peek() == '*') {
+                endWord();
+                skipBlockComment();
+                continue;
+            }
+            if (statement.length() == 0) {
+                statementLine = line;
+            }
+            statement.append(ch);
+
+            if (ch == '\'' || ch == '"' || ch == '`') {
+                endWord();
+                quoted(ch);
+                token();
+            } else if (ch == '[') {
+                endWord();
+                quoted(']');
+                token();
+            } else if (Character.isLetterOrDigit(ch) || ch == '_' || ch == '$') {
+                word.append(ch);
+            } else if (ch == ';') {
+                endWord();
+                if (!trigger || endPending) {
+                    terminated = true;
+                    return statement.toString();
+                }
+                afterSemicolon = true;
+            } else {
+                endWord();
+                token();
+            }
+        }
+        endWord();
+        return statement.length() > 0 ? statement.toString() : null;
+    }
+
+    /**
+     * @return the line the statement last returned by {@link #next()} starts on.
+     */
+    public long line() {
+        return statementLine;
+    }
+
+    /**
+     * @return the first keyword of the statement last returned by {@link #next()}, upper case, or an empty string.
+     */
+    public String firstWord() {
+        return leadingWords[0] != null && wordCount > 0 ? leadingWords[0] : "";
+    }
+
+    /**
+     * @return true if the statement last returned by {@link #next()} was complete, i.e. ended with a
+     * semicolon rather than at the end of the script.
+     */
+    public boolean terminated() {
+        return terminated;
+    }
+
+    /**
+     * @return the number of characters of the script consumed so far, i.e. up to and including the
+     * semicolon of a statement just returned by {@link #next()}.
+     */
+    public long charsRead() {
+        return charsRead;
+    }
+
+    /**
+     * @return the number of bytes of the script read so far, or 0 if reading from a {@link Reader}.
+     */
+    public long bytesRead() {
+        return counter != null ? counter.count : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    // A token other than a word: an END before it no longer ends a trigger
+    private void token() {
+        afterSemicolon = false;
+        endPending = false;
+    }
+
+    private void endWord() {
+        if (word.length() == 0) {
+            return;
+        }
+        String keyword = word.toString().toUpperCase(Locale.ROOT);
+        word.setLength(0);
+        if (wordCount < leadingWords.length) {
+            leadingWords[wordCount] = keyword;
+            // CREATE [TEMP | TEMPORARY] TRIGGER
+            trigger |= "TRIGGER".equals(keyword) && "CREATE".equals(leadingWords[0])
+                    && (wordCount == 1 || wordCount == 2 && ("TEMP".equals(leadingWords[1]) || "TEMPORARY".equals(leadingWords[1])));
+        }
+        wordCount++;
+        endPending = afterSemicolon && "END".equals(keyword);
+        afterSemicolon = false;
+    }
+
+    private void quoted(char close) throws IOException {
+        long start = line;
+        int c;
+        while ((c = read()) >= 0) {
+            statement.append((char) c);
+            if (c == close) {
+                // A doubled quote is an escaped quote inside the literal
+                if (close != ']' && peek() == close) {
+                    statement.append((char) read());
+                    continue;
+                }
+                return;
+            }
+        }
+        throw new IOException("Unterminated quoted text starting on line " + start + ".");
+    }
+
+    private void skipLineComment() throws IOException {
+        int c;
+        while ((c = read()) >= 0 && c != '\n') {
+            // skip
+        }
+        if (statement.length() > 0) {
+            statement.append('\n');
+        }
+    }
+
+    private void skipBlockComment() throws IOException {
+        long start = line;
+        read();
+        int previous = 0;
+        int c;
+        while ((c = read()) >= 0) {
+            if (previous == '*' && c == '/') {
+                if (statement.length() > 0) {
+                    statement.append(' ');
+                }
+                return;
+            }
+            previous = c;
+        }
+        throw new IOException("Unterminated comment starting on line " + start + ".");
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        char c = buffer[position++];
+        charsRead++;
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        int read = reader.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,614 @@
+package main.commands.sqlite;
+
+import org.sqlite.SQLiteConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Makes the tables of a target database equal to those of a source database by changing only the
+ * rows that differ. Each table is walked in primary key order in chunks of {@code chunkSize} source
+ * rows; both sides of a chunk are hashed, and only a chunk whose hashes differ is split in half at
+ * its median key, again and again, until the differing ranges are small enough to compare row by
+ * row. Unchanged data is read once on each side and never written.
+ *
+ * <p>The inserts, updates and deletes of one {@link #sync(List)} are applied to the target in a
+ * single transaction, and can also be written as a SQL script (a changeset) that makes the same
+ * changes to another copy of the target, e.g. with {@code qbox sqlite create-db --transaction-size 0},
+ * which applies it as a single transaction too. Either all changes reach the target or none do.
+ *
+ * <p>Rows are matched by the declared primary key, or by rowid for tables without one. Only table
+ * contents are synchronized: a table missing in the target is created from the source's definition,
+ * a table whose primary key is NULL in some row is skipped (such rows cannot be matched by key),
+ * but indexes, triggers and views are not compared, and tables that only exist in the target are
+ * left alone.
+ */
+public class TableSync {
+
+    static final int DEFAULT_CHUNK_SIZE = 4096;
+    static final int LEAF_ROWS = 64;
+
+    /**
+     * The outcome for one table.
+     */
+    public static final class TableResult {
+        public final String table;
+        public long sourceRows;
+        public long rangesHashed;
+        public long rangesDiffering;
+        public long inserted;
+        public long updated;
+        public long deleted;
+        public boolean created;
+        public String error;
+
+        TableResult(String table) {
+            this.table = table;
+        }
+
+        /**
+         * @return the number of rows changed in the target.
+         */
+        public long changes() {
+            return inserted + updated + deleted;
+        }
+    }
+
+    /**
+     * The primary key range {@code (low, high]}; a null bound is unbounded.
+     */
+    private record Range(Object[] low, Object[] high) {
+    }
+
+    /**
+     * The number of rows in a range and the SHA-256 of their contents.
+     */
+    private record Digest(long rows, byte[] hash) {
+        boolean matches(Digest other) {
+            return rows == other.rows && Arrays.equals(hash, other.hash);
+        }
+    }
+
+    /**
+     * The columns and statements of one table.
+     */
+    private static final class Table {
+        final String name;
+        final List<String> keys;
+        final List<String> columns;
+        final String keyList;
+        final String columnList;
+        PreparedStatement insert;
+        PreparedStatement update;
+        PreparedStatement delete;
+
+        Table(String name, List<String> keys, List<String> columns) {
+            this.name = name;
+            this.keys = keys;
+            this.columns = columns;
+            this.keyList = keys.stream().map(TableSync::quote).collect(Collectors.joining(", "));
+            this.columnList = columns.stream().map(TableSync::quote).collect(Collectors.joining(", "));
+        }
+
+        // Row values compare column by column in key order, like ORDER BY
+        String where(Range range) {
+            List<String> conditions = new ArrayList<>();
+            if (range.low != null) {
+                conditions.add("(" + keyList + ") > (" + placeholders(keys.size()) + ")");
+            }
+            if (range.high != null) {
+                conditions.add("(" + keyList + ") <= (" + placeholders(keys.size()) + ")");
+            }
+            return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+        }
+
+        int bind(PreparedStatement stmt, Range range) throws SQLException {
+            int index = 1;
+            for (Object[] bound : new Object[][] { range.low, range.high }) {
+                if (bound != null) {
+                    for (Object value : bound) {
+                        stmt.setObject(index++, value);
+                    }
+                }
+            }
+            return index;
+        }
+    }
+
+    private final Connection source;
+    private final Connection target;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private boolean apply = true;
+    private Writer changeset;
+
+    /**
+     * @param source the database to copy changes from; only read.
+     * @param target the database to change. It must be in auto-commit mode and is returned in it.
+     */
+    public TableSync(Connection source, Connection target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * Open a source database read-only.
+     *
+     * @param dbFile the database.
+     * @return the connection.
+     * @throws SQLException if the database cannot be opened.
+     */
+    public static Connection openSource(String dbFile) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        return DriverManager.getConnection("jdbc:sqlite:" + dbFile, config.toProperties());
+    }
+
+    /**
+     * @param chunkSize the number of source rows hashed as one range before narrowing down.
+     */
+    public TableSync chunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("--chunk-size must be at least 1.");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * @param apply false to only compute (and write) the changes, leaving the target unchanged.
+     */
+    public TableSync apply(boolean apply) {
+        this.apply = apply;
+        return this;
+    }
+
+    /**
+     * @param changeset where to write the changes as a SQL script, or null; it is not closed.
+     */
+    public TableSync changeset(Writer changeset) {
+        this.changeset = changeset;
+        return this;
+    }
+
+    /**
+     * @return the names of the source database's tables, in definition order.
+     * @throws SQLException if the schema cannot be read.
+     */
+    public List<String> sourceTables() throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (Statement stmt = source.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite_%' ORDER BY rowid")) {
+            while (rs.next()) {
+                tables.add(rs.getString(1));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Synchronize tables in one transaction. A table that cannot be synchronized, e.g. because its
+     * columns differ between the databases, is reported in its result and skipped.
+     *
+     * @param tables the tables, see {@link #sourceTables()}.
+     * @return one result per table.
+     * @throws SQLException if reading or changing a database fails; every change is rolled back.
+     * @throws IOException  if the changeset cannot be written.
+     */
+    public List<TableResult> sync(List<String> tables) throws SQLException, IOException {
+        List<TableResult> results = new ArrayList<>();
+        if (changeset != null) {
+            changeset.write("BEGIN;\n");
+        }
+        target.setAutoCommit(false);
+        try {
+            for (String name : tables) {
+                TableResult result = new TableResult(name);
+                results.add(result);
+                syncTable(name, result);
+            }
+            target.commit();
+        } catch (SQLException | IOException | RuntimeException e) {
+            target.rollback();
+            throw e;
+        } finally {
+            target.setAutoCommit(true);
+        }
+        if (changeset != null) {
+            changeset.write("COMMIT;\n");
+            changeset.flush();
+        }
+        return results;
+    }
+
+    private void syncTable(String name, TableResult result) throws SQLException, IOException {
+        String createSql = createSql(source, name);
+        if (createSql == null) {
+            result.error = "not in the source database";
+            return;
+        }
+        List<String> sourceColumns = columns(source, name);
+        boolean targetExists = createSql(target, name) != null;
+        if (targetExists && !sourceColumns.equals(columns(target, name))) {
+            result.error = "columns differ between source and target; skipped";
+            return;
+        }
+        List<String> keys = primaryKey(source, name);
+        // Key ranges compare row values, which are never true for a NULL, so such rows would be missed
+        if (!keys.isEmpty() && (hasNullKey(source, name, keys) || targetExists && hasNullKey(target, name, keys))) {
+            result.error = "the primary key is NULL in some rows, which cannot be matched; skipped";
+            return;
+        }
+        if (!targetExists) {
+            if (apply) {
+                try (Statement stmt = target.createStatement()) {
+                    stmt.execute(createSql);
+                }
+            }
+            changeset(createSql + ";");
+            result.created = true;
+        }
+
+        List<String> columns = new ArrayList<>(sourceColumns);
+        if (keys.isEmpty()) {
+            keys = List.of("rowid");
+            columns.add(0, "rowid");
+        }
+        Table table = new Table(name, keys, columns);
+        try {
+            prepare(table, result.created && !apply);
+            // Chunk boundaries are every chunkSize-th source key; the last range is open-ended, so it
+            // also covers target rows after the last source key
+            String boundaries = "SELECT " + table.keyList + " FROM " + quote(name) + " %s ORDER BY " + table.keyList
+                    + " LIMIT 1 OFFSET " + (chunkSize - 1);
+            Object[] low = null;
+            while (true) {
+                Range probe = new Range(low, null);
+                Object[] high;
+                try (PreparedStatement stmt = source.prepareStatement(String.format(boundaries, table.where(probe)))) {
+                    table.bind(stmt, probe);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        high = rs.next() ? key(rs, keys.size()) : null;
+                    }
+                }
+                compare(table, new Range(low, high), result);
+                if (high == null) {
+                    break;
+                }
+                low = high;
+            }
+        } finally {
+            for (PreparedStatement stmt : new PreparedStatement[] { table.insert, table.update, table.delete }) {
+                if (stmt != null) {
+                    stmt.close();
+                }
+            }
+        }
+    }
+
+    // Hash both sides of a range; if they differ, narrow down or compare row by row
+    private void compare(Table table, Range range, TableResult result) throws SQLException, IOException {
+        Digest sourceDigest = digest(source, table, range);
+        Digest targetDigest = table.insert == null ? new Digest(0, new byte[0]) : digest(target, table, range);
+        result.rangesHashed++;
+        if (sourceDigest.matches(targetDigest)) {
+            result.sourceRows += sourceDigest.rows;
+            return;
+        }
+        result.rangesDiffering++;
+        if (sourceDigest.rows <= LEAF_ROWS && targetDigest.rows <= LEAF_ROWS) {
+            result.sourceRows += sourceDigest.rows;
+            diffRows(table, range, result);
+            return;
+        }
+        // Split the larger side at its median key; both halves are smaller, since keys are unique
+        boolean sourceLarger = sourceDigest.rows >= targetDigest.rows;
+        Object[] middle = median(sourceLarger ? source : target, table, range, (sourceLarger ? sourceDigest : targetDigest).rows);
+        compare(table, new Range(range.low, middle), result);
+        compare(table, new Range(middle, range.high), result);
+    }
+
+    private Digest digest(Connection conn, Table table, Range range) throws SQLException {
+        MessageDigest sha256 = sha256();
+        RowEncoder encoder = new RowEncoder();
+        long rows = 0;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT " + table.columnList + " FROM " + quote(table.name)
+                + table.where(range) + " ORDER BY " + table.keyList)) {
+            table.bind(stmt, range);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    encoder.reset();
+                    for (int i = 1; i <= table.columns.size(); i++) {
+                        encoder.value(normalize(rs.getObject(i)));
+                    }
+                    encoder.digest(sha256);
+                    rows++;
+                }
+            }
+        }
+        return new Digest(rows, sha256.digest());
+    }
+
+    private Object[] median(Connection conn, Table table, Range range, long rows) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT " + table.keyList + " FROM " + quote(table.name)
+                + table.where(range) + " ORDER BY " + table.keyList + " LIMIT 1 OFFSET ?")) {
+            int index = table.bind(stmt, range);
+            stmt.setLong(index, rows / 2 - 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return key(rs, table.keys.size());
+            }
+        }
+    }
+
+    // A small range: match rows by key and compare their encoded values
+    private void diffRows(Table table, Range range, TableResult result) throws SQLException, IOException {
+        Map<String, Object[]> sourceRows = rows(source, table, range);
+        Map<String, Object[]> targetRows = table.insert == null ? Map.of() : rows(target, table, range);
+        for (Map.Entry<String, Object[]> entry : targetRows.entrySet()) {
+            if (!sourceRows.containsKey(entry.getKey())) {
+                change(table.delete, deleteSql(table, entry.getValue()), keyValues(table, entry.getValue()));
+                result.deleted++;
+            }
+        }
+        for (Map.Entry<String, Object[]> entry : sourceRows.entrySet()) {
+            Object[] old = targetRows.get(entry.getKey());
+            Object[] row = entry.getValue();
+            if (old == null) {
+                change(table.insert, insertSql(table, row), row);
+                result.inserted++;
+            } else if (!Arrays.equals(encode(old), encode(row))) {
+                change(table.update, updateSql(table, row), updateValues(table, row));
+                result.updated++;
+            }
+        }
+    }
+
+    private Map<String, Object[]> rows(Connection conn, Table table, Range range) throws SQLException {
+        Map<String, Object[]> rows = new LinkedHashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT " + table.columnList + " FROM " + quote(table.name)
+                + table.where(range) + " ORDER BY " + table.keyList)) {
+            table.bind(stmt, range);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Object[] row = new Object[table.columns.size()];
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = normalize(rs.getObject(i + 1));
+                    }
+                    rows.put(HexFormat.of().formatHex(encode(keyValues(table, row))), row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private void prepare(Table table, boolean targetMissing) throws SQLException {
+        if (targetMissing) {
+            // Dry run of a table the target does not have: everything is an insert, nothing to read
+            return;
+        }
+        String keyMatch = table.keys.stream().map(key -> quote(key) + " = ?").collect(Collectors.joining(" AND "));
+        table.insert = target.prepareStatement("INSERT INTO " + quote(table.name) + " (" + table.columnList + ") VALUES ("
+                + placeholders(table.columns.size()) + ")");
+        table.delete = target.prepareStatement("DELETE FROM " + quote(table.name) + " WHERE " + keyMatch);
+        List<String> values = valueColumns(table);
+        table.update = values.isEmpty() ? null : target.prepareStatement("UPDATE " + quote(table.name) + " SET "
+                + values.stream().map(column -> quote(column) + " = ?").collect(Collectors.joining(", ")) + " WHERE " + keyMatch);
+    }
+
+    private void change(PreparedStatement stmt, String sql, Object[] values) throws SQLException, IOException {
+        changeset(sql);
+        if (!apply || stmt == null) {
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            stmt.setObject(i + 1, values[i]);
+        }
+        stmt.executeUpdate();
+    }
+
+    private static boolean hasNullKey(Connection conn, String table, List<String> keys) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM " + quote(table) + " WHERE "
+                     + keys.stream().map(key -> quote(key) + " IS NULL").collect(Collectors.joining(" OR ")) + " LIMIT 1")) {
+            return rs.next();
+        }
+    }
+
+    private void changeset(String sql) throws IOException {
+        if (changeset != null) {
+            changeset.write(sql);
+            changeset.write('\n');
+        }
+    }
+
+    private static List<String> valueColumns(Table table) {
+        return table.columns.stream().filter(column -> !table.keys.contains(column)).toList();
+    }
+
+    private static Object[] keyValues(Table table, Object[] row) {
+        Object[] key = new Object[table.keys.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = row[table.columns.indexOf(table.keys.get(i))];
+        }
+        return key;
+    }
+
+    // The non-key values followed by the key values, matching the UPDATE statement's placeholders
+    private static Object[] updateValues(Table table, Object[] row) {
+        List<Object> values = new ArrayList<>();
+        for (String column : valueColumns(table)) {
+            values.add(row[table.columns.indexOf(column)]);
+        }
+        values.addAll(Arrays.asList(keyValues(table, row)));
+        return values.toArray();
+    }
+
+    private static String insertSql(Table table, Object[] row) {
+        return "INSERT INTO " + quote(table.name) + " (" + table.columnList + ") VALUES ("
+                + Arrays.stream(row).map(TableSync::literal).collect(Collectors.joining(", ")) + ");";
+    }
+
+    private static String updateSql(Table table, Object[] row) {
+        return "UPDATE " + quote(table.name) + " SET " + valueColumns(table).stream()
+                .map(column -> quote(column) + " = " + literal(row[table.columns.indexOf(column)]))
+                .collect(Collectors.joining(", ")) + " WHERE " + keyMatch(table, row) + ";";
+    }
+
+    private static String deleteSql(Table table, Object[] row) {
+        return "DELETE FROM " + quote(table.name) + " WHERE " + keyMatch(table, row) + ";";
+    }
+
+    private static String keyMatch(Table table, Object[] row) {
+        Object[] key = keyValues(table, row);
+        List<String> conditions = new ArrayList<>();
+        for (int i = 0; i < key.length; i++) {
+            conditions.add(quote(table.keys.get(i)) + " = " + literal(key[i]));
+        }
+        return String.join(" AND ", conditions);
+    }
+
+    private static String literal(Object value) {
+        if (value == null) {
+            return "NULL";
+        } else if (value instanceof Long number) {
+            return number.toString();
+        } else if (value instanceof Double number) {
+            return number.isInfinite() ? (number > 0 ? "1e999" : "-1e999") : number.toString();
+        } else if (value instanceof byte[] bytes) {
+            return "X'" + HexFormat.of().formatHex(bytes) + "'";
+        }
+        return "'" + value.toString().replace("'", "''") + "'";
+    }
+
+    private static Object normalize(Object value) {
+        return value instanceof Integer number ? Long.valueOf(number) : value;
+    }
+
+    private static Object[] key(ResultSet rs, int count) throws SQLException {
+        Object[] key = new Object[count];
+        for (int i = 0; i < count; i++) {
+            key[i] = normalize(rs.getObject(i + 1));
+        }
+        return key;
+    }
+
+    private static byte[] encode(Object[] row) {
+        RowEncoder encoder = new RowEncoder();
+        for (Object value : row) {
+            encoder.value(value);
+        }
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Type-tagged, length-prefixed values, so that e.g. 1 and '1' or ('ab', 'c') and ('a', 'bc')
+     * differ. Reset and reused for every row of a range.
+     */
+    private static final class RowEncoder extends ByteArrayOutputStream {
+        private final DataOutputStream out = new DataOutputStream(this);
+
+        RowEncoder() {
+            super(256);
+        }
+
+        void value(Object value) {
+            try {
+                if (value == null) {
+                    out.writeByte(0);
+                } else if (value instanceof Long number) {
+                    out.writeByte(1);
+                    out.writeLong(number);
+                } else if (value instanceof Double number) {
+                    out.writeByte(2);
+                    out.writeDouble(number);
+                } else if (value instanceof byte[] blob) {
+                    out.writeByte(4);
+                    out.writeInt(blob.length);
+                    out.write(blob);
+                } else {
+                    byte[] text = value.toString().getBytes(StandardCharsets.UTF_8);
+                    out.writeByte(3);
+                    out.writeInt(text.length);
+                    out.write(text);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void digest(MessageDigest digest) {
+            digest.update(buf, 0, count);
+        }
+    }
+
+    private static String createSql(Connection conn, String table) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static List<String> columns(Connection conn, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT name FROM pragma_table_info(?) ORDER BY cid")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    columns.add(rs.getString(1));
+                }
+            }
+        }
+        return columns;
+    }
+
+    private static List<String> primaryKey(Connection conn, String table) throws SQLException {
+        List<String> keys = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT name FROM pragma_table_info(?) WHERE pk > 0 ORDER BY pk")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    keys.add(rs.getString(1));
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static String quote(String identifier) {
+        return "rowid".equals(identifier) ? identifier : "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package main.commands.sqlite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs synthetic or recorded workloads against fresh databases, one per {@link PragmaProfile}, and
+ * measures throughput and per-operation latency, so PRAGMA settings can be compared on the actual
+ * machine and file system instead of guessed.
+ *
+ * <p>The synthetic workloads share one table of {@code rows} rows with an indexed integer key and a
+ * text value of 16 to 128 characters:
+ * <ul>
+ *   <li>{@code insert}: loads the table in transactions of {@value #INSERT_BATCH} rows;</li>
+ *   <li>{@code lookup}: point queries by primary key;</li>
+ *   <li>{@code scan}: aggregates over 1% of the key range through the index;</li>
+ *   <li>{@code mixed}: 80% lookups and 20% single-row updates, each in its own transaction, from
+ *   several threads on their own connections.</li>
+ * </ul>
+ * A recorded workload is a SQL script whose statements are timed one by one on an empty database.
+ */
+public class WorkloadBenchmark {
+
+    static final int INSERT_BATCH = 1000;
+    private static final int BUSY_TIMEOUT_MILLIS = 30_000;
+    private static final int WARM_UP_ROWS = 20_000;
+
+    /**
+     * The workloads.
+     */
+    public enum Workload {
+        INSERT, LOOKUP, SCAN, MIXED, SCRIPT;
+
+        /**
+         * Look up a workload by name, ignoring case.
+         *
+         * @param name the workload name, e.g. {@code lookup}.
+         * @return the workload.
+         */
+        public static Workload forName(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown workload: " + name + " (supported: insert, lookup, scan, mixed, script)");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Throughput and latency of one workload under one profile.
+     */
+    public static final class Result {
+        public final PragmaProfile profile;
+        public final Workload workload;
+        public final long ops;
+        public final long errors;
+        public final long elapsedNanos;
+        private final long[] latencies;
+
+        Result(PragmaProfile profile, Workload workload, long ops, long errors, long elapsedNanos, long[] latencies) {
+            this.profile = profile;
+            this.workload = workload;
+            this.ops = ops;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            Arrays.sort(this.latencies);
+        }
+
+        /**
+         * @return operations per second; for {@code insert}, rows per second.
+         */
+        public double opsPerSecond() {
+            return ops / Math.max(elapsedNanos / 1e9, 1e-9);
+        }
+
+        /**
+         * @param fraction e.g. {@code 0.95}.
+         * @return the latency percentile in nanoseconds; for {@code insert}, per committed batch.
+         */
+        public long latency(double fraction) {
+            return QueryProfiler.percentile(latencies, fraction);
+        }
+    }
+
+    private final Path workDir;
+    private int rows = 100_000;
+    private int ops = 10_000;
+    private int threads = 4;
+    private long seed = 42;
+    private Path script;
+
+    /**
+     * @param workDir the folder the benchmark databases are created in; they are deleted afterwards.
+     */
+    public WorkloadBenchmark(Path workDir) {
+        this.workDir = workDir;
+    }
+
+    /**
+     * @param rows the number of rows in the synthetic table.
+     */
+    public WorkloadBenchmark rows(int rows) {
+        if (rows < 1) {
+            throw new IllegalArgumentException("--rows must be at least 1.");
+        }
+        this.rows = rows;
+        return this;
+    }
+
+    /**
+     * @param ops the number of lookups, and of mixed operations; scans run a hundredth as many.
+     */
+    public WorkloadBenchmark ops(int ops) {
+        if (ops < 1) {
+            throw new IllegalArgumentException("--ops must be at least 1.");
+        }
+        this.ops = ops;
+        return this;
+    }
+
+    /**
+     * @param threads the number of connections of the mixed workload.
+     */
+    public WorkloadBenchmark threads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("--threads must be at least 1.");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param seed the seed of the generated data and keys, so runs are repeatable.
+     */
+    public WorkloadBenchmark seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param script the recorded workload run by {@link Workload#SCRIPT}.
+     */
+    public WorkloadBenchmark script(Path script) {
+        this.script = script;
+        return this;
+    }
+
+    /**
+     * Run every workload under every profile, each profile on its own new database.
+     *
+     * @param profiles  the profiles to compare.
+     * @param workloads the workloads, run in the given order.
+     * @return one result per profile and workload, grouped by profile.
+     * @throws Exception if a database cannot be created or a workload cannot run.
+     */
+    public List<Result> run(List<PragmaProfile> profiles, List<Workload> workloads) throws Exception {
+        if (workloads.contains(Workload.SCRIPT) && script == null) {
+            throw new IllegalArgumentException("The script workload needs a script.");
+        }
+        Files.createDirectories(workDir);
+        warmUp();
+
+        List<Result> results = new ArrayList<>();
+        for (PragmaProfile profile : profiles) {
+            Path db = workDir.resolve("qbox-bench-" + results.size() + ".db");
+            try {
+                delete(db);
+                try (Connection conn = open(db, profile)) {
+                    createTable(conn);
+                    boolean loaded = false;
+                    for (Workload workload : workloads) {
+                        switch (workload) {
+                            case INSERT -> {
+                                results.add(insert(conn, profile, rows));
+                                loaded = true;
+                            }
+                            case SCRIPT -> results.add(runScript(profile));
+                            default -> {
+                                if (!loaded) {
+                                    // The read workloads need the table, even when loading it is not measured
+                                    insert(conn, profile, rows);
+                                    loaded = true;
+                                }
+                                results.add(workload == Workload.LOOKUP ? lookup(conn, profile, ops)
+                                        : workload == Workload.SCAN ? scan(conn, profile, Math.max(10, ops / 100))
+                                        : mixed(db, profile));
+                            }
+                        }
+                    }
+                }
+            } finally {
+                delete(db);
+            }
+        }
+        return results;
+    }
+
+    // One small pass, so the first profile is not measured with a cold JIT
+    private void warmUp() throws Exception {
+        Path db = workDir.resolve("qbox-bench-warm-up.db");
+        PragmaProfile defaults = PragmaProfile.forName("default");
+        try {
+            delete(db);
+            try (Connection conn = open(db, defaults)) {
+                createTable(conn);
+                insert(conn, defaults, Math.min(rows, WARM_UP_ROWS));
+                lookup(conn, defaults, Math.min(ops, WARM_UP_ROWS));
+                scan(conn, defaults, 10);
+            }
+        } finally {
+            delete(db);
+        }
+    }
+
+    private static Connection open(Path db, PragmaProfile profile) throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS);
+        }
+        profile.apply(conn);
+        return conn;
+    }
+
+    private static void createTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE bench (id INTEGER PRIMARY KEY, k INTEGER NOT NULL, v TEXT NOT NULL)");
+            stmt.execute("CREATE INDEX bench_k ON bench(k)");
+        }
+    }
+
+    private Result insert(Connection conn, PragmaProfile profile, int count) throws SQLException {
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] latencies = new long[(count + INSERT_BATCH - 1) / INSERT_BATCH];
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DELETE FROM bench");
+        }
+        long start = System.nanoTime();
+        conn.setAutoCommit(false);
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO bench (id, k, v) VALUES (?, ?, ?)")) {
+            for (int batch = 0; batch < latencies.length; batch++) {
+                long batchStart = System.nanoTime();
+                int end = Math.min(count, (batch + 1) * INSERT_BATCH);
+                for (int id = batch * INSERT_BATCH + 1; id <= end; id++) {
+                    insert.setInt(1, id);
+                    insert.setInt(2, random.nextInt(count));
+                    insert.setString(3, text(random));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                conn.commit();
+                latencies[batch] = System.nanoTime() - batchStart;
+            }
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        return new Result(profile, Workload.INSERT, count, 0, System.nanoTime() - start, latencies);
+    }
+
+    private Result lookup(Connection conn, PragmaProfile profile, int count) throws SQLException {
+        SplittableRandom random = new SplittableRandom(seed + 1);
+        long[] latencies = new long[count];
+        long start = System.nanoTime();
+        try (PreparedStatement select = conn.prepareStatement("SELECT v FROM bench WHERE id = ?")) {
+            for (int i = 0; i < count; i++) {
+                long opStart = System.nanoTime();
+                select.setInt(1, 1 + random.nextInt(rows));
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        rs.getString(1);
+                    }
+                }
+                latencies[i] = System.nanoTime() - opStart;
+            }
+        }
+        return new Result(profile, Workload.LOOKUP, count, 0, System.nanoTime() - start, latencies);
+    }
+
+    private Result scan(Connection conn, PragmaProfile profile, int count) throws SQLException {
+        SplittableRandom random = new SplittableRandom(seed + 2);
+        int width = Math.max(1, rows / 100);
+        long[] latencies = new long[count];
+        long start = System.nanoTime();
+        try (PreparedStatement select = conn.prepareStatement("SELECT count(*), sum(length(v)) FROM bench WHERE k BETWEEN ? AND ?")) {
+            for (int i = 0; i < count; i++) {
+                long opStart = System.nanoTime();
+                int from = random.nextInt(Math.max(1, rows - width));
+                select.setInt(1, from);
+                select.setInt(2, from + width - 1);
+                try (ResultSet rs = select.executeQuery()) {
+                    rs.next();
+                }
+                latencies[i] = System.nanoTime() - opStart;
+            }
+        }
+        return new Result(profile, Workload.SCAN, count, 0, System.nanoTime() - start, latencies);
+    }
+
+    private Result mixed(Path db, PragmaProfile profile) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int share = ops / threads + (t < ops % threads ? 1 : 0);
+                long threadSeed = seed + 100 + t;
+                futures.add(executor.submit(() -> mixedWorker(db, profile, share, threadSeed)));
+            }
+            long[] latencies = new long[ops];
+            long errors = 0;
+            int offset = 0;
+            for (Future<long[]> future : futures) {
+                long[] worker = future.get();
+                // The last slot of each worker's array holds its error count
+                System.arraycopy(worker, 0, latencies, offset, worker.length - 1);
+                offset += worker.length - 1;
+                errors += worker[worker.length - 1];
+            }
+            return new Result(profile, Workload.MIXED, ops, errors, System.nanoTime() - start, latencies);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long[] mixedWorker(Path db, PragmaProfile profile, int count, long workerSeed) throws SQLException {
+        SplittableRandom random = new SplittableRandom(workerSeed);
+        long[] latencies = new long[count + 1];
+        try (Connection conn = open(db, profile);
+             PreparedStatement select = conn.prepareStatement("SELECT v FROM bench WHERE id = ?");
+             PreparedStatement update = conn.prepareStatement("UPDATE bench SET v = ? WHERE id = ?")) {
+            for (int i = 0; i < count; i++) {
+                long opStart = System.nanoTime();
+                try {
+                    if (random.nextInt(100) < 20) {
+                        update.setString(1, text(random));
+                        update.setInt(2, 1 + random.nextInt(rows));
+                        update.executeUpdate();
+                    } else {
+                        select.setInt(1, 1 + random.nextInt(rows));
+                        try (ResultSet rs = select.executeQuery()) {
+                            while (rs.next()) {
+                                rs.getString(1);
+                            }
+                        }
+                    }
+                } catch (SQLException e) {
+                    // e.g. SQLITE_BUSY after the timeout: counted, and the operation's time still recorded
+                    latencies[count]++;
+                }
+                latencies[i] = System.nanoTime() - opStart;
+            }
+        }
+        return latencies;
+    }
+
+    private Result runScript(PragmaProfile profile) throws Exception {
+        Path db = workDir.resolve("qbox-bench-script.db");
+        List<Long> latencies = new ArrayList<>();
+        long errors = 0;
+        try {
+            delete(db);
+            long start = System.nanoTime();
+            try (Connection conn = open(db, profile);
+                 Statement stmt = conn.createStatement();
+                 InputStream in = Files.newInputStream(script);
+                 SqlStatementReader reader = new SqlStatementReader(in)) {
+                String sql;
+                while ((sql = reader.next()) != null) {
+                    long opStart = System.nanoTime();
+                    try {
+                        if (stmt.execute(sql)) {
+                            try (ResultSet rs = stmt.getResultSet()) {
+                                while (rs.next()) {
+                                    // read every row, as a client would
+                                }
+                            }
+                        }
+                    } catch (SQLException e) {
+                        errors++;
+                    }
+                    latencies.add(System.nanoTime() - opStart);
+                }
+            }
+            return new Result(profile, Workload.SCRIPT, latencies.size(), errors, System.nanoTime() - start,
+                    latencies.stream().mapToLong(Long::longValue).toArray());
+        } finally {
+            delete(db);
+        }
+    }
+
+    private static String text(SplittableRandom random) {
+        char[] text = new char[16 + random.nextInt(113)];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(text);
+    }
+
+    private static void delete(Path db) throws IOException {
+        for (String suffix : new String[] { "", "-wal", "-shm", "-journal" }) {
+            Files.deleteIfExists(db.resolveSibling(db.getFileName() + suffix));
+        }
+    }
+}
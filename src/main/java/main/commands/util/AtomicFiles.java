@@ -0,0 +1,68 @@
+package main.commands.util;
+
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+
+/**
+ * Writes files through a temporary sibling that is moved into place once complete, so readers
+ * never observe a partially written file and a failed or killed writer leaves the old file intact.
+ */
+public final class AtomicFiles {
+
+    /**
+     * The suffix of temporary files, e.g. {@code .report.csv.k3j9x2.qbox-tmp}.
+     */
+    public static final String TEMP_SUFFIX = ".qbox-tmp";
+
+    private static final SecureRandom TEMP_SUFFIXES = new SecureRandom();
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Writes content to a file path.
+     */
+    @FunctionalInterface
+    public interface PathWriter {
+        void write(Path file) throws Exception;
+    }
+
+    /**
+     * Write a file through a temporary sibling and move it into place once complete. The input of
+     * the writer may safely be the output.
+     *
+     * @param outputPath the final destination.
+     * @param writer     writes the full content to the given temporary file.
+     * @throws Exception if writing or moving fails; the temporary file is removed.
+     */
+    public static void writeFile(Path outputPath, PathWriter writer) throws Exception {
+        Path absolute = outputPath.toAbsolutePath();
+        Path tempFile = absolute.resolveSibling("." + absolute.getFileName() + "." + Long.toUnsignedString(TEMP_SUFFIXES.nextLong(), 36) + TEMP_SUFFIX);
+        try {
+            Files.createFile(tempFile);
+            writer.write(tempFile);
+            try {
+                Files.move(tempFile, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Check whether a file is a temporary output of {@link #writeFile(Path, PathWriter)}, e.g. one
+     * left behind by a killed run.
+     *
+     * @param path the file to check.
+     * @return true if the name has the temporary-file pattern.
+     */
+    public static boolean isTempFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(".") && name.endsWith(TEMP_SUFFIX);
+    }
+}
@@ -0,0 +1,57 @@
+package main.commands.util;
+
+import picocli.CommandLine.ITypeConverter;
+import picocli.CommandLine.TypeConversionException;
+
+import java.util.Locale;
+
+/**
+ * Sizes given on the command line, such as {@code 512}, {@code 64K}, {@code 4M} or {@code 1G}
+ * (binary multiples). Options declare {@code converter = ByteSize.Converter.class} to take them.
+ */
+public final class ByteSize {
+
+    private ByteSize() {
+    }
+
+    /**
+     * Parse a size such as {@code 512}, {@code 64K}, {@code 4M} or {@code 1G}.
+     *
+     * @param value the size string.
+     * @return the size in bytes.
+     * @throws NumberFormatException if the value is not a non-negative size that fits in a long.
+     */
+    public static long parse(String value) {
+        String trimmed = value.trim().toUpperCase(Locale.ROOT);
+        long multiplier = 1;
+        if (trimmed.endsWith("K")) {
+            multiplier = 1024;
+        } else if (trimmed.endsWith("M")) {
+            multiplier = 1024 * 1024;
+        } else if (trimmed.endsWith("G")) {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        long number = Long.parseLong(trimmed);
+        if (number < 0 || number > Long.MAX_VALUE / multiplier) {
+            throw new NumberFormatException("Size out of range: " + value);
+        }
+        return number * multiplier;
+    }
+
+    /**
+     * Converts option values with {@link #parse(String)}.
+     */
+    public static final class Converter implements ITypeConverter<Long> {
+        @Override
+        public Long convert(String value) {
+            try {
+                return parse(value);
+            } catch (NumberFormatException e) {
+                throw new TypeConversionException("'" + value + "' is not a size such as 512, 64K, 4M or 1G");
+            }
+        }
+    }
+}
@@ -1,7 +1,33 @@
 package main.commands.encryption;
 
+import main.commands.util.AtomicFiles;
 import org.junit.jupiter.api.Test;
 import org.jboss.logging.Logger;
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -75,4 +101,583 @@ public class EncryptionLogicTest {
         
         LOGGER.info("testKeyGeneration completed successfully.");
     }
+
+    @Test
+    public void testFileEncryptAndDecryptRoundTrip() throws Exception {
+        LOGGER.info("Starting test: testFileEncryptAndDecryptRoundTrip");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            String key = EncryptionLogic.generateKey();
+            // Binary content spanning several chunks, the exact chunk-multiple and empty edge cases,
+            // and a file large enough to take the memory-mapped path
+            int[] sizes = { 0, 1, StreamingEncryption.DEFAULT_CHUNK_SIZE, 3 * StreamingEncryption.DEFAULT_CHUNK_SIZE + 17,
+                    (int) ChannelFileEncryption.MAPPED_IO_THRESHOLD + 5 };
+            for (int size : sizes) {
+                byte[] original = new byte[size];
+                new Random(size).nextBytes(original);
+
+                Path plainFile = dir.resolve("plain-" + size + ".bin");
+                Path encryptedFile = dir.resolve("encrypted-" + size + ".bin");
+                Path decryptedFile = dir.resolve("decrypted-" + size + ".bin");
+                Files.write(plainFile, original);
+
+                EncryptionLogic.encryptFile(plainFile.toString(), key, encryptedFile.toString(), true);
+                EncryptionLogic.decryptFile(encryptedFile.toString(), key, decryptedFile.toString(), true);
+
+                assertArrayEquals(original, Files.readAllBytes(decryptedFile), "Decrypted file should match the original (" + size + " bytes).");
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testFileEncryptAndDecryptRoundTrip completed successfully.");
+    }
+
+    @Test
+    public void testTamperedOrTruncatedFileIsRejected() throws Exception {
+        LOGGER.info("Starting test: testTamperedOrTruncatedFileIsRejected");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            String key = EncryptionLogic.generateKey();
+            byte[] original = new byte[2 * StreamingEncryption.DEFAULT_CHUNK_SIZE + 5];
+            new Random(42).nextBytes(original);
+
+            Path plainFile = dir.resolve("plain.bin");
+            Path encryptedFile = dir.resolve("encrypted.bin");
+            Files.write(plainFile, original);
+            EncryptionLogic.encryptFile(plainFile.toString(), key, encryptedFile.toString(), true);
+            byte[] encrypted = Files.readAllBytes(encryptedFile);
+
+            // Flip one ciphertext bit in the second record
+            byte[] tampered = encrypted.clone();
+            tampered[StreamingEncryption.HEADER_LENGTH + StreamingEncryption.DEFAULT_CHUNK_SIZE + 64] ^= 1;
+            Path tamperedFile = dir.resolve("tampered.bin");
+            Files.write(tamperedFile, tampered);
+            assertThrows(Exception.class, () -> EncryptionLogic.decryptFile(tamperedFile.toString(), key, dir.resolve("out1").toString(), true),
+                    "Decryption of a tampered file should fail.");
+
+            // Drop the last record entirely
+            int lastRecordStart = StreamingEncryption.HEADER_LENGTH + 2 * (StreamingEncryption.DEFAULT_CHUNK_SIZE + StreamingEncryption.RECORD_OVERHEAD);
+            Path truncatedFile = dir.resolve("truncated.bin");
+            Files.write(truncatedFile, Arrays.copyOf(encrypted, lastRecordStart));
+            assertThrows(Exception.class, () -> EncryptionLogic.decryptFile(truncatedFile.toString(), key, dir.resolve("out2").toString(), true),
+                    "Decryption of a truncated file should fail.");
+
+            assertFalse(Files.exists(dir.resolve("out1")), "No output should be left behind after a failed decryption.");
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testTamperedOrTruncatedFileIsRejected completed successfully.");
+    }
+
+    @Test
+    public void testParallelEncryptionAndRangeDecryption() throws Exception {
+        LOGGER.info("Starting test: testParallelEncryptionAndRangeDecryption");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            String key = EncryptionLogic.generateKey();
+            byte[] original = new byte[5 * ParallelFileEncryption.DEFAULT_SEGMENT_SIZE + 123];
+            new Random(7).nextBytes(original);
+
+            Path plainFile = dir.resolve("plain.bin");
+            Path encryptedFile = dir.resolve("encrypted.bin");
+            Files.write(plainFile, original);
+
+            // Parallel output must be readable by the sequential decoder
+            EncryptionLogic.encryptFile(plainFile.toString(), key, encryptedFile.toString(), true, 4);
+            Path decryptedFile = dir.resolve("decrypted.bin");
+            EncryptionLogic.decryptFile(encryptedFile.toString(), key, decryptedFile.toString(), true, 1);
+            assertArrayEquals(original, Files.readAllBytes(decryptedFile), "Sequential decryption should match the original.");
+
+            EncryptionLogic.decryptFile(encryptedFile.toString(), key, decryptedFile.toString(), true, 4);
+            assertArrayEquals(original, Files.readAllBytes(decryptedFile), "Parallel decryption should match the original.");
+
+            // A range spanning a segment boundary
+            long offset = 2L * ParallelFileEncryption.DEFAULT_SEGMENT_SIZE - 10;
+            Path rangeFile = dir.resolve("range.bin");
+            EncryptionLogic.decryptFileRange(encryptedFile.toString(), key, rangeFile.toString(), offset, 100, true);
+            assertArrayEquals(Arrays.copyOfRange(original, (int) offset, (int) offset + 100), Files.readAllBytes(rangeFile),
+                    "Range decryption should return exactly the requested bytes.");
+
+            EncryptionLogic.decryptFileRange(encryptedFile.toString(), key, rangeFile.toString(), offset, Long.MAX_VALUE, true);
+            assertArrayEquals(Arrays.copyOfRange(original, (int) offset, original.length), Files.readAllBytes(rangeFile),
+                    "A length reaching past the end should return the rest of the file.");
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testParallelEncryptionAndRangeDecryption completed successfully.");
+    }
+
+    @Test
+    public void testBatchStringProcessingKeepsOrder() throws Exception {
+        LOGGER.info("Starting test: testBatchStringProcessingKeepsOrder");
+
+        javax.crypto.SecretKey key = EncryptionLogic.decodeKey(EncryptionLogic.generateKey());
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            input.append("record-").append(i).append('\n');
+        }
+
+        // Small batches across several threads to exercise the ordering logic
+        StringWriter encrypted = new StringWriter();
+        long count = new StringBatchProcessor(value -> EncryptionLogic.encrypt(value, key), 4, 64)
+                .process(new BufferedReader(new StringReader(input.toString())), encrypted);
+        assertEquals(1000, count, "Every record should be processed.");
+
+        StringWriter decrypted = new StringWriter();
+        new StringBatchProcessor(value -> EncryptionLogic.decrypt(value, key), 3, 100)
+                .process(new BufferedReader(new StringReader(encrypted.toString())), decrypted);
+        assertEquals(input.toString(), decrypted.toString(), "Decrypted records should match the input, in order.");
+
+        LOGGER.info("testBatchStringProcessingKeepsOrder completed successfully.");
+    }
+
+    @Test
+    public void testCompressedFilesRoundTripAndSkipIncompressibleData() throws Exception {
+        LOGGER.info("Starting test: testCompressedFilesRoundTripAndSkipIncompressibleData");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            String key = EncryptionLogic.generateKey();
+            StringBuilder log = new StringBuilder();
+            for (int i = 0; log.length() < 3 * StreamingEncryption.DEFAULT_CHUNK_SIZE; i++) {
+                log.append("INFO request id=").append(i).append(" status=200\n");
+            }
+            // An exact multiple of the chunk size, so every chunk decompresses to a full buffer
+            byte[] text = Arrays.copyOf(log.toString().getBytes(), 3 * StreamingEncryption.DEFAULT_CHUNK_SIZE);
+            byte[] random = new byte[StreamingEncryption.DEFAULT_CHUNK_SIZE + 99];
+            new Random(5).nextBytes(random);
+
+            for (byte[] original : new byte[][] { text, random }) {
+                Path plainFile = dir.resolve("plain.bin");
+                Path encryptedFile = dir.resolve("encrypted.bin");
+                Path decryptedFile = dir.resolve("decrypted.bin");
+                Files.write(plainFile, original);
+
+                for (int threads : new int[] { 1, 3 }) {
+                    EncryptionLogic.encryptFile(plainFile.toString(), key, encryptedFile.toString(), true, threads, DeflateCodec.DEFAULT);
+                    boolean compressed = EncryptionLogic.isCompressedContainer(encryptedFile);
+                    assertEquals(original == text, compressed, "Only compressible input should be stored compressed.");
+                    if (compressed) {
+                        assertTrue(Files.size(encryptedFile) < original.length / 4, "Repetitive text should shrink.");
+                    }
+
+                    EncryptionLogic.decryptFile(encryptedFile.toString(), key, decryptedFile.toString(), true, threads);
+                    assertArrayEquals(original, Files.readAllBytes(decryptedFile), "Compressed round trip should match the original.");
+
+                    long offset = StreamingEncryption.DEFAULT_CHUNK_SIZE - 7;
+                    EncryptionLogic.decryptFileRange(encryptedFile.toString(), key, decryptedFile.toString(), offset, 50, true);
+                    assertArrayEquals(Arrays.copyOfRange(original, (int) offset, (int) offset + 50), Files.readAllBytes(decryptedFile),
+                            "Range decryption of a compressed file should return the requested bytes.");
+                }
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testCompressedFilesRoundTripAndSkipIncompressibleData completed successfully.");
+    }
+
+    @Test
+    public void testRekeyReplacesKeyAndKeepsContent() throws Exception {
+        LOGGER.info("Starting test: testRekeyReplacesKeyAndKeepsContent");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            String oldKey = EncryptionLogic.generateKey();
+            String newKey = EncryptionLogic.generateKey();
+            byte[] original = ("line of text\n".repeat(20000)).getBytes();
+            Path file = dir.resolve("data.txt");
+            Files.write(file, original);
+            EncryptionLogic.encryptFile(file.toString(), oldKey, file.toString(), true, 1, DeflateCodec.DEFAULT);
+            byte[] encrypted = Files.readAllBytes(file);
+
+            // A wrong old key must leave the file untouched
+            assertThrows(Exception.class, () -> EncryptionLogic.rekeyFile(file.toString(), newKey, oldKey, file.toString(), true));
+            assertArrayEquals(encrypted, Files.readAllBytes(file), "A failed rekey should not modify the file.");
+
+            EncryptionLogic.rekeyFile(file.toString(), oldKey, newKey, file.toString(), true);
+            assertTrue(EncryptionLogic.isEncryptedWith(file, EncryptionLogic.decodeKey(newKey)), "File should authenticate with the new key.");
+            assertFalse(EncryptionLogic.isEncryptedWith(file, EncryptionLogic.decodeKey(oldKey)), "File should no longer open with the old key.");
+
+            Path decrypted = dir.resolve("decrypted.txt");
+            EncryptionLogic.decryptFile(file.toString(), newKey, decrypted.toString(), true);
+            assertArrayEquals(original, Files.readAllBytes(decrypted), "Re-keyed content should match the original.");
+
+            // A folder in which one file does not open with the old key must not report success
+            Path folder = dir.resolve("folder");
+            Files.createDirectories(folder);
+            Files.copy(file, folder.resolve("good.txt"));
+            Files.copy(file, folder.resolve("wrong-key.txt"));
+            EncryptionLogic.rekeyFile(folder.resolve("good.txt").toString(), newKey, oldKey, folder.resolve("good.txt").toString(), true);
+            assertEquals(1, new CommandLine(new EncryptionCommand.RekeyCommand()).execute("-i", folder.toString(),
+                    "--old-key", oldKey, "--new-key", newKey, "-t", "2"));
+            assertTrue(EncryptionLogic.isEncryptedWith(folder.resolve("good.txt"), EncryptionLogic.decodeKey(newKey)));
+            assertEquals(1, new CommandLine(new EncryptionCommand.RekeyCommand()).execute("-i", dir.resolve("missing").toString(),
+                    "--old-key", oldKey, "--new-key", newKey));
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testRekeyReplacesKeyAndKeepsContent completed successfully.");
+    }
+
+    @Test
+    public void testPackListAndExtractSingleEntry() throws Exception {
+        LOGGER.info("Starting test: testPackListAndExtractSingleEntry");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            javax.crypto.SecretKey key = EncryptionLogic.decodeKey(EncryptionLogic.generateKey());
+            Path source = dir.resolve("source");
+            Files.createDirectories(source.resolve("nested"));
+            byte[] large = new byte[3 * StreamingEncryption.DEFAULT_CHUNK_SIZE + 5];
+            new Random(11).nextBytes(large);
+            Files.writeString(source.resolve("a.txt"), "alpha");
+            Files.write(source.resolve("nested/large.bin"), large);
+            Files.write(source.resolve("empty.txt"), new byte[0]);
+
+            Path archive = dir.resolve("source.qbxa");
+            PackArchive.pack(source, new FileWalker(true, null, null), key, archive);
+
+            List<PackArchive.Entry> entries = PackArchive.list(archive, key);
+            assertEquals(List.of("a.txt", "empty.txt", "nested/large.bin"),
+                    entries.stream().map(entry -> entry.path).sorted().collect(Collectors.toList()));
+
+            Path target = dir.resolve("target");
+            PackArchive.extract(archive, key, target, List.of("nested/large.bin"));
+            assertArrayEquals(large, Files.readAllBytes(target.resolve("nested/large.bin")), "Extracted entry should match the original.");
+            assertFalse(Files.exists(target.resolve("a.txt")), "Only the selected entry should be extracted.");
+
+            // Flip a byte inside the first entry: extracting it must fail, other entries are unaffected
+            byte[] bytes = Files.readAllBytes(archive);
+            bytes[40] ^= 1;
+            Files.write(archive, bytes);
+            // Entries are packed in directory order, so the first one depends on the file system
+            String first = entries.get(0).path;
+            String other = entries.get(1).path;
+            Path again = dir.resolve("again");
+            assertThrows(Exception.class, () -> PackArchive.extract(archive, key, again, List.of(first)));
+            PackArchive.extract(archive, key, again, List.of(other));
+            assertArrayEquals(Files.readAllBytes(source.resolve(other)), Files.readAllBytes(again.resolve(other)));
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testPackListAndExtractSingleEntry completed successfully.");
+    }
+
+    @Test
+    public void testCipherSuitesAreRecordedAndLegacyStringsStillDecrypt() throws Exception {
+        LOGGER.info("Starting test: testCipherSuitesAreRecordedAndLegacyStringsStillDecrypt");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            String key = EncryptionLogic.generateKey(CipherSuite.CHACHA20_POLY1305);
+            javax.crypto.SecretKey secretKey = EncryptionLogic.decodeKey(key);
+            byte[] original = new byte[2 * StreamingEncryption.DEFAULT_CHUNK_SIZE + 17];
+            new Random(13).nextBytes(original);
+            Path plainFile = dir.resolve("plain.bin");
+            Path encryptedFile = dir.resolve("encrypted.bin");
+            Path decryptedFile = dir.resolve("decrypted.bin");
+            Files.write(plainFile, original);
+
+            for (CipherSuite suite : CipherSuite.values()) {
+                EncryptionLogic.encryptFile(plainFile.toString(), key, encryptedFile.toString(), true, 1, null, suite);
+                assertEquals(suite.id(), Files.readAllBytes(encryptedFile)[5], "The header should record the cipher suite.");
+                EncryptionLogic.decryptFile(encryptedFile.toString(), key, decryptedFile.toString(), true, 2);
+                assertArrayEquals(original, Files.readAllBytes(decryptedFile), "Decryption should use the suite from the header.");
+
+                String encrypted = EncryptionLogic.encrypt("Hello QBox!", secretKey, suite);
+                assertTrue(encrypted.startsWith(EncryptionLogic.STRING_PREFIX), "Strings should carry the suite header.");
+                assertEquals("Hello QBox!", EncryptionLogic.decrypt(encrypted, secretKey));
+            }
+
+            javax.crypto.Cipher legacy = javax.crypto.Cipher.getInstance("AES");
+            legacy.init(javax.crypto.Cipher.ENCRYPT_MODE, secretKey);
+            String legacyText = Base64.getEncoder().encodeToString(legacy.doFinal("old value".getBytes()));
+            assertEquals("old value", EncryptionLogic.decrypt(legacyText, secretKey), "Legacy strings should still decrypt.");
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testCipherSuitesAreRecordedAndLegacyStringsStillDecrypt completed successfully.");
+    }
+
+    @Test
+    public void testStreamRoundTripForPipes() throws Exception {
+        LOGGER.info("Starting test: testStreamRoundTripForPipes");
+
+        String key = EncryptionLogic.generateKey();
+        byte[] original = new byte[3 * StreamingEncryption.DEFAULT_CHUNK_SIZE + 1];
+        new Random(17).nextBytes(original);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        EncryptionLogic.encryptStream(new ByteArrayInputStream(original), encrypted, key, null, CipherSuite.AES_256_GCM);
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        EncryptionLogic.decryptStream(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, key);
+        assertArrayEquals(original, decrypted.toByteArray(), "Streamed round trip should match the original.");
+
+        // A stream cut off by a failed pipeline stage must not decrypt as a shorter file
+        byte[] cut = Arrays.copyOf(encrypted.toByteArray(), encrypted.size() - 100);
+        assertThrows(Exception.class, () -> EncryptionLogic.decryptStream(new ByteArrayInputStream(cut),
+                OutputStream.nullOutputStream(), key));
+        LOGGER.info("testStreamRoundTripForPipes completed successfully.");
+    }
+
+    @Test
+    public void testParallelFolderRunProcessesEveryFileOnceAndCountsFailures() throws Exception {
+        LOGGER.info("Starting test: testParallelFolderRunProcessesEveryFileOnceAndCountsFailures");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            Path source = dir.resolve("source");
+            String key = EncryptionLogic.generateKey();
+            for (int i = 0; i < 40; i++) {
+                Path file = source.resolve("dir" + i % 4).resolve("file" + i + ".txt");
+                Files.createDirectories(file.getParent());
+                Files.writeString(file, ("file " + i + "\n").repeat(500));
+                EncryptionLogic.encryptFile(file.toString(), key, file.toString(), true);
+            }
+            Path corrupt = source.resolve("dir1/file13.txt");
+            byte[] bytes = Files.readAllBytes(corrupt);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(corrupt, bytes);
+
+            Map<String, Integer> runs = new ConcurrentHashMap<>();
+            ParallelFileProcessor processor = new FolderJob("check", "Checked", (input, output) -> {
+                runs.merge(source.relativize(input.toPath()).toString(), 1, Integer::sum);
+                EncryptionLogic.verifyFile(input.toString(), key, 1);
+            }).threads(4).replace(false).run(source.toFile(), dir.resolve("unused").toFile(), new FileWalker(true, null, null));
+            assertEquals(40, runs.size(), "Every file should be processed.");
+            assertTrue(runs.values().stream().allMatch(count -> count == 1), "No file should be processed twice.");
+            assertEquals(39, processor.getFilesProcessed());
+            assertEquals(1, processor.getFilesFailed(), "The corrupt file should be counted, not stop the run.");
+
+            Path decrypted = dir.resolve("decrypted");
+            assertEquals(1, new CommandLine(new EncryptionCommand.FileCommand()).execute("--decrypt", "-i", source.toString(), "-k", key,
+                    "--replace=false", "-O", decrypted.toString(), "-t", "4"), "A failed file should make the run exit with status 1.");
+            assertEquals("file 39\n".repeat(500), Files.readString(decrypted.resolve("dir3/file39.txt")),
+                    "Files after the failing one should still be decrypted.");
+            assertFalse(Files.exists(decrypted.resolve("dir1/file13.txt")));
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testParallelFolderRunProcessesEveryFileOnceAndCountsFailures completed successfully.");
+    }
+
+    @Test
+    public void testIncrementalRunSkipsUnchangedAndRemovesDeletedFiles() throws Exception {
+        LOGGER.info("Starting test: testIncrementalRunSkipsUnchangedAndRemovesDeletedFiles");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            Path source = dir.resolve("source");
+            Path target = dir.resolve("target");
+            Files.createDirectories(source.resolve("sub"));
+            Files.writeString(source.resolve("a.txt"), "alpha");
+            Files.writeString(source.resolve("b.txt"), "bravo");
+            Files.writeString(source.resolve("sub/c.txt"), "charlie");
+
+            List<String> processed = Collections.synchronizedList(new ArrayList<>());
+            FolderJob job = new FolderJob("copy", "Copied", (input, output) -> {
+                processed.add(source.relativize(input.toPath()).toString().replace(File.separatorChar, '/'));
+                Files.copy(input.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }).threads(1).replace(false).incremental(true);
+
+            job.run(source.toFile(), target.toFile(), new FileWalker(true, null, null));
+            assertEquals(3, processed.size(), "The first run should process every file.");
+            assertTrue(Files.exists(target.resolve(ChangeManifest.FILE_NAME)), "The manifest should be stored in the target.");
+
+            processed.clear();
+            job.run(source.toFile(), target.toFile(), new FileWalker(true, null, null));
+            assertEquals(List.of(), processed, "Unchanged files should be skipped.");
+
+            // a.txt grows; b.txt only gets a new timestamp; c.txt keeps its size but changes content
+            FileTime later = FileTime.fromMillis(System.currentTimeMillis() + 60_000);
+            Files.writeString(source.resolve("a.txt"), "alpha, changed");
+            Files.setLastModifiedTime(source.resolve("b.txt"), later);
+            Files.writeString(source.resolve("sub/c.txt"), "CHARLIE");
+            Files.setLastModifiedTime(source.resolve("sub/c.txt"), later);
+
+            processed.clear();
+            job.run(source.toFile(), target.toFile(), new FileWalker(true, null, null));
+            processed.sort(null);
+            assertEquals(List.of("a.txt", "sub/c.txt"), processed, "Only files whose content changed should be processed.");
+            assertEquals("CHARLIE", Files.readString(target.resolve("sub/c.txt")));
+
+            Files.delete(source.resolve("b.txt"));
+            processed.clear();
+            job.run(source.toFile(), target.toFile(), new FileWalker(true, null, null));
+            assertEquals(List.of(), processed);
+            assertFalse(Files.exists(target.resolve("b.txt")), "The output of a deleted source should be removed.");
+            assertNull(ChangeManifest.load(target.resolve(ChangeManifest.FILE_NAME)).get("b.txt"),
+                    "A deleted source should be dropped from the manifest.");
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testIncrementalRunSkipsUnchangedAndRemovesDeletedFiles completed successfully.");
+    }
+
+    @Test
+    public void testIncrementallyEncryptedFolderDecryptsAndTracksSettings() throws Exception {
+        LOGGER.info("Starting test: testIncrementallyEncryptedFolderDecryptsAndTracksSettings");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            Path source = dir.resolve("source");
+            Path encrypted = dir.resolve("encrypted");
+            Path decrypted = dir.resolve("decrypted");
+            Files.createDirectories(source.resolve("sub"));
+            Files.writeString(source.resolve("a.txt"), "alpha\n".repeat(20_000));
+            Files.writeString(source.resolve("sub/b.txt"), "bravo");
+            String key = EncryptionLogic.generateKey();
+
+            assertEquals(0, encryptIncrementally(source, encrypted, key));
+            ChangeManifest manifest = ChangeManifest.load(encrypted.resolve(ChangeManifest.FILE_NAME));
+            assertEquals(ChangeManifest.sha256(source.resolve("a.txt")), manifest.get("a.txt").sha256,
+                    "The hash taken while encrypting should match a separate read of the file.");
+
+            // The manifest stored next to the outputs must not be decrypted or verified as one of them
+            assertEquals(0, new CommandLine(new EncryptionCommand.FileCommand()).execute("--decrypt", "-i", encrypted.toString(),
+                    "-k", key, "--replace=false", "-O", decrypted.toString(), "-t", "2"));
+            assertEquals(Files.readString(source.resolve("a.txt")), Files.readString(decrypted.resolve("a.txt")));
+            assertEquals("bravo", Files.readString(decrypted.resolve("sub/b.txt")));
+            assertFalse(Files.exists(decrypted.resolve(ChangeManifest.FILE_NAME)));
+            assertEquals(0, new CommandLine(new EncryptionCommand.VerifyCommand()).execute("-i", encrypted.toString(), "-k", key));
+
+            // Unchanged files encrypted with the old key are not current for a new one
+            String newKey = EncryptionLogic.generateKey();
+            assertEquals(0, encryptIncrementally(source, encrypted, newKey));
+            assertEquals(0, new CommandLine(new EncryptionCommand.VerifyCommand()).execute("-i", encrypted.toString(), "-k", newKey),
+                    "A new key should re-encrypt every file.");
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testIncrementallyEncryptedFolderDecryptsAndTracksSettings completed successfully.");
+    }
+
+    private static int encryptIncrementally(Path source, Path target, String key) {
+        return new CommandLine(new EncryptionCommand.FileCommand()).execute("--encrypt", "-i", source.toString(), "-k", key,
+                "--replace=false", "-O", target.toString(), "--incremental", "-t", "2");
+    }
+
+    @Test
+    public void testFileWalkerIncludeAndExcludePatterns() throws Exception {
+        LOGGER.info("Starting test: testFileWalkerIncludeAndExcludePatterns");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            for (String file : List.of("a.txt", "b.log", "logs/x.log", "logs/old/y.log", ".git/config", "tmp/z.txt")) {
+                Files.createDirectories(dir.resolve(file).getParent());
+                Files.writeString(dir.resolve(file), file);
+            }
+
+            assertEquals(List.of(".git/config", "a.txt", "b.log", "logs/old/y.log", "logs/x.log", "tmp/z.txt"),
+                    walk(dir, new FileWalker(true, null, null)));
+            assertEquals(List.of("a.txt", "b.log"), walk(dir, new FileWalker(false, null, null)),
+                    "A non-recursive walk should stay in the root folder.");
+            assertEquals(List.of("b.log", "logs/old/y.log", "logs/x.log"), walk(dir, new FileWalker(true, List.of("*.log"), null)),
+                    "A pattern without '/' should match the file name at any depth.");
+            assertEquals(List.of("logs/x.log"), walk(dir, new FileWalker(true, List.of("logs/*.log"), null)),
+                    "A pattern with '/' should match the relative path, '*' not crossing folders.");
+            assertEquals(List.of("logs/old/y.log", "logs/x.log"), walk(dir, new FileWalker(true, List.of("logs/**"), null)));
+            assertEquals(List.of("a.txt", "b.log", "logs/x.log"),
+                    walk(dir, new FileWalker(true, null, List.of(".git", "tmp", "old"))),
+                    "Excluded folders should not be descended into.");
+            assertEquals(List.of("logs/old/y.log"),
+                    walk(dir, new FileWalker(true, List.of("*.log"), List.of("b.log", "logs/*.log"))),
+                    "Excludes should win over includes.");
+            assertFalse(new FileWalker(true, List.of("*.log"), List.of("tmp")).matches(Path.of("tmp/z.log")));
+            assertEquals(List.of("logs/old/y.log", "logs/x.log"),
+                    walk(dir, new FileWalker(true, List.of("logs/**", "a.txt"), null).filter("*.log")),
+                    "A filter should narrow the includes, not add to them.");
+            assertEquals(List.of("a.txt", "tmp/z.txt"), walk(dir, new FileWalker(true, null, null).filter("*.txt")));
+
+            // Replacing every file while its directory is read must still visit each file once
+            Map<String, Integer> visits = new ConcurrentHashMap<>();
+            new FileWalker(true, null, null).snapshot(true).walk(dir, (file, attributes) -> {
+                visits.merge(dir.relativize(file).toString(), 1, Integer::sum);
+                AtomicFiles.writeFile(file, temp -> Files.writeString(temp, "replaced"));
+            });
+            assertEquals(6, visits.size());
+            assertTrue(visits.values().stream().allMatch(count -> count == 1), visits.toString());
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testFileWalkerIncludeAndExcludePatterns completed successfully.");
+    }
+
+    private static List<String> walk(Path root, FileWalker walker) throws Exception {
+        List<String> files = new ArrayList<>();
+        walker.walk(root, (file, attributes) -> files.add(root.relativize(file).toString().replace(File.separatorChar, '/')));
+        // Files come in directory order, which depends on the file system
+        files.sort(null);
+        return files;
+    }
+
+    @Test
+    public void testJournalResumeIgnoresLineCutShortByKill() throws Exception {
+        LOGGER.info("Starting test: testJournalResumeIgnoresLineCutShortByKill");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            Path path = dir.resolve(JobJournal.FILE_NAME);
+            try (JobJournal journal = JobJournal.start(path, "encrypt a -> b")) {
+                journal.markDone("logs/app.log.2");
+            }
+            // Killed while writing the entry of logs/app.log.10
+            Files.writeString(path, "done\tlogs/app.log.1", StandardOpenOption.APPEND);
+
+            try (JobJournal journal = JobJournal.resume(path, "encrypt a -> b")) {
+                assertTrue(journal.isDone("logs/app.log.2"));
+                assertFalse(journal.isDone("logs/app.log.1"), "A line cut short must not mark another file as done.");
+                assertEquals(1, journal.completedCount());
+                journal.markDone("logs/app.log.10");
+            }
+            try (JobJournal journal = JobJournal.resume(path, "encrypt a -> b")) {
+                assertTrue(journal.isDone("logs/app.log.10"), "Entries written after a resume should be readable.");
+                assertFalse(journal.isDone("logs/app.log.1"));
+                assertEquals(2, journal.completedCount());
+            }
+            assertThrows(IOException.class, () -> JobJournal.resume(path, "decrypt a -> b"));
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testJournalResumeIgnoresLineCutShortByKill completed successfully.");
+    }
+
+    @Test
+    public void testVerifyFailsOnCorruptFileInFolder() throws Exception {
+        LOGGER.info("Starting test: testVerifyFailsOnCorruptFileInFolder");
+
+        Path dir = Files.createTempDirectory("qbox-encryption-test");
+        try {
+            String key = EncryptionLogic.generateKey();
+            for (String name : List.of("a.txt", "b.txt", "nested/c.txt")) {
+                Path file = dir.resolve(name);
+                Files.createDirectories(file.getParent());
+                Files.writeString(file, "content of " + name + "\n".repeat(1000));
+                EncryptionLogic.encryptFile(file.toString(), key, file.toString(), true);
+            }
+            String[] args = { "-i", dir.toString(), "-k", key, "-t", "1" };
+            assertEquals(0, new CommandLine(new EncryptionCommand.VerifyCommand()).execute(args), "Intact files should verify.");
+
+            Path corrupt = dir.resolve("nested/c.txt");
+            byte[] bytes = Files.readAllBytes(corrupt);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(corrupt, bytes);
+            assertEquals(1, new CommandLine(new EncryptionCommand.VerifyCommand()).execute(args),
+                    "A corrupt file should make verify exit with a non-zero status.");
+            assertEquals(1, new CommandLine(new EncryptionCommand.VerifyCommand()).execute("-i", corrupt.toString(), "-k", key));
+            assertEquals(1, new CommandLine(new EncryptionCommand.VerifyCommand()).execute("-i", dir.resolve("missing").toString(), "-k", key));
+        } finally {
+            deleteRecursively(dir);
+        }
+        LOGGER.info("testVerifyFailsOnCorruptFileInFolder completed successfully.");
+    }
+
+    private static void deleteRecursively(Path dir) throws Exception {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
 }
@@ -0,0 +1,77 @@
+package main.commands.hash;
+
+import main.commands.encryption.ChangeManifest;
+import org.junit.jupiter.api.Test;
+import org.jboss.logging.Logger;
+import picocli.CommandLine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class HashCommandTest {
+
+    private static final Logger LOGGER = Logger.getLogger(HashCommandTest.class);
+
+    @Test
+    public void testOutputManifestAndCheck() throws Exception {
+        LOGGER.info("Starting test: testOutputManifestAndCheck");
+
+        Path dir = Files.createTempDirectory("qbox-hash-test");
+        try {
+            Path folder = dir.resolve("data");
+            Files.createDirectories(folder.resolve("nested"));
+            Files.writeString(folder.resolve("a.txt"), "alpha");
+            // Large enough to take the memory-mapped path
+            byte[] large = new byte[(int) FileHasher.MAPPED_HASH_THRESHOLD + 17];
+            new Random(3).nextBytes(large);
+            Files.write(folder.resolve("nested/large.bin"), large);
+            // A manifest written inside the folder must not list itself
+            Path manifestPath = folder.resolve("data.manifest");
+
+            assertEquals(0, run("-i", folder.toString(), "--output", manifestPath.toString(), "-c"));
+            ChangeManifest manifest = ChangeManifest.load(manifestPath);
+            assertEquals(2, manifest.paths().size());
+            assertNull(manifest.get("data.manifest"));
+            ChangeManifest.Entry entry = manifest.get("nested/large.bin");
+            assertNotNull(entry);
+            assertEquals(large.length, entry.size);
+            assertEquals(ChangeManifest.sha256(folder.resolve("nested/large.bin")), entry.sha256,
+                    "hash --output and incremental encryption should record the same hash.");
+            assertEquals("8ed3f6ad685b959ead7022518e1af76cd816f8e8ec7ccdda1ed4018e8f2223f8", manifest.get("a.txt").sha256);
+
+            // New timestamps alone, e.g. after a decrypt, still match
+            Files.setLastModifiedTime(folder.resolve("a.txt"), FileTime.fromMillis(0));
+            assertEquals(0, run("-i", folder.toString(), "--check", manifestPath.toString(), "-c"));
+
+            Files.writeString(folder.resolve("a.txt"), "ALPHA");
+            assertEquals(1, run("-i", folder.toString(), "--check", manifestPath.toString(), "-c"), "A changed file should fail the check.");
+            Files.writeString(folder.resolve("a.txt"), "alpha");
+
+            Files.writeString(folder.resolve("new.txt"), "new");
+            assertEquals(1, run("-i", folder.toString(), "--check", manifestPath.toString(), "-c"), "A new file should fail the check.");
+            Files.delete(folder.resolve("new.txt"));
+
+            Files.delete(folder.resolve("nested/large.bin"));
+            assertEquals(1, run("-i", folder.toString(), "--check", manifestPath.toString(), "-c"), "A missing file should fail the check.");
+
+            assertEquals(1, run("-i", folder.toString(), "--check", manifestPath.toString(), "--algorithm", "CRC32C"),
+                    "Manifests record SHA-256 only.");
+        } finally {
+            try (var paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        LOGGER.info("testOutputManifestAndCheck completed successfully.");
+    }
+
+    private static int run(String... args) {
+        return new CommandLine(new HashCommand()).execute(args);
+    }
+}
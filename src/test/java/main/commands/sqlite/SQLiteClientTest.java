@@ -10,8 +10,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class SQLiteClientTest {
@@ -97,4 +104,653 @@ public class SQLiteClientTest {
             LOGGER.info("Test completed: testCRUDOperations");
         }
     }
+
+    @Test
+    public void testStreamingOutputFormats() throws Exception {
+        Path dbFile = Path.of("test-formats.db");
+        PrintStream originalOut = System.out;
+
+        try {
+            LOGGER.info("Starting test: testStreamingOutputFormats");
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE people (id INTEGER PRIMARY KEY, name TEXT, score REAL);");
+                stmt.execute("INSERT INTO people (name, score) VALUES ('Smith, \"Al\"', 1.5), (NULL, 2);");
+            }
+
+            ByteArrayOutputStream csvOutput = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(csvOutput));
+            new CommandLine(new SQLiteClient.QueryCommand()).execute("--db", dbFile.toString(),
+                    "--query", "SELECT * FROM people ORDER BY id;", "--output-format", "csv");
+            LOGGER.info("CSV output: " + csvOutput);
+            assertEquals("id,name,score\n1,\"Smith, \"\"Al\"\"\",1.5\n2,,2.0\n", csvOutput.toString());
+
+            ByteArrayOutputStream ndjsonOutput = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(ndjsonOutput));
+            new CommandLine(new SQLiteClient.QueryCommand()).execute("--db", dbFile.toString(),
+                    "--query", "SELECT id, name FROM people ORDER BY id;", "--output-format", "ndjson", "--fetch-size", "1");
+            LOGGER.info("NDJSON output: " + ndjsonOutput);
+            assertEquals("{\"id\":1,\"name\":\"Smith, \\\"Al\\\"\"}\n{\"id\":2,\"name\":null}\n", ndjsonOutput.toString());
+
+            // SQLite overflows 1e999 to infinity; JSON has no literal for it
+            for (String format : List.of("json", "ndjson")) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                System.setOut(new PrintStream(output));
+                new CommandLine(new SQLiteClient.QueryCommand()).execute("--db", dbFile.toString(),
+                        "--query", "SELECT 1e999 AS high, -1e999 AS low, 0.5 AS half;", "--output-format", format);
+                assertTrue(output.toString().contains("{\"high\":\"Infinity\",\"low\":\"-Infinity\",\"half\":0.5}"), output.toString());
+            }
+        } finally {
+            System.setOut(originalOut);
+            Files.deleteIfExists(dbFile);
+            LOGGER.info("Test completed: testStreamingOutputFormats");
+        }
+    }
+
+    @Test
+    public void testImportCreatesTableAndAppends() throws Exception {
+        Path dbFile = Path.of("test-import.db");
+        Path csvFile = Path.of("test-import.csv");
+        Path ndjsonFile = Path.of("test-import.ndjson");
+        PrintStream originalOut = System.out;
+
+        try {
+            LOGGER.info("Starting test: testImportCreatesTableAndAppends");
+            StringBuilder csv = new StringBuilder("id,name,score\n");
+            for (int i = 1; i <= 2500; i++) {
+                csv.append(i).append(",\"name ").append(i).append(", x\",").append(i / 2.0).append('\n');
+            }
+            Files.writeString(csvFile, csv);
+            Files.writeString(ndjsonFile, "{\"id\":2501,\"name\":\"last\",\"score\":null}\n");
+
+            System.setOut(new PrintStream(new ByteArrayOutputStream()));
+            int exitCode = new CommandLine(new SQLiteClient.ImportCommand()).execute("--db", dbFile.toString(),
+                    "--table", "scores", "--file", csvFile.toString(), "--batch-size", "100", "--commit-every", "1000");
+            assertEquals(0, exitCode, "CSV import should succeed.");
+            exitCode = new CommandLine(new SQLiteClient.ImportCommand()).execute("--db", dbFile.toString(),
+                    "--table", "scores", "--file", ndjsonFile.toString());
+            assertEquals(0, exitCode, "NDJSON import into the existing table should succeed.");
+
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT count(*), sum(id), typeof(max(score)), "
+                         + "(SELECT name FROM scores WHERE id = 7) FROM scores;")) {
+                rs.next();
+                LOGGER.info("Imported rows: " + rs.getLong(1));
+                assertEquals(2501, rs.getLong(1));
+                assertEquals(2501L * 2502 / 2, rs.getLong(2));
+                assertEquals("real", rs.getString(3));
+                assertEquals("name 7, x", rs.getString(4));
+            }
+        } finally {
+            System.setOut(originalOut);
+            Files.deleteIfExists(dbFile);
+            Files.deleteIfExists(csvFile);
+            Files.deleteIfExists(ndjsonFile);
+            LOGGER.info("Test completed: testImportCreatesTableAndAppends");
+        }
+    }
+
+    @Test
+    public void testImportKeepsNumberLikeTextAsText() throws Exception {
+        Path dbFile = Path.of("test-import-types.db");
+        Path csvFile = Path.of("test-import-types.csv");
+        PrintStream originalOut = System.out;
+
+        try {
+            LOGGER.info("Starting test: testImportKeepsNumberLikeTextAsText");
+            Files.writeString(csvFile, "id,zip,price,code,padded,big\n"
+                    + "1,01234,2.50,1f,\" 12\",12345678901234567890\n"
+                    + "2,10115,3,0x1p3,7,1\n");
+
+            System.setOut(new PrintStream(new ByteArrayOutputStream()));
+            int exitCode = new CommandLine(new SQLiteClient.ImportCommand()).execute("--db", dbFile.toString(),
+                    "--table", "places", "--file", csvFile.toString());
+            assertEquals(0, exitCode, "CSV import should succeed.");
+
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 Statement stmt = conn.createStatement()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT group_concat(name || ' ' || type, ', ') FROM pragma_table_info('places');")) {
+                    rs.next();
+                    assertEquals("id INTEGER, zip TEXT, price REAL, code TEXT, padded TEXT, big TEXT", rs.getString(1));
+                }
+                try (ResultSet rs = stmt.executeQuery("SELECT zip, padded, big FROM places WHERE id = 1;")) {
+                    rs.next();
+                    assertEquals("01234", rs.getString(1), "Leading zeros should be kept.");
+                    assertEquals(" 12", rs.getString(2));
+                    assertEquals("12345678901234567890", rs.getString(3));
+                }
+            }
+        } finally {
+            System.setOut(originalOut);
+            Files.deleteIfExists(dbFile);
+            Files.deleteIfExists(csvFile);
+            LOGGER.info("Test completed: testImportKeepsNumberLikeTextAsText");
+        }
+    }
+
+    @Test
+    public void testCreateDbSplitsScriptStatements() throws Exception {
+        Path dbFile = Path.of("test-script.db");
+        Path script = Path.of("test-script.sql");
+        PrintStream originalOut = System.out;
+
+        try {
+            LOGGER.info("Starting test: testCreateDbSplitsScriptStatements");
+            Files.writeString(script, String.join("\n",
+                    "-- a dump; with semicolons in comments",
+                    "BEGIN TRANSACTION;",
+                    "CREATE TABLE notes (id INTEGER PRIMARY KEY, body TEXT, \"odd;name\" TEXT);",
+                    "CREATE TABLE audit (msg TEXT);",
+                    "CREATE TRIGGER notes_ai AFTER INSERT ON notes BEGIN",
+                    "  INSERT INTO audit VALUES ('added; ' || new.id);",
+                    "  UPDATE audit SET msg = CASE WHEN msg LIKE '%;%' THEN msg ELSE 'x' END;",
+                    "END;",
+                    "INSERT INTO notes (body) VALUES ('it''s; /* not a comment */ -- nor this');",
+                    "/* block; comment */ INSERT INTO notes (body) VALUES ('two');",
+                    "COMMIT;",
+                    "PRAGMA user_version = 3;"));
+
+            System.setOut(new PrintStream(new ByteArrayOutputStream()));
+            int exitCode = new CommandLine(new SQLiteClient.CreateDbCommand()).execute(script.toString(),
+                    "--output-db", dbFile.toString(), "--transaction-size", "2");
+            assertEquals(0, exitCode, "The script should run.");
+
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT (SELECT body FROM notes WHERE id = 1), (SELECT count(*) FROM audit), "
+                         + "(SELECT user_version FROM pragma_user_version);")) {
+                rs.next();
+                LOGGER.info("First note: " + rs.getString(1));
+                assertEquals("it's; /* not a comment */ -- nor this", rs.getString(1));
+                assertEquals(2, rs.getInt(2));
+                assertEquals(3, rs.getInt(3));
+            }
+        } finally {
+            System.setOut(originalOut);
+            Files.deleteIfExists(dbFile);
+            Files.deleteIfExists(script);
+            LOGGER.info("Test completed: testCreateDbSplitsScriptStatements");
+        }
+    }
+
+    @Test
+    public void testCreateDbHandlesSavepointsAndRejectsRollback() throws Exception {
+        Path dbFile = Path.of("test-savepoint.db");
+        Path script = Path.of("test-savepoint.sql");
+        PrintStream originalOut = System.out;
+        PrintStream originalErr = System.err;
+
+        try {
+            LOGGER.info("Starting test: testCreateDbHandlesSavepointsAndRejectsRollback");
+            // With two statements per batch, a commit inside the savepoint would release it
+            Files.writeString(script, String.join("\n",
+                    "CREATE TABLE t (v INTEGER);",
+                    "SAVEPOINT outer_sp;",
+                    "INSERT INTO t VALUES (1);",
+                    "SAVEPOINT \"inner\";",
+                    "INSERT INTO t VALUES (2);",
+                    "INSERT INTO t VALUES (3);",
+                    "ROLLBACK TO inner;",
+                    "RELEASE SAVEPOINT outer_sp;",
+                    "INSERT INTO t VALUES (4);"));
+
+            System.setOut(new PrintStream(new ByteArrayOutputStream()));
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            System.setErr(new PrintStream(errors));
+            String[] args = { script.toString(), "--output-db", dbFile.toString(), "--transaction-size", "2" };
+            assertEquals(0, new CommandLine(new SQLiteClient.CreateDbCommand()).execute(args), errors.toString());
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT group_concat(v) FROM (SELECT v FROM t ORDER BY v);")) {
+                assertEquals("1,4", rs.getString(1), "ROLLBACK TO should undo only the rows after its savepoint.");
+            }
+
+            Files.delete(dbFile);
+            Files.writeString(script, "CREATE TABLE t (v INTEGER);\nINSERT INTO t VALUES (1);\nROLLBACK; -- due to errors\n");
+            assertEquals(1, new CommandLine(new SQLiteClient.CreateDbCommand()).execute(args));
+            assertTrue(errors.toString().contains("ROLLBACK is not supported"), errors.toString());
+        } finally {
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+            Files.deleteIfExists(dbFile);
+            Files.deleteIfExists(script);
+            LOGGER.info("Test completed: testCreateDbHandlesSavepointsAndRejectsRollback");
+        }
+    }
+
+    @Test
+    public void testShellRunsScriptOnOneConnection() throws Exception {
+        Path dbFile = Path.of("test-shell.db");
+        Path script = Path.of("test-shell.sql");
+        PrintStream originalOut = System.out;
+
+        try {
+            LOGGER.info("Starting test: testShellRunsScriptOnOneConnection");
+            Files.writeString(script, String.join("\n",
+                    "CREATE TEMP TABLE scratch (id INTEGER, label TEXT);",
+                    "INSERT INTO scratch VALUES (1, 'one;'),",
+                    "  (2, 'two');",
+                    ".mode csv",
+                    "SELECT label FROM scratch ORDER BY id;",
+                    ".mode ndjson",
+                    "SELECT count(*) AS n FROM scratch;",
+                    "SELECT count(*) AS n FROM scratch;"));
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(output));
+            int exitCode = new CommandLine(new SQLiteClient.ShellCommand()).execute("--db", dbFile.toString(),
+                    "--file", script.toString(), "--no-timer");
+
+            LOGGER.info("Shell output: " + output);
+            assertEquals(0, exitCode, "The script should run without errors.");
+            // The temporary table only exists if every statement ran on the same connection
+            assertEquals("label\none;\ntwo\n{\"n\":2}\n{\"n\":2}\n", output.toString());
+        } finally {
+            System.setOut(originalOut);
+            Files.deleteIfExists(dbFile);
+            Files.deleteIfExists(script);
+            LOGGER.info("Test completed: testShellRunsScriptOnOneConnection");
+        }
+    }
+
+    @Test
+    public void testShellRunsEachStatementOnceAcrossLines() throws Exception {
+        Path dbFile = Path.of("test-shell-lines.db");
+        Path script = Path.of("test-shell-lines.sql");
+        PrintStream originalOut = System.out;
+
+        try {
+            LOGGER.info("Starting test: testShellRunsEachStatementOnceAcrossLines");
+            Files.writeString(script, String.join("\n",
+                    "CREATE TABLE t (v TEXT);",
+                    "INSERT INTO t VALUES ('1'); INSERT INTO t VALUES ('multi",
+                    "line');",
+                    ".mode csv",
+                    "SELECT count(*) AS n FROM t;",
+                    "-- a comment on the last line"));
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(output));
+            int exitCode = new CommandLine(new SQLiteClient.ShellCommand()).execute("--db", dbFile.toString(),
+                    "--file", script.toString(), "--no-timer");
+
+            assertEquals(0, exitCode, "A trailing comment should not run as a statement.");
+            assertEquals("n\n2\n", output.toString(), "A statement finished before a literal spanning lines should run once.");
+        } finally {
+            System.setOut(originalOut);
+            Files.deleteIfExists(dbFile);
+            Files.deleteIfExists(script);
+            LOGGER.info("Test completed: testShellRunsEachStatementOnceAcrossLines");
+        }
+    }
+
+    @Test
+    public void testShellTimerOption() throws Exception {
+        Path dbFile = Path.of("test-shell-timer.db");
+        Path script = Path.of("test-shell-timer.sql");
+        PrintStream originalErr = System.err;
+
+        try {
+            LOGGER.info("Starting test: testShellTimerOption");
+            Files.writeString(script, "SELECT 1;\n");
+            for (String[] options : List.of(new String[0], new String[] { "--timer" }, new String[] { "--no-timer" })) {
+                ByteArrayOutputStream errors = new ByteArrayOutputStream();
+                System.setErr(new PrintStream(errors));
+                List<String> args = new ArrayList<>(List.of("--db", dbFile.toString(), "--file", script.toString()));
+                args.addAll(Arrays.asList(options));
+                assertEquals(0, new CommandLine(new SQLiteClient.ShellCommand()).execute(args.toArray(new String[0])));
+                assertEquals(options.length == 0 || options[0].equals("--timer"), errors.toString().contains("Run Time:"),
+                        "Timing with options " + Arrays.toString(options));
+            }
+        } finally {
+            System.setErr(originalErr);
+            Files.deleteIfExists(dbFile);
+            Files.deleteIfExists(script);
+            LOGGER.info("Test completed: testShellTimerOption");
+        }
+    }
+
+    @Test
+    public void testBatchRunsQueriesInParallel() throws Exception {
+        Path dbFile = Path.of("test-batch.db");
+        Path queries = Path.of("test-batch.sql");
+        PrintStream originalOut = System.out;
+        PrintStream originalErr = System.err;
+
+        try {
+            LOGGER.info("Starting test: testBatchRunsQueriesInParallel");
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE numbers (n INTEGER);");
+                stmt.execute("WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 5000) "
+                        + "INSERT INTO numbers SELECT n FROM seq;");
+            }
+            Files.writeString(queries, "SELECT n FROM numbers WHERE n % 2 = 0;\nSELECT n FROM numbers WHERE n <= 10;\n"
+                    + "SELECT count(*) AS c FROM numbers;\n");
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(output));
+            System.setErr(new PrintStream(new ByteArrayOutputStream()));
+            int exitCode = new CommandLine(new SQLiteClient.BatchCommand()).execute("--db", dbFile.toString(),
+                    "--queries", queries.toString(), "--parallel", "3");
+            assertEquals(0, exitCode, "All queries should succeed.");
+
+            long[] rowsPerQuery = new long[4];
+            for (String line : output.toString().split("\n")) {
+                int query = Integer.parseInt(line.replaceAll("^\\{\"_query\":(\\d+),.*$", "$1"));
+                rowsPerQuery[query]++;
+            }
+            LOGGER.info("Rows per query: " + Arrays.toString(rowsPerQuery));
+            assertArrayEquals(new long[] { 0, 2500, 10, 1 }, rowsPerQuery);
+            assertTrue(output.toString().contains("{\"_query\":3,\"c\":5000}"), "Rows should carry their query number.");
+        } finally {
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+            Files.deleteIfExists(dbFile);
+            Files.deleteIfExists(queries);
+            LOGGER.info("Test completed: testBatchRunsQueriesInParallel");
+        }
+    }
+
+    @Test
+    public void testExportSplitsIntoCompleteParts() throws Exception {
+        Path dbFile = Path.of("test-export.db");
+        Path output = Path.of("test-export.csv");
+
+        try {
+            LOGGER.info("Starting test: testExportSplitsIntoCompleteParts");
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE numbers (n INTEGER, label TEXT);");
+                stmt.execute("WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 200000) "
+                        + "INSERT INTO numbers SELECT n, 'label ' || n FROM seq;");
+            }
+
+            int exitCode = new CommandLine(new SQLiteClient.ExportCommand()).execute("--db", dbFile.toString(),
+                    "--table", "numbers", "--output", output.toString(), "--split-size", "1M", "--clean");
+            assertEquals(0, exitCode, "Export should succeed.");
+
+            long rows = 0;
+            int parts = 0;
+            Path part;
+            while (Files.exists(part = Path.of(String.format("test-export-%03d.csv", parts + 1)))) {
+                List<String> lines = Files.readAllLines(part);
+                assertEquals("n,label", lines.get(0), "Every part should start with the header.");
+                rows += lines.size() - 1;
+                parts++;
+            }
+            LOGGER.info("Exported " + rows + " rows in " + parts + " parts");
+            assertEquals(200000, rows);
+            assertTrue(parts > 1, "The output should be split.");
+        } finally {
+            Files.deleteIfExists(dbFile);
+            for (int i = 1; Files.deleteIfExists(Path.of(String.format("test-export-%03d.csv", i))); i++) {
+                // delete every part
+            }
+            LOGGER.info("Test completed: testExportSplitsIntoCompleteParts");
+        }
+    }
+
+    @Test
+    public void testProfilerSuggestsIndexForFullScan() throws Exception {
+        Path dbFile = Path.of("test-profile.db");
+
+        try {
+            LOGGER.info("Starting test: testProfilerSuggestsIndexForFullScan");
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE events (id INTEGER PRIMARY KEY, user_id INTEGER, created REAL);");
+                stmt.execute("WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 20000) "
+                        + "INSERT INTO events SELECT n, n % 100, n FROM seq;");
+
+                String sql = "SELECT e.id FROM events e WHERE e.created > 100 AND e.user_id = 7";
+                QueryProfiler.Profile profile = new QueryProfiler(conn).profile(sql, 5);
+                LOGGER.info("Advice: " + profile.advice);
+                assertEquals(5, profile.runs.size());
+                assertEquals(199, profile.runs.get(0).rows);
+                assertTrue(profile.plan.get(0).detail.startsWith("SCAN"), "The query should scan the table.");
+                assertEquals(1, profile.advice.size());
+                assertTrue(profile.advice.get(0).contains("CREATE INDEX idx_events_user_id_created ON events(user_id, created);"),
+                        "Equality columns should come before the range column.");
+
+                stmt.execute("CREATE INDEX idx_events_user_id_created ON events(user_id, created);");
+                profile = new QueryProfiler(conn).profile(sql, 1);
+                assertTrue(profile.advice.isEmpty(), "The index should remove the full scan.");
+
+                new QueryProfiler(conn).profile("DELETE FROM events", 2);
+                try (ResultSet rs = stmt.executeQuery("SELECT count(*) FROM events")) {
+                    assertEquals(20000, rs.getLong(1), "Profiled writes should be rolled back.");
+                }
+            }
+        } finally {
+            Files.deleteIfExists(dbFile);
+            LOGGER.info("Test completed: testProfilerSuggestsIndexForFullScan");
+        }
+    }
+
+    @Test
+    public void testQueryCacheInvalidatedByWrites() throws Exception {
+        Path dbFile = Path.of("test-cache.db");
+        Path cacheDir = Path.of("test-query-cache");
+        PrintStream originalOut = System.out;
+
+        try {
+            LOGGER.info("Starting test: testQueryCacheInvalidatedByWrites");
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE totals (amount INTEGER);");
+                stmt.execute("INSERT INTO totals VALUES (1), (2), (3);");
+            }
+            String sql = "SELECT sum(amount) AS total FROM totals;";
+            String[] args = { "--db", dbFile.toString(), "--query", sql, "--output-format", "csv", "--cache",
+                    "--cache-dir", cacheDir.toString() };
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(output));
+            assertEquals(0, new CommandLine(new SQLiteClient.QueryCommand()).execute(args));
+            assertEquals("total\n6\n", output.toString());
+
+            String key = QueryCache.key(dbFile, "SELECT   sum(amount) AS total\n  FROM totals -- report", "csv");
+            try (var cached = new QueryCache(cacheDir, 1 << 20).get(key, QueryCache.fingerprint(dbFile))) {
+                assertTrue(cached != null, "A reformatted statement should hit the stored entry.");
+                assertEquals("total\n6\n", new String(cached.readAllBytes()));
+            }
+
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("INSERT INTO totals VALUES (4);");
+            }
+            output.reset();
+            assertEquals(0, new CommandLine(new SQLiteClient.QueryCommand()).execute(args));
+            LOGGER.info("Result after the write: " + output.toString().trim());
+            assertEquals("total\n10\n", output.toString(), "A write should invalidate the cached result.");
+            assertTrue(!QueryCache.isCacheable("SELECT random()") && !QueryCache.isCacheable("DELETE FROM totals"));
+        } finally {
+            System.setOut(originalOut);
+            Files.deleteIfExists(dbFile);
+            if (Files.isDirectory(cacheDir)) {
+                try (var files = Files.list(cacheDir)) {
+                    for (Path file : files.toList()) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(cacheDir);
+            }
+            LOGGER.info("Test completed: testQueryCacheInvalidatedByWrites");
+        }
+    }
+
+    @Test
+    public void testBenchComparesPragmaProfiles() throws Exception {
+        Path workDir = Files.createTempDirectory("qbox-bench-test");
+
+        try {
+            LOGGER.info("Starting test: testBenchComparesPragmaProfiles");
+            List<PragmaProfile> profiles = List.of(PragmaProfile.forName("default"), PragmaProfile.forName("page_size=8192;journal_mode=WAL"));
+            List<WorkloadBenchmark.Workload> workloads = List.of(WorkloadBenchmark.Workload.INSERT, WorkloadBenchmark.Workload.LOOKUP,
+                    WorkloadBenchmark.Workload.SCAN, WorkloadBenchmark.Workload.MIXED);
+            List<WorkloadBenchmark.Result> results = new WorkloadBenchmark(workDir).rows(5000).ops(500).threads(2).run(profiles, workloads);
+
+            assertEquals(8, results.size());
+            for (WorkloadBenchmark.Result result : results) {
+                LOGGER.info(result.workload + " " + result.profile.name + ": " + Math.round(result.opsPerSecond()) + " ops/s");
+                assertEquals(0, result.errors);
+                assertTrue(result.opsPerSecond() > 0 && result.latency(0.99) >= result.latency(0.50));
+            }
+            assertEquals("page_size=8192,journal_mode=WAL", profiles.get(1).spec());
+            try (var files = Files.list(workDir)) {
+                assertEquals(0, files.count(), "The benchmark databases should be deleted.");
+            }
+        } finally {
+            Files.deleteIfExists(workDir);
+            LOGGER.info("Test completed: testBenchComparesPragmaProfiles");
+        }
+    }
+
+    @Test
+    public void testSyncAppliesOnlyChangedRows() throws Exception {
+        Path source = Path.of("test-sync-source.db");
+        Path target = Path.of("test-sync-target.db");
+        Path copy = Path.of("test-sync-copy.db");
+        Path changeset = Path.of("test-sync-changes.sql");
+
+        try {
+            LOGGER.info("Starting test: testSyncAppliesOnlyChangedRows");
+            for (Path dbFile : List.of(source, target, copy)) {
+                try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                     Statement stmt = conn.createStatement()) {
+                    stmt.execute("CREATE TABLE items (id INTEGER PRIMARY KEY, name TEXT, price REAL, data BLOB);");
+                    stmt.execute("WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 20000) "
+                            + "INSERT INTO items SELECT n, 'item ' || n, n / 4.0, zeroblob(n % 3) FROM seq;");
+                }
+            }
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + source);
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("UPDATE items SET name = 'it''s changed' WHERE id IN (10, 15000);");
+                stmt.execute("DELETE FROM items WHERE id BETWEEN 7000 AND 7009;");
+                stmt.execute("INSERT INTO items VALUES (30000, NULL, 1.5, X'00FF');");
+                stmt.execute("CREATE TABLE tags (name TEXT, item INTEGER, PRIMARY KEY (name, item));");
+                stmt.execute("INSERT INTO tags VALUES ('new', 30000), ('sale', 10);");
+            }
+
+            try (Connection sourceConn = TableSync.openSource(source.toString());
+                 Connection targetConn = DriverManager.getConnection("jdbc:sqlite:" + target);
+                 var writer = Files.newBufferedWriter(changeset)) {
+                TableSync sync = new TableSync(sourceConn, targetConn).chunkSize(1000).changeset(writer);
+                List<TableSync.TableResult> results = sync.sync(sync.sourceTables());
+
+                TableSync.TableResult items = results.get(0);
+                LOGGER.info("items: " + items.rangesHashed + " ranges hashed, " + items.rangesDiffering + " differing");
+                assertEquals(1, items.inserted);
+                assertEquals(2, items.updated);
+                assertEquals(10, items.deleted);
+                assertEquals(19991, items.sourceRows);
+                assertTrue(items.rangesDiffering < items.rangesHashed / 2, "Unchanged ranges should not be narrowed down.");
+                assertTrue(results.get(1).created);
+                assertEquals(2, results.get(1).inserted);
+            }
+
+            int exitCode = new CommandLine(new SQLiteClient.CreateDbCommand()).execute(changeset.toString(), "--output-db", copy.toString(),
+                    "--transaction-size", "0");
+            assertEquals(0, exitCode, "The changeset should apply to another copy of the target.");
+
+            String expected = contents(source);
+            assertEquals(expected, contents(target));
+            assertEquals(expected, contents(copy));
+            try (Connection sourceConn = TableSync.openSource(source.toString());
+                 Connection targetConn = DriverManager.getConnection("jdbc:sqlite:" + target)) {
+                TableSync sync = new TableSync(sourceConn, targetConn);
+                assertEquals(0, sync.sync(sync.sourceTables()).stream().mapToLong(TableSync.TableResult::changes).sum(),
+                        "A second sync should find nothing to change.");
+            }
+
+            // A sync that stops on an error must not leave a partial changeset behind
+            Files.delete(changeset);
+            Files.writeString(copy, "not a database");
+            exitCode = new CommandLine(new SQLiteClient.SyncCommand()).execute("--source", source.toString(), "--target", copy.toString(),
+                    "--changeset", changeset.toString(), "-c");
+            assertEquals(1, exitCode);
+            assertFalse(Files.exists(changeset), "A failed sync should not write the changeset.");
+        } finally {
+            for (Path file : List.of(source, target, copy, changeset)) {
+                Files.deleteIfExists(file);
+            }
+            LOGGER.info("Test completed: testSyncAppliesOnlyChangedRows");
+        }
+    }
+
+    @Test
+    public void testSyncRollsBackOnFailureAndSkipsNullKeys() throws Exception {
+        Path source = Path.of("test-sync-fail-source.db");
+        Path target = Path.of("test-sync-fail-target.db");
+        Path changeset = Path.of("test-sync-fail-changes.sql");
+
+        try {
+            LOGGER.info("Starting test: testSyncRollsBackOnFailureAndSkipsNullKeys");
+            for (Path dbFile : List.of(source, target)) {
+                try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+                     Statement stmt = conn.createStatement()) {
+                    stmt.execute("CREATE TABLE items (id INTEGER PRIMARY KEY, name TEXT);");
+                    stmt.execute("WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < 25000) "
+                            + "INSERT INTO items SELECT n, 'item ' || n FROM seq;");
+                    stmt.execute("CREATE TABLE labels (code TEXT PRIMARY KEY, label TEXT);");
+                    stmt.execute("INSERT INTO labels VALUES ('a', 'alpha');");
+                }
+            }
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + source);
+                 Statement stmt = conn.createStatement()) {
+                // More changes than the old 10000-change batches, all before the failing insert
+                stmt.execute("UPDATE items SET name = 'changed' WHERE id <= 20000;");
+                stmt.execute("INSERT INTO items VALUES (99999, 'last');");
+                // Allowed for a TEXT primary key, but no key range can ever contain this row
+                stmt.execute("INSERT INTO labels VALUES (NULL, 'no code');");
+            }
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + target);
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TRIGGER refuse BEFORE INSERT ON items WHEN NEW.id = 99999 BEGIN SELECT RAISE(ABORT, 'refused'); END;");
+            }
+            String before = names(target);
+
+            String[] args = { "--source", source.toString(), "--target", target.toString(), "--changeset", changeset.toString(), "-c" };
+            assertEquals(1, new CommandLine(new SQLiteClient.SyncCommand()).execute(args));
+            assertEquals(before, names(target), "The updates made before the failing insert should be rolled back.");
+            assertFalse(Files.exists(changeset));
+
+            try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + target);
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TRIGGER refuse;");
+            }
+            try (Connection sourceConn = TableSync.openSource(source.toString());
+                 Connection targetConn = DriverManager.getConnection("jdbc:sqlite:" + target)) {
+                List<TableSync.TableResult> results = new TableSync(sourceConn, targetConn).sync(List.of("items", "labels"));
+                assertEquals(20000, results.get(0).updated);
+                assertTrue(results.get(1).error != null && results.get(1).error.contains("NULL"),
+                        "A table with a NULL primary key should be reported, not silently left out of sync.");
+            }
+        } finally {
+            for (Path file : List.of(source, target, changeset)) {
+                Files.deleteIfExists(file);
+            }
+            LOGGER.info("Test completed: testSyncRollsBackOnFailureAndSkipsNullKeys");
+        }
+    }
+
+    private static String names(Path dbFile) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT count(*) || ':' || group_concat(name) FROM (SELECT name FROM items ORDER BY id)")) {
+            return rs.getString(1);
+        }
+    }
+
+    private static String contents(Path dbFile) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT count(*), sum(id), group_concat(name || price || hex(data)), "
+                     + "(SELECT group_concat(name || item) FROM tags) FROM items")) {
+            rs.next();
+            return rs.getString(1) + "|" + rs.getString(2) + "|" + rs.getString(3).hashCode() + "|" + rs.getString(4);
+        }
+    }
 }